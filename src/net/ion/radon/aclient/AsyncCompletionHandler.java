@@ -3,9 +3,29 @@ package net.ion.radon.aclient;
 import net.ion.framework.util.IOUtil;
 
 
-public abstract class AsyncCompletionHandler<T> implements AsyncHandler<T>, ProgressAsyncHandler<T> {
+public abstract class AsyncCompletionHandler<T> implements AsyncHandler<T>, ProgressAsyncHandler<T>, ReleasableHandler {
 
-	private final Response.ResponseBuilder builder = new Response.ResponseBuilder();
+	private final Response.ResponseBuilder builder;
+
+	public AsyncCompletionHandler() {
+		this(false);
+	}
+
+	/**
+	 * @param aggregateBody
+	 *            copy the body into a single buffer sized from the Content-Length as it arrives, a chunked body goes into growing blocks. The body then takes about its own size in memory
+	 *            instead of up to three times when it is read as bytes or text.
+	 */
+	public AsyncCompletionHandler(boolean aggregateBody) {
+		this.builder = new Response.ResponseBuilder(aggregateBody);
+	}
+
+	/**
+	 * Aggregates the body within a memory budget, a body over the budget or its spill threshold goes to a temporary file.
+	 */
+	public AsyncCompletionHandler(ResponseMemoryBudget budget) {
+		this.builder = new Response.ResponseBuilder(budget);
+	}
 
 	public STATE onBodyPartReceived(final HttpResponseBodyPart content) throws Exception {
 		builder.accumulate(content);
@@ -24,12 +44,16 @@ public abstract class AsyncCompletionHandler<T> implements AsyncHandler<T>, Prog
 	}
 
 	public final T onCompleted() throws Exception {
-		final Response response = builder.build();
+		Response response = null;
 		try {
+			response = builder.build();
 			T result = onCompleted(response);
 			return result ;
 		} finally {
-			IOUtil.closeQuietly(response.getBodyAsStream()) ;
+			builder.release();
+			if (response != null) {
+				IOUtil.closeQuietly(response.getBodyAsStream()) ;
+			}
 		}
 	}
 
@@ -37,6 +61,13 @@ public abstract class AsyncCompletionHandler<T> implements AsyncHandler<T>, Prog
 		t.printStackTrace() ;
 	}
 
+	/**
+	 * Gives back the memory taken from the budget, the provider calls it once the request failed.
+	 */
+	public final void releaseResources() {
+		builder.release();
+	}
+
 	abstract public T onCompleted(Response response) throws Exception;
 
 	public STATE onHeaderWriteCompleted() {
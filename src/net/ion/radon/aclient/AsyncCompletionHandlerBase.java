@@ -2,6 +2,19 @@ package net.ion.radon.aclient;
 
 
 public class AsyncCompletionHandlerBase extends AsyncCompletionHandler<Response> {
+
+	public AsyncCompletionHandlerBase() {
+		super();
+	}
+
+	public AsyncCompletionHandlerBase(boolean aggregateBody) {
+		super(aggregateBody);
+	}
+
+	public AsyncCompletionHandlerBase(ResponseMemoryBudget budget) {
+		super(budget);
+	}
+
 	@Override
 	public Response onCompleted(Response response) throws Exception {
 		return response;
@@ -5,7 +5,12 @@ public interface AsyncHandler<T> {
 
 	public static enum STATE {
 
-		ABORT, CONTINUE, UPGRADE
+		ABORT, CONTINUE, UPGRADE,
+		/**
+		 * Continue, but stop reading the response until {@link ResponseReadControl#resume()} is called on {@link HttpResponseBodyPart#getReadControl()}. Only meaningful
+		 * from {@link AsyncHandler#onBodyPartReceived(HttpResponseBodyPart)}, elsewhere it is the same as CONTINUE.
+		 */
+		PAUSE
 	}
 
 	void onThrowable(Throwable ex);
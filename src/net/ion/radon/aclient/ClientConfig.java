@@ -54,6 +54,11 @@ public class ClientConfig {
 	protected HostnameVerifier hostnameVerifier;
 	protected int ioThreadMultiplier;
 	protected boolean strict302Handling;
+	protected NameResolver nameResolver;
+	protected int sslSessionCacheSize;
+	protected int sslSessionTimeoutInSec;
+	protected long responseMemoryBudgetInBytes;
+	protected long responseSpillThresholdInBytes;
 
 	protected ClientConfig() {
 	}
@@ -65,7 +70,7 @@ public class ClientConfig {
 	private ClientConfig(int maxTotalConnections, int maxConnectionPerHost, int connectionTimeOutInMs, int webSocketTimeoutInMs, int idleConnectionInPoolTimeoutInMs, int idleConnectionTimeoutInMs, int requestTimeoutInMs, boolean redirectEnabled, int maxDefaultRedirects,
 			boolean compressionEnabled, String userAgent, boolean keepAlive, ScheduledExecutorService reaper, ExecutorService applicationThreadPool, ProxyServer proxyServer, SSLContext sslContext, SSLEngineFactory sslEngineFactory, AsyncHttpProviderConfig<?, ?> providerConfig,
 			ConnectionsPool<?, ?> connectionsPool, Realm realm, List<RequestFilter> requestFilters, List<ResponseFilter> responseFilters, List<IOExceptionFilter> ioExceptionFilters, int requestCompressionLevel, int maxRequestRetry, boolean allowSslConnectionCaching, boolean useRawUrl,
-			boolean removeQueryParamOnRedirect, HostnameVerifier hostnameVerifier, int ioThreadMultiplier, boolean strict302Handling) {
+			boolean removeQueryParamOnRedirect, HostnameVerifier hostnameVerifier, int ioThreadMultiplier, boolean strict302Handling, NameResolver nameResolver, int sslSessionCacheSize, int sslSessionTimeoutInSec, long responseMemoryBudgetInBytes, long responseSpillThresholdInBytes) {
 
 		this.maxTotalConnections = maxTotalConnections;
 		this.maxConnectionPerHost = maxConnectionPerHost;
@@ -95,6 +100,11 @@ public class ClientConfig {
 		this.hostnameVerifier = hostnameVerifier;
 		this.ioThreadMultiplier = ioThreadMultiplier;
 		this.strict302Handling = strict302Handling;
+		this.nameResolver = nameResolver;
+		this.sslSessionCacheSize = sslSessionCacheSize;
+		this.sslSessionTimeoutInSec = sslSessionTimeoutInSec;
+		this.responseMemoryBudgetInBytes = responseMemoryBudgetInBytes;
+		this.responseSpillThresholdInBytes = responseSpillThresholdInBytes;
 
 		if (applicationThreadPool == null) {
 			this.applicationThreadPool = Executors.newCachedThreadPool();
@@ -179,7 +189,7 @@ public class ClientConfig {
 
 	public SSLEngineFactory getSSLEngineFactory() {
 		if (sslEngineFactory == null) {
-			return new SSLEngineFactory() {
+			return new PeerAwareSSLEngineFactory() {
 				public SSLEngine newSSLEngine() {
 					if (sslContext != null) {
 						SSLEngine sslEngine = sslContext.createSSLEngine();
@@ -189,6 +199,16 @@ public class ClientConfig {
 						return null;
 					}
 				}
+
+				public SSLEngine newSSLEngine(String peerHost, int peerPort) {
+					if (sslContext != null) {
+						SSLEngine sslEngine = sslContext.createSSLEngine(peerHost, peerPort);
+						sslEngine.setUseClientMode(true);
+						return sslEngine;
+					} else {
+						return null;
+					}
+				}
 			};
 		}
 		return sslEngineFactory;
@@ -250,6 +270,26 @@ public class ClientConfig {
 		return strict302Handling;
 	}
 
+	public NameResolver getNameResolver() {
+		return nameResolver;
+	}
+
+	public int getSslSessionCacheSize() {
+		return sslSessionCacheSize;
+	}
+
+	public int getSslSessionTimeoutInSec() {
+		return sslSessionTimeoutInSec;
+	}
+
+	public long getResponseMemoryBudgetInBytes() {
+		return responseMemoryBudgetInBytes;
+	}
+
+	public long getResponseSpillThresholdInBytes() {
+		return responseSpillThresholdInBytes;
+	}
+
 	public static class Builder {
 		private int defaultMaxTotalConnections = Integer.getInteger(ASYNC_CLIENT + "defaultMaxTotalConnections", -1);
 		private int defaultMaxConnectionPerHost = Integer.getInteger(ASYNC_CLIENT + "defaultMaxConnectionsPerHost", -1);
@@ -295,6 +335,11 @@ public class ClientConfig {
 		private HostnameVerifier hostnameVerifier = new AllowAllHostnameVerifier();
 		private int ioThreadMultiplier = 2;
 		private boolean strict302Handling;
+		private NameResolver nameResolver;
+		private int sslSessionCacheSize = Integer.getInteger(ASYNC_CLIENT + "sslSessionCacheSize", -1);
+		private int sslSessionTimeoutInSec = Integer.getInteger(ASYNC_CLIENT + "sslSessionTimeoutInSec", -1);
+		private long responseMemoryBudgetInBytes = Long.getLong(ASYNC_CLIENT + "responseMemoryBudgetInBytes", -1);
+		private long responseSpillThresholdInBytes = Long.getLong(ASYNC_CLIENT + "responseSpillThresholdInBytes", -1);
 
 		public Builder() {
 		}
@@ -389,12 +434,18 @@ public class ClientConfig {
 		}
 
 		public Builder setSSLContext(final SSLContext sslContext) {
-			this.sslEngineFactory = new SSLEngineFactory() {
+			this.sslEngineFactory = new PeerAwareSSLEngineFactory() {
 				public SSLEngine newSSLEngine() throws GeneralSecurityException {
 					SSLEngine sslEngine = sslContext.createSSLEngine();
 					sslEngine.setUseClientMode(true);
 					return sslEngine;
 				}
+
+				public SSLEngine newSSLEngine(String peerHost, int peerPort) throws GeneralSecurityException {
+					SSLEngine sslEngine = sslContext.createSSLEngine(peerHost, peerPort);
+					sslEngine.setUseClientMode(true);
+					return sslEngine;
+				}
 			};
 			this.sslContext = sslContext;
 			return this;
@@ -494,6 +545,31 @@ public class ClientConfig {
 			return this;
 		}
 
+		public Builder setNameResolver(NameResolver nameResolver) {
+			this.nameResolver = nameResolver;
+			return this;
+		}
+
+		public Builder setSslSessionCacheSize(int sslSessionCacheSize) {
+			this.sslSessionCacheSize = sslSessionCacheSize;
+			return this;
+		}
+
+		public Builder setSslSessionTimeoutInSec(int sslSessionTimeoutInSec) {
+			this.sslSessionTimeoutInSec = sslSessionTimeoutInSec;
+			return this;
+		}
+
+		public Builder setResponseMemoryBudgetInBytes(long responseMemoryBudgetInBytes) {
+			this.responseMemoryBudgetInBytes = responseMemoryBudgetInBytes;
+			return this;
+		}
+
+		public Builder setResponseSpillThresholdInBytes(long responseSpillThresholdInBytes) {
+			this.responseSpillThresholdInBytes = responseSpillThresholdInBytes;
+			return this;
+		}
+
 		public Builder(ClientConfig prototype) {
 			allowPoolingConnection = prototype.getAllowPoolingConnection();
 			providerConfig = prototype.getAsyncHttpProviderConfig();
@@ -531,6 +607,11 @@ public class ClientConfig {
 			removeQueryParamOnRedirect = prototype.isRemoveQueryParamOnRedirect();
 			hostnameVerifier = prototype.getHostnameVerifier();
 			strict302Handling = prototype.isStrict302Handling();
+			nameResolver = prototype.getNameResolver();
+			sslSessionCacheSize = prototype.getSslSessionCacheSize();
+			sslSessionTimeoutInSec = prototype.getSslSessionTimeoutInSec();
+			responseMemoryBudgetInBytes = prototype.getResponseMemoryBudgetInBytes();
+			responseSpillThresholdInBytes = prototype.getResponseSpillThresholdInBytes();
 		}
 
 		public ClientConfig build() {
@@ -545,7 +626,7 @@ public class ClientConfig {
 
 			return new ClientConfig(defaultMaxTotalConnections, defaultMaxConnectionPerHost, defaultConnectionTimeOutInMs, defaultWebsocketIdleTimeoutInMs, defaultIdleConnectionInPoolTimeoutInMs, defaultIdleConnectionTimeoutInMs, defaultRequestTimeoutInMs, redirectEnabled,
 					maxDefaultRedirects, compressionEnabled, userAgent, allowPoolingConnection, reaper, applicationThreadPool, proxyServer, sslContext, sslEngineFactory, providerConfig, connectionsPool, realm, requestFilters, responseFilters, ioExceptionFilters, requestCompressionLevel,
-					maxRequestRetry, allowSslConnectionPool, useRawUrl, removeQueryParamOnRedirect, hostnameVerifier, ioThreadMultiplier, strict302Handling);
+					maxRequestRetry, allowSslConnectionPool, useRawUrl, removeQueryParamOnRedirect, hostnameVerifier, ioThreadMultiplier, strict302Handling, nameResolver, sslSessionCacheSize, sslSessionTimeoutInSec, responseMemoryBudgetInBytes, responseSpillThresholdInBytes);
 		}
 	}
 }
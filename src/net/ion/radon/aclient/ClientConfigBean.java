@@ -40,6 +40,10 @@ public class ClientConfigBean extends ClientConfig {
 		maxDefaultRedirects = Integer.getInteger(ASYNC_CLIENT + "defaultMaxRedirects", 5);
 		compressionEnabled = Boolean.getBoolean(ASYNC_CLIENT + "compressionEnabled");
 		userAgent = System.getProperty(ASYNC_CLIENT + "userAgent", "AradonClient/1.0");
+		sslSessionCacheSize = Integer.getInteger(ASYNC_CLIENT + "sslSessionCacheSize", -1);
+		sslSessionTimeoutInSec = Integer.getInteger(ASYNC_CLIENT + "sslSessionTimeoutInSec", -1);
+		responseMemoryBudgetInBytes = Long.getLong(ASYNC_CLIENT + "responseMemoryBudgetInBytes", -1);
+		responseSpillThresholdInBytes = Long.getLong(ASYNC_CLIENT + "responseSpillThresholdInBytes", -1);
 
 		boolean useProxyProperties = Boolean.getBoolean(ASYNC_CLIENT + "useProxyProperties");
 		if (useProxyProperties) {
@@ -227,4 +231,29 @@ public class ClientConfigBean extends ClientConfig {
 		this.ioThreadMultiplier = ioThreadMultiplier;
 		return this;
 	}
+
+	public ClientConfigBean setNameResolver(NameResolver nameResolver) {
+		this.nameResolver = nameResolver;
+		return this;
+	}
+
+	public ClientConfigBean setSslSessionCacheSize(int sslSessionCacheSize) {
+		this.sslSessionCacheSize = sslSessionCacheSize;
+		return this;
+	}
+
+	public ClientConfigBean setSslSessionTimeoutInSec(int sslSessionTimeoutInSec) {
+		this.sslSessionTimeoutInSec = sslSessionTimeoutInSec;
+		return this;
+	}
+
+	public ClientConfigBean setResponseMemoryBudgetInBytes(long responseMemoryBudgetInBytes) {
+		this.responseMemoryBudgetInBytes = responseMemoryBudgetInBytes;
+		return this;
+	}
+
+	public ClientConfigBean setResponseSpillThresholdInBytes(long responseSpillThresholdInBytes) {
+		this.responseSpillThresholdInBytes = responseSpillThresholdInBytes;
+		return this;
+	}
 }
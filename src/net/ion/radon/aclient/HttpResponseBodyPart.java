@@ -22,10 +22,28 @@ public abstract class HttpResponseBodyPart extends HttpContent {
 
 	abstract public ByteBuffer getBodyByteBuffer();
 
+	/**
+	 * A read-only view of the part, sharing its memory instead of copying it. The view stays valid as long as the part is referenced, parts kept to build a
+	 * {@link Response} are read through it once the body is complete : a provider must not reuse the memory of a part which may still be reachable.
+	 * <p>
+	 * Wraps {@link #getBodyByteBuffer()} by default, providers which can share their memory override it.
+	 */
+	public ByteBuffer getReadOnlyBodyByteBuffer() {
+		return getBodyByteBuffer().asReadOnlyBuffer();
+	}
+
 	abstract public boolean isLast();
 
 	abstract public void markUnderlyingConnectionAsClosed();
 
 	abstract public boolean closeUnderlyingConnection();
 
+	/**
+	 * Lets a handler writing the body to a slow sink stop reading the response, the server is then held back by TCP flow control. Providers which can't do it return a
+	 * control doing nothing.
+	 */
+	public ResponseReadControl getReadControl() {
+		return ResponseReadControl.NONE;
+	}
+
 }
@@ -21,4 +21,11 @@ public abstract class HttpResponseHeaders extends HttpContent {
 	public boolean isTraillingHeadersReceived() {
 		return traillingHeaders;
 	}
+
+	/**
+	 * The control of the response, so that a handler can stop it before any part of the body comes. Providers which can't do it return a control doing nothing.
+	 */
+	public ResponseReadControl getReadControl() {
+		return ResponseReadControl.NONE;
+	}
 }
@@ -0,0 +1,22 @@
+package net.ion.radon.aclient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names without blocking the caller. The listener is called from the caller thread when the answer is already known, from a resolver thread otherwise.
+ */
+public interface NameResolver {
+
+	public void resolve(String host, ResolveListener listener);
+
+	public interface ResolveListener {
+
+		/**
+		 * @param addresses all the addresses of the host, the order is rotated on every call so that successive connections are spread over them.
+		 */
+		public void onResolved(String host, InetAddress[] addresses);
+
+		public void onFailure(String host, UnknownHostException cause);
+	}
+}
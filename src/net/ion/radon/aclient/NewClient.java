@@ -20,6 +20,7 @@ import net.ion.radon.aclient.filter.RequestFilter;
 import net.ion.radon.aclient.providers.netty.NettyProvider;
 import net.ion.radon.aclient.providers.simple.SimpleProvider;
 import net.ion.radon.aclient.resumable.ResumableAsyncHandler;
+import net.ion.radon.aclient.websocket.ReconnectingWebSocket;
 import net.ion.radon.aclient.websocket.WebSocket;
 import net.ion.radon.aclient.websocket.WebSocketListener;
 import net.ion.radon.aclient.websocket.WebSocketUpgradeHandler;
@@ -37,12 +38,14 @@ public class NewClient implements Closeable {
 	private final AsyncHttpProvider httpProvider;
 	private final ClientConfig config;
 	private final AtomicBoolean isClosed = new AtomicBoolean(false);
+	private final ResponseMemoryBudget responseMemoryBudget;
 
 	protected SignatureCalculator signatureCalculator;
 
 	private NewClient(AsyncHttpProvider httpProvider, ClientConfig config) {
 		this.config = config;
 		this.httpProvider = httpProvider;
+		this.responseMemoryBudget = new ResponseMemoryBudget(config.getResponseMemoryBudgetInBytes(), config.getResponseSpillThresholdInBytes());
 	}
 
 	public final static NewClient create() {
@@ -76,7 +79,7 @@ public class NewClient implements Closeable {
 		}
 
 		public ListenableFuture<Response> execute() throws IOException {
-			return NewClient.this.executeRequest(build(), new AsyncCompletionHandlerBase());
+			return NewClient.this.executeRequest(build(), newCompletionHandler());
 		}
 
 		// Note: For now we keep the delegates in place even though they are not needed
@@ -231,6 +234,17 @@ public class NewClient implements Closeable {
 		return config;
 	}
 
+	/**
+	 * The memory shared by the responses this client buffers, pass it to an {@link AsyncCompletionHandler} to have its response count as well.
+	 */
+	public ResponseMemoryBudget getResponseMemoryBudget() {
+		return responseMemoryBudget;
+	}
+
+	private AsyncCompletionHandlerBase newCompletionHandler() {
+		return responseMemoryBudget.isLimited() ? new AsyncCompletionHandlerBase(responseMemoryBudget) : new AsyncCompletionHandlerBase();
+	}
+
 	public NewClient setSignatureCalculator(SignatureCalculator signatureCalculator) {
 		this.signatureCalculator = signatureCalculator;
 		return this;
@@ -277,7 +291,7 @@ public class NewClient implements Closeable {
 	}
 
 	public ListenableFuture<Response> executeRequest(Request request) throws IOException {
-		FilterContext<Response> fc = new FilterContext.FilterContextBuilder<Response>().asyncHandler(new AsyncCompletionHandlerBase()).request(request).build();
+		FilterContext<Response> fc = new FilterContext.FilterContextBuilder<Response>().asyncHandler(newCompletionHandler()).request(request).build();
 		fc = preProcessRequest(fc);
 		return httpProvider.execute(fc.getRequest(), fc.getAsyncHandler());
 	}
@@ -348,6 +362,18 @@ public class NewClient implements Closeable {
 		}
 		return prepareGet(webSocketUri).execute(builder.build()).get() ;
 	}
+
+	/**
+	 * A WebSocket which connects again whenever its connection is lost, the first connection is started without waiting for it. See
+	 * {@link ReconnectingWebSocket.Builder} for the backoff and queue options.
+	 */
+	public ReconnectingWebSocket createReconnectingWebSocket(String webSocketUri, WebSocketListener... webSocketListener) {
+		ReconnectingWebSocket.Builder builder = new ReconnectingWebSocket.Builder(this, webSocketUri);
+		for (WebSocketListener listener : webSocketListener) {
+			builder.addWebSocketListener(listener);
+		}
+		return builder.build().connect();
+	}
 }
 
 class HttpSerialRequest implements ISerialAsyncRequest {
@@ -0,0 +1,18 @@
+package net.ion.radon.aclient;
+
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLEngine;
+
+/**
+ * {@link SSLEngineFactory} told the peer each engine connects to, the provider uses it instead of {@link #newSSLEngine()} when the factory implements it.
+ */
+public interface PeerAwareSSLEngineFactory extends SSLEngineFactory {
+
+	/**
+	 * @param peerHost
+	 *            the host the engine connects to, engines created for the same host and port can resume a previous session instead of doing a full handshake.
+	 * @return the engine, or null to let the provider create one.
+	 */
+	SSLEngine newSSLEngine(String peerHost, int peerPort) throws GeneralSecurityException;
+}
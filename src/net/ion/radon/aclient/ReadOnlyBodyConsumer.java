@@ -0,0 +1,9 @@
+package net.ion.radon.aclient;
+
+/**
+ * A {@link BodyConsumer} taking the read-only view of each part, see {@link HttpResponseBodyPart#getReadOnlyBodyByteBuffer()}. The buffer shares the memory of
+ * the part instead of copying it, so it may have no accessible array : {@link java.nio.ByteBuffer#array()} throws.
+ */
+public interface ReadOnlyBodyConsumer extends BodyConsumer {
+
+}
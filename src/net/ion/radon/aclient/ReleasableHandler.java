@@ -0,0 +1,13 @@
+package net.ion.radon.aclient;
+
+/**
+ * An {@link AsyncHandler} holding resources while it receives a response. The provider releases them once the request failed or was cancelled, whatever a subclass does
+ * in {@link AsyncHandler#onThrowable(Throwable)}.
+ */
+public interface ReleasableHandler {
+
+	/**
+	 * Called after {@link AsyncHandler#onThrowable(Throwable)}, may be called more than once.
+	 */
+	void releaseResources();
+}
@@ -56,25 +56,87 @@ public interface Response {
 
 	public static class ResponseBuilder {
 		private final List<HttpResponseBodyPart> bodies = Collections.synchronizedList(new ArrayList<HttpResponseBodyPart>());
+		private final ResponseBodyAggregator aggregator;
 		private HttpResponseStatus status;
 		private HttpResponseHeaders headers;
 
-		public ResponseBuilder accumulate(HttpContent httpContent) {
+		public ResponseBuilder() {
+			this(false);
+		}
+
+		/**
+		 * @param aggregateBody
+		 *            copy the body parts as they arrive into a buffer sized from the Content-Length, instead of keeping the parts and copying them again when the body is read.
+		 */
+		public ResponseBuilder(boolean aggregateBody) {
+			this.aggregator = aggregateBody ? new ResponseBodyAggregator(null) : null;
+		}
+
+		/**
+		 * Aggregates the body, moving it to a temporary file when it does not fit in the budget.
+		 */
+		public ResponseBuilder(ResponseMemoryBudget budget) {
+			this.aggregator = new ResponseBodyAggregator(budget);
+		}
+
+		/**
+		 * @throws IOException
+		 *             when an aggregated body can not be moved to its temporary file.
+		 */
+		public ResponseBuilder accumulate(HttpContent httpContent) throws IOException {
 			if (httpContent instanceof HttpResponseStatus) {
 				status = (HttpResponseStatus) httpContent;
 			} else if (httpContent instanceof HttpResponseHeaders) {
 				headers = (HttpResponseHeaders) httpContent;
+				if (aggregator != null) {
+					aggregator.expect(headers.getHeaders().getFirstValue("Content-Length"));
+				}
 			} else if (httpContent instanceof HttpResponseBodyPart) {
-				bodies.add((HttpResponseBodyPart) httpContent);
+				if (aggregator != null) {
+					synchronized (aggregator) {
+						aggregator.append((HttpResponseBodyPart) httpContent);
+					}
+				} else {
+					bodies.add((HttpResponseBodyPart) httpContent);
+				}
 			}
 			return this;
 		}
 
-		public Response build() {
-			return status == null ? null : status.provider().prepareResponse(status, headers, bodies);
+		/**
+		 * @throws IOException
+		 *             when an aggregated body can not be mapped from its temporary file.
+		 */
+		public Response build() throws IOException {
+			if (status == null) {
+				return null;
+			}
+			if (aggregator != null) {
+				synchronized (aggregator) {
+					bodies.clear();
+					bodies.addAll(aggregator.parts());
+				}
+			}
+			return status.provider().prepareResponse(status, headers, bodies);
+		}
+
+		/**
+		 * Gives back the memory taken from the budget once the response is no longer in flight, the built response stays readable.
+		 */
+		public void release() {
+			if (aggregator != null) {
+				synchronized (aggregator) {
+					aggregator.release();
+				}
+			}
 		}
 
 		public void reset() {
+			if (aggregator != null) {
+				synchronized (aggregator) {
+					aggregator.reset();
+				}
+			}
 			bodies.clear();
 			status = null;
 			headers = null;
@@ -0,0 +1,383 @@
+package net.ion.radon.aclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.ion.framework.util.Debug;
+
+/**
+ * Copies the body parts of a response as they arrive into arrays it owns, so the provider buffers can be released right away. When the Content-Length is known the
+ * whole body goes into a single array allocated once, otherwise into blocks growing with the body.
+ * <p>
+ * With a {@link ResponseMemoryBudget}, a body which goes over the spill threshold or the budget is moved to a temporary file. The file is memory mapped once the body is
+ * complete, then deleted. Where a mapped file can not be deleted, deleting it is tried again on the next spills and once the JVM exits.
+ */
+final class ResponseBodyAggregator {
+	private final static int MIN_BLOCK_SIZE = 8 * 1024;
+	private final static int MAX_BLOCK_SIZE = 1024 * 1024;
+	// Do not trust a Content-Length bigger than this before the bytes are there.
+	private final static int MAX_PRESIZE = 32 * 1024 * 1024;
+	private final static int MAX_MAPPED_REGION = 1024 * 1024 * 1024;
+
+	// spill files still mapped when they were deleted.
+	private final static Queue<File> undeleted = new ConcurrentLinkedQueue<File>();
+	private final static AtomicBoolean exitHook = new AtomicBoolean(false);
+
+	private final List<HttpResponseBodyPart> blocks = new ArrayList<HttpResponseBodyPart>();
+	private final ResponseMemoryBudget budget;
+	private final int maxMappedRegion;
+	private long reserved = 0;
+	private File spillFile;
+	private FileChannel spillChannel;
+	private long expectedLength = -1;
+	private long received = 0;
+	private byte[] block;
+	private int position;
+	private URI uri;
+	private AsyncHttpProvider provider;
+
+	ResponseBodyAggregator(ResponseMemoryBudget budget) {
+		this(budget, MAX_MAPPED_REGION);
+	}
+
+	ResponseBodyAggregator(ResponseMemoryBudget budget, int maxMappedRegion) {
+		this.budget = budget;
+		this.maxMappedRegion = maxMappedRegion;
+	}
+
+	void expect(String contentLength) {
+		try {
+			expectedLength = contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+		} catch (NumberFormatException ex) {
+			expectedLength = -1;
+		}
+	}
+
+	void append(HttpResponseBodyPart part) throws IOException {
+		if (uri == null) {
+			uri = part.getUrl();
+			provider = part.provider();
+		}
+
+		ByteBuffer src = part.getReadOnlyBodyByteBuffer();
+		while (src.hasRemaining()) {
+			if (spillChannel == null && (block == null || position == block.length)) {
+				seal();
+				int size = nextBlockSize(src.remaining());
+				if (!reserve(size)) {
+					spill();
+				} else {
+					block = new byte[size];
+				}
+			}
+
+			if (spillChannel != null) {
+				received += src.remaining();
+				while (src.hasRemaining()) {
+					spillChannel.write(src);
+				}
+				return;
+			}
+
+			int amount = Math.min(block.length - position, src.remaining());
+			src.get(block, position, amount);
+			position += amount;
+			received += amount;
+		}
+	}
+
+	private boolean reserve(int size) {
+		if (budget == null) {
+			return true;
+		}
+		long threshold = budget.getSpillThresholdInBytes();
+		if (threshold >= 0 && Math.max(expectedLength, reserved + size) > threshold) {
+			return false;
+		}
+		if (!budget.reserve(size)) {
+			return false;
+		}
+		reserved += size;
+		return true;
+	}
+
+	/**
+	 * Moves what was received so far to a temporary file, the rest of the body goes there as well.
+	 */
+	private void spill() throws IOException {
+		seal();
+		retryDeletes();
+		spillFile = File.createTempFile("aclient-response", ".tmp");
+		try {
+			// the body may hold credentials, only the owner reads the file. Windows can't take the rights away, its temporary directory is per user.
+			spillFile.setReadable(false, false);
+			spillFile.setReadable(true, true);
+			spillFile.setWritable(false, false);
+			spillFile.setWritable(true, true);
+			spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+		} catch (IOException ex) {
+			spillFile.delete();
+			spillFile = null;
+			throw ex;
+		}
+		for (HttpResponseBodyPart sealed : blocks) {
+			ByteBuffer src = sealed.getReadOnlyBodyByteBuffer();
+			while (src.hasRemaining()) {
+				spillChannel.write(src);
+			}
+		}
+		blocks.clear();
+		releaseMemory();
+	}
+
+	private int nextBlockSize(int needed) {
+		if (expectedLength > received) {
+			return (int) Math.max(needed, Math.min(expectedLength - received, MAX_PRESIZE));
+		}
+		// double the body so far.
+		return (int) Math.max(needed, Math.min(Math.max(received, MIN_BLOCK_SIZE), MAX_BLOCK_SIZE));
+	}
+
+	private void seal() {
+		if (block != null && position > 0) {
+			blocks.add(new AggregatedBodyPart(uri, provider, block, position));
+		}
+		block = null;
+		position = 0;
+	}
+
+	List<HttpResponseBodyPart> parts() throws IOException {
+		if (spillChannel == null) {
+			seal();
+			return blocks;
+		}
+
+		try {
+			long size = spillChannel.size();
+			for (long offset = 0; offset < size; offset += maxMappedRegion) {
+				ByteBuffer region = spillChannel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(maxMappedRegion, size - offset));
+				blocks.add(new MappedBodyPart(uri, provider, region));
+			}
+		} finally {
+			deleteSpillFile();
+		}
+		return blocks;
+	}
+
+	/**
+	 * Gives back to the budget the memory taken by the body, the parts already built stay valid.
+	 */
+	void release() {
+		releaseMemory();
+		deleteSpillFile();
+	}
+
+	private void releaseMemory() {
+		if (budget != null && reserved > 0) {
+			budget.release(reserved);
+		}
+		reserved = 0;
+	}
+
+	private void deleteSpillFile() {
+		if (spillChannel != null) {
+			try {
+				spillChannel.close();
+			} catch (IOException ex) {
+				Debug.warn("spill file close", ex);
+			}
+			// a mapped region outlives its file, except on some platforms.
+			if (!spillFile.delete()) {
+				undeleted.add(spillFile);
+				if (exitHook.compareAndSet(false, true)) {
+					Runtime.getRuntime().addShutdownHook(new Thread("aclient spill file cleaner") {
+						public void run() {
+							retryDeletes();
+						}
+					});
+				}
+			}
+		}
+		spillChannel = null;
+		spillFile = null;
+	}
+
+	/**
+	 * Deletes the spill files whose mappings were collected since.
+	 */
+	static void retryDeletes() {
+		for (Iterator<File> it = undeleted.iterator(); it.hasNext();) {
+			File file = it.next();
+			if (file.delete() || !file.exists()) {
+				it.remove();
+			}
+		}
+	}
+
+	void reset() {
+		release();
+		blocks.clear();
+		expectedLength = -1;
+		received = 0;
+		block = null;
+		position = 0;
+	}
+
+	private final static class MappedBodyPart extends HttpResponseBodyPart {
+		private final ByteBuffer region;
+		private boolean closeConnection = false;
+
+		MappedBodyPart(URI uri, AsyncHttpProvider provider, ByteBuffer region) {
+			super(uri, provider);
+			this.region = region;
+		}
+
+		@Override
+		public int length() {
+			return region.remaining();
+		}
+
+		@Override
+		public byte[] getBodyPartBytes() {
+			byte[] bytes = new byte[region.remaining()];
+			region.duplicate().get(bytes);
+			return bytes;
+		}
+
+		@Override
+		public InputStream readBodyPartBytes() {
+			final ByteBuffer src = region.duplicate();
+			return new InputStream() {
+				@Override
+				public int read() {
+					return src.hasRemaining() ? src.get() & 0xff : -1;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (!src.hasRemaining()) {
+						return -1;
+					}
+					int amount = Math.min(len, src.remaining());
+					src.get(b, off, amount);
+					return amount;
+				}
+
+				@Override
+				public int available() {
+					return src.remaining();
+				}
+			};
+		}
+
+		@Override
+		public int writeTo(OutputStream outputStream) throws IOException {
+			ByteBuffer src = region.duplicate();
+			int length = src.remaining();
+			Channels.newChannel(outputStream).write(src);
+			return length;
+		}
+
+		@Override
+		public ByteBuffer getBodyByteBuffer() {
+			return ByteBuffer.wrap(getBodyPartBytes());
+		}
+
+		@Override
+		public ByteBuffer getReadOnlyBodyByteBuffer() {
+			return region.asReadOnlyBuffer();
+		}
+
+		@Override
+		public boolean isLast() {
+			return false;
+		}
+
+		@Override
+		public void markUnderlyingConnectionAsClosed() {
+			closeConnection = true;
+		}
+
+		@Override
+		public boolean closeUnderlyingConnection() {
+			return closeConnection;
+		}
+	}
+
+	private final static class AggregatedBodyPart extends HttpResponseBodyPart {
+		private final byte[] bytes;
+		private final int length;
+		private boolean closeConnection = false;
+
+		AggregatedBodyPart(URI uri, AsyncHttpProvider provider, byte[] bytes, int length) {
+			super(uri, provider);
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public byte[] getBodyPartBytes() {
+			if (length == bytes.length) {
+				return bytes;
+			}
+			byte[] copy = new byte[length];
+			System.arraycopy(bytes, 0, copy, 0, length);
+			return copy;
+		}
+
+		@Override
+		public InputStream readBodyPartBytes() {
+			return new ByteArrayInputStream(bytes, 0, length);
+		}
+
+		@Override
+		public int writeTo(OutputStream outputStream) throws IOException {
+			outputStream.write(bytes, 0, length);
+			return length;
+		}
+
+		@Override
+		public ByteBuffer getBodyByteBuffer() {
+			return ByteBuffer.wrap(bytes, 0, length);
+		}
+
+		@Override
+		public ByteBuffer getReadOnlyBodyByteBuffer() {
+			return ByteBuffer.wrap(bytes, 0, length).asReadOnlyBuffer();
+		}
+
+		@Override
+		public boolean isLast() {
+			return false;
+		}
+
+		@Override
+		public void markUnderlyingConnectionAsClosed() {
+			closeConnection = true;
+		}
+
+		@Override
+		public boolean closeUnderlyingConnection() {
+			return closeConnection;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package net.ion.radon.aclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the memory taken by the bodies of the responses being received. A body bigger than the spill threshold, or which does not fit in what is left of the budget, is
+ * written to a temporary file instead. One budget is shared by every {@link AsyncCompletionHandler} of a {@link NewClient}.
+ */
+public class ResponseMemoryBudget {
+
+	private final long limitInBytes;
+	private final long spillThresholdInBytes;
+	private final AtomicLong usedBytes = new AtomicLong();
+
+	/**
+	 * @param limitInBytes
+	 *            the bytes all the responses in flight may hold in memory, -1 for no limit.
+	 * @param spillThresholdInBytes
+	 *            the bytes a single response may hold in memory, -1 for no limit.
+	 */
+	public ResponseMemoryBudget(long limitInBytes, long spillThresholdInBytes) {
+		this.limitInBytes = limitInBytes;
+		this.spillThresholdInBytes = spillThresholdInBytes;
+	}
+
+	public boolean isLimited() {
+		return limitInBytes >= 0 || spillThresholdInBytes >= 0;
+	}
+
+	boolean reserve(long bytes) {
+		if (limitInBytes < 0) {
+			usedBytes.addAndGet(bytes);
+			return true;
+		}
+		for (;;) {
+			long used = usedBytes.get();
+			if (used + bytes > limitInBytes) {
+				return false;
+			}
+			if (usedBytes.compareAndSet(used, used + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	void release(long bytes) {
+		usedBytes.addAndGet(-bytes);
+	}
+
+	public long getLimitInBytes() {
+		return limitInBytes;
+	}
+
+	public long getSpillThresholdInBytes() {
+		return spillThresholdInBytes;
+	}
+
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ResponseMemoryBudget[used=%s, limit=%s, spillThreshold=%s]", getUsedBytes(), limitInBytes, spillThresholdInBytes);
+	}
+}
@@ -0,0 +1,34 @@
+package net.ion.radon.aclient;
+
+/**
+ * Suspends and resumes the reading of a response, or stops it. Parts already read may still be delivered after {@link #pause()}. Once the response is complete these
+ * calls do nothing and the connection reads again.
+ */
+public interface ResponseReadControl {
+
+	public final static ResponseReadControl NONE = new ResponseReadControl() {
+		public void pause() {
+		}
+
+		public void resume() {
+		}
+
+		public boolean isPaused() {
+			return false;
+		}
+
+		public void abort() {
+		}
+	};
+
+	void pause();
+
+	void resume();
+
+	boolean isPaused();
+
+	/**
+	 * Closes the connection right away, without waiting for more of the response. The future of the request is cancelled.
+	 */
+	void abort();
+}
@@ -642,7 +642,8 @@ public class SimpleAsyncHttpClient {
 			}
 
 			if (!accumulateBody && bodyConsumer != null) {
-				bodyConsumer.consume(content.getBodyByteBuffer());
+				// only consumers saying so get the read-only view, the others may rely on array().
+				bodyConsumer.consume(bodyConsumer instanceof ReadOnlyBodyConsumer ? content.getReadOnlyBodyByteBuffer() : content.getBodyByteBuffer());
 			} else {
 				return super.onBodyPartReceived(content);
 			}
@@ -714,7 +715,7 @@ public class SimpleAsyncHttpClient {
 		}
 
 		private void fireReceived(HttpResponseBodyPart content) {
-			int remaining = content.getBodyByteBuffer().remaining();
+			int remaining = content.length();
 
 			amount += remaining;
 
@@ -3,10 +3,11 @@ package net.ion.radon.aclient.consumers;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
-import net.ion.radon.aclient.BodyConsumer;
+import net.ion.radon.aclient.ReadOnlyBodyConsumer;
 
-public class AppendableBodyConsumer implements BodyConsumer {
+public class AppendableBodyConsumer implements ReadOnlyBodyConsumer {
 
 	private final Appendable appendable;
 	private final String encoding;
@@ -22,7 +23,11 @@ public class AppendableBodyConsumer implements BodyConsumer {
 	}
 
 	public void consume(ByteBuffer byteBuffer) throws IOException {
-		appendable.append(new String(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining(), encoding));
+		if (byteBuffer.hasArray()) {
+			appendable.append(new String(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining(), encoding));
+		} else {
+			appendable.append(Charset.forName(encoding).decode(byteBuffer));
+		}
 	}
 
 	public void close() throws IOException {
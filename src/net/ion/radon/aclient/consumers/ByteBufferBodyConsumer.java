@@ -3,9 +3,9 @@ package net.ion.radon.aclient.consumers;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-import net.ion.radon.aclient.BodyConsumer;
+import net.ion.radon.aclient.ReadOnlyBodyConsumer;
 
-public class ByteBufferBodyConsumer implements BodyConsumer {
+public class ByteBufferBodyConsumer implements ReadOnlyBodyConsumer {
 
 	private final ByteBuffer byteBuffer;
 
@@ -14,7 +14,7 @@ public class ByteBufferBodyConsumer implements BodyConsumer {
 	}
 
 	public void consume(ByteBuffer byteBuffer) throws IOException {
-		byteBuffer.put(byteBuffer);
+		this.byteBuffer.put(byteBuffer);
 	}
 
 	public void close() throws IOException {
@@ -3,10 +3,12 @@ package net.ion.radon.aclient.consumers;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+import net.ion.radon.aclient.ReadOnlyBodyConsumer;
 import net.ion.radon.aclient.ResumableBodyConsumer;
 
-public class FileBodyConsumer implements ResumableBodyConsumer {
+public class FileBodyConsumer implements ResumableBodyConsumer, ReadOnlyBodyConsumer {
 
 	private final RandomAccessFile file;
 
@@ -15,8 +17,10 @@ public class FileBodyConsumer implements ResumableBodyConsumer {
 	}
 
 	public void consume(ByteBuffer byteBuffer) throws IOException {
-		// TODO: Channel.transferFrom may be a good idea to investigate.
-		file.write(byteBuffer.array());
+		FileChannel channel = file.getChannel();
+		while (byteBuffer.hasRemaining()) {
+			channel.write(byteBuffer);
+		}
 	}
 
 	public void close() throws IOException {
@@ -3,19 +3,31 @@ package net.ion.radon.aclient.consumers;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
-import net.ion.radon.aclient.BodyConsumer;
+import net.ion.radon.aclient.ReadOnlyBodyConsumer;
 
-public class OutputStreamBodyConsumer implements BodyConsumer {
+public class OutputStreamBodyConsumer implements ReadOnlyBodyConsumer {
 
 	private final OutputStream outputStream;
+	// copies read-only buffers through a small reused array.
+	private final WritableByteChannel channel;
 
 	public OutputStreamBodyConsumer(OutputStream outputStream) {
 		this.outputStream = outputStream;
+		this.channel = Channels.newChannel(outputStream);
 	}
 
 	public void consume(ByteBuffer byteBuffer) throws IOException {
-		outputStream.write(byteBuffer.array());
+		if (byteBuffer.hasArray()) {
+			outputStream.write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+			byteBuffer.position(byteBuffer.limit());
+			return;
+		}
+		while (byteBuffer.hasRemaining()) {
+			channel.write(byteBuffer);
+		}
 	}
 
 	public void close() throws IOException {
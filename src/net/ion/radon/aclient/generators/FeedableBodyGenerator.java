@@ -0,0 +1,146 @@
+package net.ion.radon.aclient.generators;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import net.ion.framework.util.Debug;
+import net.ion.radon.aclient.Body;
+import net.ion.radon.aclient.BodyGenerator;
+
+/**
+ * Chunked body the application pushes buffers into while the request is being sent, no thread waits for the data. The provider takes the buffers as the connection can
+ * write them, {@link #getQueuedBytes()} and the drain listener let a producer follow that pace instead of queueing without limit.
+ * <p>
+ * The body can be sent once, it can't be replayed on another connection.
+ */
+public class FeedableBodyGenerator implements BodyGenerator {
+
+	/**
+	 * Set by the provider to learn that content is there to send.
+	 */
+	public interface FeedListener {
+		void onContentAdded();
+	}
+
+	private final LinkedList<ByteBuffer> queue = new LinkedList<ByteBuffer>();
+	private long queuedBytes = 0;
+	private boolean last = false;
+	private volatile FeedListener feedListener;
+	private volatile Runnable drainListener;
+
+	public Body createBody() throws IOException {
+		return new FeedableBody();
+	}
+
+	/**
+	 * Queues a buffer to send, the buffer must not be modified afterwards.
+	 *
+	 * @param isLast true for the last buffer, the body then ends with the last chunk.
+	 */
+	public void feed(ByteBuffer buffer, boolean isLast) throws IOException {
+		synchronized (queue) {
+			if (last) {
+				throw new IOException("the last buffer was already fed");
+			}
+			if (buffer.hasRemaining()) {
+				queue.add(buffer);
+				queuedBytes += buffer.remaining();
+			}
+			last = isLast;
+			queue.notifyAll();
+		}
+
+		FeedListener listener = feedListener;
+		if (listener != null) {
+			listener.onContentAdded();
+		}
+	}
+
+	public long getQueuedBytes() {
+		synchronized (queue) {
+			return queuedBytes;
+		}
+	}
+
+	public void setFeedListener(FeedListener feedListener) {
+		this.feedListener = feedListener;
+	}
+
+	/**
+	 * @param drainListener called once every buffer fed so far was taken by the provider.
+	 */
+	public void setDrainListener(Runnable drainListener) {
+		this.drainListener = drainListener;
+	}
+
+	public final class FeedableBody implements Body {
+
+		public long getContentLength() {
+			return -1;
+		}
+
+		/**
+		 * @return 0 when nothing was fed yet, -1 once the last buffer was read.
+		 */
+		public long read(ByteBuffer buffer) throws IOException {
+			int read = 0;
+			boolean drained;
+			synchronized (queue) {
+				while (buffer.hasRemaining() && !queue.isEmpty()) {
+					ByteBuffer head = queue.peek();
+					int amount = Math.min(head.remaining(), buffer.remaining());
+					if (amount == head.remaining()) {
+						buffer.put(head);
+						queue.poll();
+					} else {
+						ByteBuffer slice = head.duplicate();
+						slice.limit(slice.position() + amount);
+						buffer.put(slice);
+						head.position(head.position() + amount);
+					}
+					read += amount;
+				}
+				queuedBytes -= read;
+				if (read == 0 && last && queue.isEmpty()) {
+					return -1;
+				}
+				drained = read > 0 && queue.isEmpty();
+			}
+
+			Runnable listener = drainListener;
+			if (drained && listener != null) {
+				try {
+					listener.run();
+				} catch (Throwable t) {
+					Debug.warn("drain listener failure", t);
+				}
+			}
+			return read;
+		}
+
+		/**
+		 * Waits for content, for providers writing the body from a thread of their own.
+		 */
+		public void awaitContent() throws IOException {
+			synchronized (queue) {
+				try {
+					while (queue.isEmpty() && !last) {
+						queue.wait();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+
+		public void close() throws IOException {
+			synchronized (queue) {
+				queue.clear();
+				queuedBytes = 0;
+			}
+		}
+	}
+}
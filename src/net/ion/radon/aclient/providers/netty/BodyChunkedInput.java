@@ -6,26 +6,41 @@ import java.nio.ByteBuffer;
 import net.ion.radon.aclient.Body;
 
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.stream.ChunkedInput;
 
 /**
- * Adapts a {@link Body} to Netty's {@link ChunkedInput}.
+ * Adapts a {@link Body} to Netty's {@link ChunkedInput}. The body is only read while the channel is writable, ChunkedWriteHandler goes on when the channel becomes
+ * writable again. A body sent as HTTP chunks with nothing to read yet suspends the transfer until
+ * {@link org.jboss.netty.handler.stream.ChunkedWriteHandler#resumeTransfer()}, which its feed listener calls. Other bodies are read again right away.
  */
 class BodyChunkedInput implements ChunkedInput {
 
 	private final Body body;
 
-	private final int chunkSize = 1024 * 8;
+	private final int chunkSize;
+
+	// send HttpChunks and the last chunk, for the encoder to frame them. Only a feedable body is sent this way.
+	private final boolean httpChunks;
+
+	private boolean lastChunkSent = false;
 
 	private ByteBuffer nextChunk;
 
 	private static final ByteBuffer EOF = ByteBuffer.allocate(0);
 
 	public BodyChunkedInput(Body body) {
+		this(body, 1024 * 8, false);
+	}
+
+	public BodyChunkedInput(Body body, int chunkSize, boolean httpChunks) {
 		if (body == null) {
 			throw new IllegalArgumentException("no body specified");
 		}
 		this.body = body;
+		this.chunkSize = chunkSize;
+		this.httpChunks = httpChunks;
 	}
 
 	private ByteBuffer peekNextChuck() throws IOException {
@@ -34,6 +49,9 @@ class BodyChunkedInput implements ChunkedInput {
 			ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
 			if (body.read(buffer) < 0) {
 				nextChunk = EOF;
+			} else if (httpChunks && buffer.position() == 0) {
+				// nothing to send yet, the feed listener resumes the transfer.
+				return null;
 			} else {
 				buffer.flip();
 				nextChunk = buffer;
@@ -43,20 +61,28 @@ class BodyChunkedInput implements ChunkedInput {
 	}
 
 	public boolean hasNextChunk() throws Exception {
-		return !isEndOfInput();
+		ByteBuffer buffer = peekNextChuck();
+		return buffer != null && (buffer != EOF || (httpChunks && !lastChunkSent));
 	}
 
 	public Object nextChunk() throws Exception {
 		ByteBuffer buffer = peekNextChuck();
+		if (buffer == null) {
+			return null;
+		}
 		if (buffer == EOF) {
+			if (httpChunks && !lastChunkSent) {
+				lastChunkSent = true;
+				return HttpChunk.LAST_CHUNK;
+			}
 			return null;
 		}
 		nextChunk = null;
-		return ChannelBuffers.wrappedBuffer(buffer);
+		return httpChunks ? new DefaultHttpChunk(ChannelBuffers.wrappedBuffer(buffer)) : ChannelBuffers.wrappedBuffer(buffer);
 	}
 
 	public boolean isEndOfInput() throws Exception {
-		return peekNextChuck() == EOF;
+		return peekNextChuck() == EOF && (!httpChunks || lastChunkSent);
 	}
 
 	public void close() throws Exception {
@@ -0,0 +1,73 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.ion.framework.util.Debug;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Runs the callbacks of a channel on a shared executor, one at a time and in the order they were submitted. Reads of the channel are suspended while more than the high
+ * water mark are waiting, and resumed once the queue is back to half of it.
+ */
+final class ChannelCallbackExecutor implements Runnable {
+
+	private final Channel channel;
+	private final Executor executor;
+	private final int highWaterMark;
+	private final Queue<Runnable> callbacks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	ChannelCallbackExecutor(Channel channel, Executor executor, int highWaterMark) {
+		this.channel = channel;
+		this.executor = executor;
+		this.highWaterMark = highWaterMark;
+	}
+
+	void execute(Runnable callback) {
+		callbacks.add(callback);
+		if (pending.incrementAndGet() == highWaterMark) {
+			ReadSuspension.suspend(channel, ReadSuspension.CALLBACK_QUEUE);
+		}
+		schedule();
+	}
+
+	private void schedule() {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(this);
+		} catch (RejectedExecutionException ex) {
+			// executor rejected the task (client shutting down) : run the callbacks inline on the I/O thread, reads stall until they return.
+			run();
+		}
+	}
+
+	public void run() {
+		try {
+			Runnable callback;
+			while ((callback = callbacks.poll()) != null) {
+				if (pending.decrementAndGet() == highWaterMark / 2) {
+					ReadSuspension.resume(channel, ReadSuspension.CALLBACK_QUEUE);
+				}
+				try {
+					callback.run();
+				} catch (Throwable t) {
+					Debug.warn("Channel callback failure", t);
+				}
+			}
+		} finally {
+			running.set(false);
+		}
+		if (!callbacks.isEmpty()) {
+			schedule();
+		}
+	}
+}
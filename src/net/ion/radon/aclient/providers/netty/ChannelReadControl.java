@@ -0,0 +1,43 @@
+package net.ion.radon.aclient.providers.netty;
+
+import net.ion.radon.aclient.ResponseReadControl;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Pauses the channel a response is read from, for as long as the response is not done.
+ */
+final class ChannelReadControl implements ResponseReadControl {
+
+	private final Channel channel;
+	private final NettyResponseFuture<?> future;
+
+	ChannelReadControl(Channel channel, NettyResponseFuture<?> future) {
+		this.channel = channel;
+		this.future = future;
+	}
+
+	public void pause() {
+		if (!future.isDone() && !future.isCancelled()) {
+			ReadSuspension.suspend(channel, ReadSuspension.HANDLER);
+		}
+	}
+
+	public void resume() {
+		// once done, the channel may already serve another response.
+		if (!future.isDone() && !future.isCancelled()) {
+			ReadSuspension.resume(channel, ReadSuspension.HANDLER);
+		}
+	}
+
+	public boolean isPaused() {
+		return !future.isDone() && ReadSuspension.isSuspended(channel, ReadSuspension.HANDLER);
+	}
+
+	public void abort() {
+		// cancelling discards what is still read and closes the channel, the request is not replayed.
+		if (!future.isDone() && !future.isCancelled()) {
+			future.cancel(true);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.URI;
 import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.HostnameVerifier;
@@ -18,15 +19,21 @@ import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 
 /**
- * Non Blocking connect.
+ * Non Blocking connect. The connect timeout covers the TCP connect and the SSL handshake and is delivered through this listener as well.
  */
 final class NettyConnectListener<T> implements ChannelFutureListener {
 	private final ClientConfig config;
 	private final NettyResponseFuture<T> future;
 	private final HttpRequest nettyRequest;
 	private final AtomicBoolean handshakeDone = new AtomicBoolean(false);
+	private final AtomicBoolean connectDone = new AtomicBoolean(false);
+	private volatile Timeout connectTimeout;
+	private volatile long handshakeStartedAt;
 
 	private NettyConnectListener(ClientConfig config, NettyResponseFuture<T> future, HttpRequest nettyRequest) {
 		this.config = config;
@@ -38,18 +45,62 @@ final class NettyConnectListener<T> implements ChannelFutureListener {
 		return future;
 	}
 
+	void scheduleTimeout(Timer timer, final ChannelFuture channelFuture, final int timeoutInMs) {
+		scheduleTimeout(timer, new Runnable() {
+			public void run() {
+				channelFuture.cancel();
+				channelFuture.getChannel().close();
+			}
+		}, timeoutInMs);
+	}
+
+	/**
+	 * @param cancelConnect
+	 *            stops whatever connect attempts are still running when the timeout fires.
+	 */
+	void scheduleTimeout(Timer timer, final Runnable cancelConnect, final int timeoutInMs) {
+		connectTimeout = timer.newTimeout(new TimerTask() {
+			public void run(Timeout timeout) throws Exception {
+				if (timeout.isCancelled() || !connectDone.compareAndSet(false, true)) {
+					return;
+				}
+				cancelConnect.run();
+				future.abort(new ConnectException(String.format("Connect operation to %s timeout %s", future.getURI(), timeoutInMs)));
+			}
+		}, timeoutInMs, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean completeConnect() {
+		if (!connectDone.compareAndSet(false, true)) {
+			return false;
+		}
+		Timeout t = connectTimeout;
+		if (t != null) {
+			t.cancel();
+		}
+		return true;
+	}
+
 	public final void operationComplete(ChannelFuture f) throws Exception {
 		if (f.isSuccess()) {
 			Channel channel = f.getChannel();
 			channel.getPipeline().getContext(NettyProvider.class).setAttachment(future);
 			SslHandler sslHandler = (SslHandler) channel.getPipeline().get(NettyProvider.SSL_HANDLER);
 			if (!handshakeDone.getAndSet(true) && (sslHandler != null)) {
-				((SslHandler) channel.getPipeline().get(NettyProvider.SSL_HANDLER)).handshake().addListener(this);
+				handshakeStartedAt = System.currentTimeMillis();
+				sslHandler.handshake().addListener(this);
+				return;
+			}
+
+			if (!completeConnect()) {
+				// the connect timeout fired first.
 				return;
 			}
 
 			HostnameVerifier v = config.getHostnameVerifier();
 			if (sslHandler != null) {
+				// a resumed session was created by an earlier handshake.
+				future.provider().getSslSessionStatistics().handshakeCompleted(sslHandler.getEngine().getSession().getCreationTime() < handshakeStartedAt);
 				if (!v.verify(future.getURI().getHost(), sslHandler.getEngine().getSession())) {
 					ConnectException exception = new ConnectException("HostnameVerifier exception.");
 					future.abort(exception);
@@ -59,6 +110,9 @@ final class NettyConnectListener<T> implements ChannelFutureListener {
 
 			future.provider().writeRequest(f.getChannel(), config, future, nettyRequest);
 		} else {
+			if (!completeConnect()) {
+				return;
+			}
 			Throwable cause = f.getCause();
 
 			if (future.canRetry() && cause != null && (NettyProvider.abortOnDisconnectException(cause) || ClosedChannelException.class.isAssignableFrom(cause.getClass()) || future.getState() != NettyResponseFuture.STATE.NEW)) {
@@ -1,27 +1,33 @@
 package net.ion.radon.aclient.providers.netty;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.ion.framework.util.Debug;
 import net.ion.radon.aclient.ConnectionsPool;
 
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 
 /**
  * A simple implementation of {@link net.ion.radon.aclient.ConnectionsPool} based on a {@link java.util.concurrent.ConcurrentHashMap}
+ * 
+ * Idle channels are evicted by the provider's {@link HashedWheelTimer}: every offered channel is scheduled once and the timeout is cancelled when the channel is polled, so the eviction cost depends on the number of expiring channels instead of the pool size.
+ * 
+ * The idle channels of a host are kept in a lock free stack, the most recently used channel is handed out first.
  */
 public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 
-	private final ConcurrentHashMap<String, ConcurrentLinkedQueue<IdleChannel>> connectionsPool = new ConcurrentHashMap<String, ConcurrentLinkedQueue<IdleChannel>>();
+	private final ConcurrentHashMap<String, IdleChannelStack> connectionsPool = new ConcurrentHashMap<String, IdleChannelStack>();
 	private final ConcurrentHashMap<Channel, IdleChannel> channel2IdleChannel = new ConcurrentHashMap<Channel, IdleChannel>();
 	private final AtomicBoolean isClosed = new AtomicBoolean(false);
-	private final Timer idleConnectionDetector = new Timer(true);
+	private final Timer idleConnectionDetector;
 	private final boolean sslConnectionPoolEnabled;
 	private final int maxTotalConnections;
 	private final int maxConnectionPerHost;
@@ -32,18 +38,65 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 		this.maxConnectionPerHost = provider.getConfig().getMaxConnectionPerHost();
 		this.sslConnectionPoolEnabled = provider.getConfig().isSslConnectionPoolEnabled();
 		this.maxIdleTime = provider.getConfig().getIdleConnectionInPoolTimeoutInMs();
-		this.idleConnectionDetector.schedule(new IdleChannelDetector(), maxIdleTime, maxIdleTime);
+		this.idleConnectionDetector = provider.getTimer();
 	}
 
-	private static class IdleChannel {
+	private class IdleChannel implements TimerTask {
 		final String uri;
 		final Channel channel;
-		final long start;
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		private volatile Timeout timeout;
 
 		IdleChannel(String uri, Channel channel) {
 			this.uri = uri;
 			this.channel = channel;
-			this.start = System.currentTimeMillis();
+		}
+
+		void schedule(long delay) {
+			if (maxIdleTime > 0 && !isClosed.get()) {
+				timeout = idleConnectionDetector.newTimeout(this, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		boolean isClaimed() {
+			return claimed.get();
+		}
+
+		void cancel() {
+			Timeout t = timeout;
+			if (t != null) {
+				t.cancel();
+				timeout = null;
+			}
+		}
+
+		public void run(Timeout timeout) {
+			try {
+				if (isClosed.get() || timeout.isCancelled() || isClaimed())
+					return;
+
+				Object attachment = channel.getPipeline().getContext(NettyProvider.class).getAttachment();
+				if (attachment instanceof NettyResponseFuture<?>) {
+					NettyResponseFuture<?> future = (NettyResponseFuture<?>) attachment;
+					if (!future.isDone() && !future.isCancelled()) {
+						// still in use, look at it again after another idle period unless it was polled meanwhile.
+						if (!isClaimed()) {
+							schedule(maxIdleTime);
+						}
+						return;
+					}
+				}
+
+				if (remove(this)) {
+					close(channel);
+				}
+			} catch (Throwable t) {
+				Debug.warn("idle channel check", t);
+			}
 		}
 
 		@Override
@@ -67,45 +120,86 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 		}
 	}
 
-	private class IdleChannelDetector extends TimerTask {
-		@Override
-		public void run() {
-			try {
-				if (isClosed.get())
-					return;
+	/**
+	 * Lock free LIFO of the idle channels of one host. Removing a channel only claims its entry, claimed entries are skipped by {@link #pop()} and unlinked in bulk once they outnumber the live ones.
+	 */
+	private static final class IdleChannelStack {
 
-				List<IdleChannel> channelsInTimeout = new ArrayList<IdleChannel>();
-				long currentTime = System.currentTimeMillis();
+		private static final class Node {
+			final IdleChannel item;
+			volatile Node next;
+
+			Node(IdleChannel item) {
+				this.item = item;
+			}
+		}
 
-				for (IdleChannel idleChannel : channel2IdleChannel.values()) {
-					long age = currentTime - idleChannel.start;
-					if (age > maxIdleTime) {
+		private final AtomicReference<Node> head = new AtomicReference<Node>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicInteger garbage = new AtomicInteger();
+		private final AtomicBoolean purging = new AtomicBoolean(false);
 
-						// store in an unsynchronized list to minimize the impact on the ConcurrentHashMap.
-						channelsInTimeout.add(idleChannel);
-					}
+		boolean reserve(int max) {
+			for (;;) {
+				int current = size.get();
+				if (max != -1 && current >= max) {
+					return false;
 				}
-				long endConcurrentLoop = System.currentTimeMillis();
+				if (size.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
 
-				for (IdleChannel idleChannel : channelsInTimeout) {
-					Object attachment = idleChannel.channel.getPipeline().getContext(NettyProvider.class).getAttachment();
-					if (attachment != null) {
-						if (NettyResponseFuture.class.isAssignableFrom(attachment.getClass())) {
-							NettyResponseFuture<?> future = (NettyResponseFuture<?>) attachment;
+		void push(IdleChannel idleChannel) {
+			Node node = new Node(idleChannel);
+			Node h;
+			do {
+				h = head.get();
+				node.next = h;
+			} while (!head.compareAndSet(h, node));
+		}
 
-							if (!future.isDone() && !future.isCancelled()) {
-								continue;
-							}
-						}
-					}
+		IdleChannel pop() {
+			for (;;) {
+				Node h = head.get();
+				if (h == null) {
+					return null;
+				}
+				if (head.compareAndSet(h, h.next) && h.item.claim()) {
+					size.decrementAndGet();
+					return h.item;
+				}
+			}
+		}
 
-					if (remove(idleChannel)) {
-						close(idleChannel.channel);
+		boolean remove(IdleChannel idleChannel) {
+			if (!idleChannel.claim()) {
+				return false;
+			}
+			size.decrementAndGet();
+			if (garbage.incrementAndGet() > Math.max(size.get(), 16)) {
+				purge();
+			}
+			return true;
+		}
+
+		private void purge() {
+			if (!purging.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				garbage.set(0);
+				// A concurrent pop may re-link a node unlinked here, it is still claimed and will be skipped.
+				for (Node p = head.get(); p != null; p = p.next) {
+					Node n = p.next;
+					while (n != null && n.item.isClaimed()) {
+						n = n.next;
 					}
+					p.next = n;
 				}
-
-			} catch (Throwable t) {
-				t.printStackTrace() ;
+			} finally {
+				purging.set(false);
 			}
 		}
 	}
@@ -123,29 +217,25 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 
 		channel.getPipeline().getContext(NettyProvider.class).setAttachment(new NettyProvider.DiscardEvent());
 
-		ConcurrentLinkedQueue<IdleChannel> idleConnectionForHost = connectionsPool.get(uri);
+		IdleChannelStack idleConnectionForHost = connectionsPool.get(uri);
 		if (idleConnectionForHost == null) {
-			ConcurrentLinkedQueue<IdleChannel> newPool = new ConcurrentLinkedQueue<IdleChannel>();
+			IdleChannelStack newPool = new IdleChannelStack();
 			idleConnectionForHost = connectionsPool.putIfAbsent(uri, newPool);
 			if (idleConnectionForHost == null)
 				idleConnectionForHost = newPool;
 		}
 
-		boolean added;
-		int size = idleConnectionForHost.size();
-		if (maxConnectionPerHost == -1 || size < maxConnectionPerHost) {
-			IdleChannel idleChannel = new IdleChannel(uri, channel);
-			synchronized (idleConnectionForHost) {
-				added = idleConnectionForHost.add(idleChannel);
+		if (!idleConnectionForHost.reserve(maxConnectionPerHost)) {
+			return false;
+		}
 
-				if (channel2IdleChannel.put(channel, idleChannel) != null) {
-					Debug.error("Channel {} already exists in the connections pool!", channel);
-				}
-			}
-		} else {
-			added = false;
+		IdleChannel idleChannel = new IdleChannel(uri, channel);
+		if (channel2IdleChannel.put(channel, idleChannel) != null) {
+			Debug.error("Channel {} already exists in the connections pool!", channel);
 		}
-		return added;
+		idleConnectionForHost.push(idleChannel);
+		idleChannel.schedule(maxIdleTime);
+		return true;
 	}
 
 	/**
@@ -156,40 +246,35 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 			return null;
 		}
 
-		IdleChannel idleChannel = null;
-		ConcurrentLinkedQueue<IdleChannel> idleConnectionForHost = connectionsPool.get(uri);
-		if (idleConnectionForHost != null) {
-			boolean poolEmpty = false;
-			while (!poolEmpty && idleChannel == null) {
-				if (idleConnectionForHost.size() > 0) {
-					synchronized (idleConnectionForHost) {
-						idleChannel = idleConnectionForHost.poll();
-						if (idleChannel != null) {
-							channel2IdleChannel.remove(idleChannel.channel);
-						}
-					}
-				}
+		IdleChannelStack idleConnectionForHost = connectionsPool.get(uri);
+		if (idleConnectionForHost == null) {
+			return null;
+		}
 
-				if (idleChannel == null) {
-					poolEmpty = true;
-				} else if (!idleChannel.channel.isConnected() || !idleChannel.channel.isOpen()) {
-					idleChannel = null;
-				}
+		IdleChannel idleChannel;
+		while ((idleChannel = idleConnectionForHost.pop()) != null) {
+			channel2IdleChannel.remove(idleChannel.channel, idleChannel);
+			idleChannel.cancel();
+
+			if (idleChannel.channel.isConnected() && idleChannel.channel.isOpen()) {
+				return idleChannel.channel;
 			}
 		}
-		return idleChannel != null ? idleChannel.channel : null;
+		return null;
 	}
 
 	private boolean remove(IdleChannel pooledChannel) {
 		if (pooledChannel == null || isClosed.get())
 			return false;
 
+		pooledChannel.cancel();
+
 		boolean isRemoved = false;
-		ConcurrentLinkedQueue<IdleChannel> pooledConnectionForHost = connectionsPool.get(pooledChannel.uri);
+		IdleChannelStack pooledConnectionForHost = connectionsPool.get(pooledChannel.uri);
 		if (pooledConnectionForHost != null) {
 			isRemoved = pooledConnectionForHost.remove(pooledChannel);
 		}
-		isRemoved |= channel2IdleChannel.remove(pooledChannel.channel) != null;
+		channel2IdleChannel.remove(pooledChannel.channel, pooledChannel);
 		return isRemoved;
 	}
 
@@ -218,12 +303,10 @@ public class NettyConnectionsPool implements ConnectionsPool<String, Channel> {
 		if (isClosed.getAndSet(true))
 			return;
 
-		// stop timer
-		idleConnectionDetector.cancel();
-		idleConnectionDetector.purge();
-
-		for (Channel channel : channel2IdleChannel.keySet()) {
-			close(channel);
+		// the timer is shared with the provider, only drop our own timeouts.
+		for (IdleChannel idleChannel : channel2IdleChannel.values()) {
+			idleChannel.cancel();
+			close(idleChannel.channel);
 		}
 		connectionsPool.clear();
 		channel2IdleChannel.clear();
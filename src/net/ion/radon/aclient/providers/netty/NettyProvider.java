@@ -8,13 +8,14 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.ConnectException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
-import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -22,17 +23,20 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 
 import net.ion.framework.util.Debug;
 import net.ion.framework.util.IOUtil;
@@ -49,6 +53,8 @@ import net.ion.radon.aclient.HttpResponseHeaders;
 import net.ion.radon.aclient.HttpResponseStatus;
 import net.ion.radon.aclient.ListenableFuture;
 import net.ion.radon.aclient.MaxRedirectException;
+import net.ion.radon.aclient.NameResolver;
+import net.ion.radon.aclient.PeerAwareSSLEngineFactory;
 import net.ion.radon.aclient.PerRequestConfig;
 import net.ion.radon.aclient.ProgressAsyncHandler;
 import net.ion.radon.aclient.ProxyServer;
@@ -57,21 +63,29 @@ import net.ion.radon.aclient.Realm;
 import net.ion.radon.aclient.Request;
 import net.ion.radon.aclient.RequestBuilder;
 import net.ion.radon.aclient.Response;
+import net.ion.radon.aclient.SSLEngineFactory;
 import net.ion.radon.aclient.AsyncHandler.STATE;
 import net.ion.radon.aclient.filter.FilterContext;
 import net.ion.radon.aclient.filter.FilterException;
 import net.ion.radon.aclient.filter.IOExceptionFilter;
 import net.ion.radon.aclient.filter.ResponseFilter;
+import net.ion.radon.aclient.generators.FeedableBodyGenerator;
 import net.ion.radon.aclient.generators.InputStreamBodyGenerator;
 import net.ion.radon.aclient.listener.TransferCompletionHandler;
 import net.ion.radon.aclient.multipart.MultipartBody;
 import net.ion.radon.aclient.multipart.MultipartRequestEntity;
 import net.ion.radon.aclient.ntlm.NTLMEngine;
 import net.ion.radon.aclient.ntlm.NTLMEngineException;
+import net.ion.radon.aclient.resolver.CachingNameResolver;
+import net.ion.radon.aclient.resolver.JdkNameSource;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.CloseWebSocketFrame;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.PingWebSocketFrame;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.PongWebSocketFrame;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocket08FrameDecoder;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocket08FrameEncoder;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocketDeflateEncoder;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocketFrame;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocketInflateDecoder;
 import net.ion.radon.aclient.providers.netty.spnego.SpnegoEngine;
 import net.ion.radon.aclient.util.AsyncHttpProviderUtils;
 import net.ion.radon.aclient.util.AuthenticatorUtils;
@@ -86,9 +100,13 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelConfig;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelFutureProgressListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.channel.DefaultExceptionEvent;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelStateEvent;
@@ -100,7 +118,9 @@ import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
 import org.jboss.netty.channel.socket.oio.OioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
 import org.jboss.netty.handler.codec.http.CookieEncoder;
 import org.jboss.netty.handler.codec.http.DefaultCookie;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunkTrailer;
@@ -120,6 +140,10 @@ import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedFile;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.restlet.data.Method;
 
 public class NettyProvider extends SimpleChannelUpstreamHandler implements AsyncHttpProvider {
@@ -131,7 +155,8 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 	private static final String WEBSOCKET = "ws";
 	private static final String WEBSOCKET_SSL = "wss";
 
-	private final static Charset UTF8 = Charset.forName("UTF-8");
+	// Do no enable reuseAddress with win.
+	private final static boolean REUSE_ADDRESS_SUPPORTED = System.getProperty("os.name").toLowerCase().indexOf("win") == -1;
 
 	private final ClientBootstrap plainBootstrap;
 	private final ClientBootstrap secureBootstrap;
@@ -153,6 +178,19 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		}
 	};
 	private final ConnectionsPool<String, Channel> connectionsPool;
+	private final NameResolver nameResolver;
+	private final boolean pipelining;
+	private final int pipeliningMaxDepth;
+	private final int connectAttemptDelayInMs;
+	private final boolean dispatchCallbacks;
+	private final int callbackQueueHighWaterMark;
+	private final int writeBufferHighWaterMark;
+	private final int writeBufferLowWaterMark;
+	private final int writeChunkSize;
+	private final ChannelLocal<ChannelCallbackExecutor> callbackExecutors = new ChannelLocal<ChannelCallbackExecutor>();
+	// The pipeline new requests to a host are queued on, and the pipeline of every channel in pipelining mode.
+	private final ConcurrentHashMap<String, NettyRequestPipeline> pipelines = new ConcurrentHashMap<String, NettyRequestPipeline>();
+	private final ChannelLocal<NettyRequestPipeline> channelPipelines = new ChannelLocal<NettyRequestPipeline>();
 	private Semaphore freeConnections = null;
 	private final NettyProviderConfig asyncHttpProviderConfig;
 	private boolean executeConnectAsync = true;
@@ -163,6 +201,16 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 	private final static SpnegoEngine spnegoEngine = null;
 	private final Protocol httpProtocol = new HttpProtocol();
 	private final Protocol webSocketProtocol = new WebSocketProtocol();
+	private final HashedWheelTimer nettyTimer = new HashedWheelTimer(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "AsyncHttpClient-Timer");
+			t.setDaemon(true);
+			return t;
+		}
+	}, 100, TimeUnit.MILLISECONDS);
+	private final SslSessionStatistics sslSessionStatistics = new SslSessionStatistics();
+	// Session resumption only works if every engine comes from the same context.
+	private volatile SSLContext defaultSSLContext;
 
 	public NettyProvider(ClientConfig config) {
 
@@ -189,9 +237,11 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		secureBootstrap = new ClientBootstrap(socketChannelFactory);
 		webSocketBootstrap = new ClientBootstrap(socketChannelFactory);
 		secureWebSocketBootstrap = new ClientBootstrap(socketChannelFactory);
-		configureNetty();
-
 		this.config = config;
+		configureNetty();
+		if (config.getSSLContext() != null) {
+			configureSessionCache(config.getSSLContext());
+		}
 
 		// This is dangerous as we can't catch a wrong typed ConnectionsPool
 		ConnectionsPool<String, Channel> cp = (ConnectionsPool<String, Channel>) config.getConnectionsPool();
@@ -210,6 +260,32 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		}
 
 		useRawUrl = config.isUseRawUrl();
+
+		Object value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.HTTP_PIPELINING);
+		pipelining = value != null && Boolean.valueOf(value.toString());
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.HTTP_PIPELINING_MAX_DEPTH);
+		pipeliningMaxDepth = value != null ? Integer.parseInt(value.toString()) : NettyProviderConfig.DEFAULT_HTTP_PIPELINING_MAX_DEPTH;
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.CONNECT_ATTEMPT_DELAY);
+		connectAttemptDelayInMs = value != null ? Integer.parseInt(value.toString()) : NettyProviderConfig.DEFAULT_CONNECT_ATTEMPT_DELAY;
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.DISPATCH_CALLBACKS);
+		dispatchCallbacks = value != null && Boolean.valueOf(value.toString());
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.CALLBACK_QUEUE_HIGH_WATER_MARK);
+		callbackQueueHighWaterMark = value != null ? Integer.parseInt(value.toString()) : NettyProviderConfig.DEFAULT_CALLBACK_QUEUE_HIGH_WATER_MARK;
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.WRITE_BUFFER_HIGH_WATER_MARK);
+		writeBufferHighWaterMark = value != null ? Integer.parseInt(value.toString()) : -1;
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.WRITE_BUFFER_LOW_WATER_MARK);
+		writeBufferLowWaterMark = value != null ? Integer.parseInt(value.toString()) : -1;
+		if (writeBufferHighWaterMark != -1 && writeBufferLowWaterMark > writeBufferHighWaterMark) {
+			throw new IllegalArgumentException("writeBufferLowWaterMark must not be greater than writeBufferHighWaterMark");
+		}
+		value = asyncHttpProviderConfig.getProperty(NettyProviderConfig.WRITE_CHUNK_SIZE);
+		writeChunkSize = value != null ? Integer.parseInt(value.toString()) : NettyProviderConfig.DEFAULT_WRITE_CHUNK_SIZE;
+
+		if (config.getNameResolver() != null) {
+			nameResolver = config.getNameResolver();
+		} else {
+			nameResolver = new CachingNameResolver(new JdkNameSource(), config.executorService());
+		}
 	}
 
 	@Override
@@ -217,11 +293,23 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		return String.format("NettyAsyncHttpProvider:\n\t- maxConnections: %d\n\t- openChannels: %s\n\t- connectionPools: %s", config.getMaxTotalConnections() - ((freeConnections == null) ? 0 : freeConnections.availablePermits()), openChannels.toString(), connectionsPool.toString());
 	}
 
+	/**
+	 * The bootstraps and their pipeline factories are configured once here and never modified afterwards, everything specific to a connection goes through a {@link ConnectContext}.
+	 */
 	void configureNetty() {
-		if (asyncHttpProviderConfig != null) {
-			for (Entry<String, Object> entry : asyncHttpProviderConfig.propertiesSet()) {
-				plainBootstrap.setOption(entry.getKey(), entry.getValue());
+		for (ClientBootstrap bootstrap : new ClientBootstrap[] { plainBootstrap, secureBootstrap, webSocketBootstrap, secureWebSocketBootstrap }) {
+			if (asyncHttpProviderConfig != null) {
+				for (Entry<String, Object> entry : asyncHttpProviderConfig.propertiesSet()) {
+					bootstrap.setOption(entry.getKey(), entry.getValue());
+				}
+			}
+			bootstrap.setOption("connectTimeoutMillis", config.getConnectionTimeoutInMs());
+			if (REUSE_ADDRESS_SUPPORTED) {
+				bootstrap.setOption("reuseAddress", asyncHttpProviderConfig.getProperty(NettyProviderConfig.REUSE_ADDRESS));
 			}
+			// their order matters, see setWriteBufferWaterMarks.
+			bootstrap.setOption(NettyProviderConfig.WRITE_BUFFER_HIGH_WATER_MARK, null);
+			bootstrap.setOption(NettyProviderConfig.WRITE_BUFFER_LOW_WATER_MARK, null);
 		}
 
 		plainBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
@@ -266,22 +354,14 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				return pipeline;
 			}
 		});
-	}
-
-	void constructSSLPipeline(final NettyConnectListener<?> cl) {
 
+		// The SslHandler is added by newChannel(), it depends on the connection.
 		secureBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
 
 			/* @Override */
 			public ChannelPipeline getPipeline() throws Exception {
 				ChannelPipeline pipeline = pipeline();
 
-				try {
-					pipeline.addLast(SSL_HANDLER, new SslHandler(createSSLEngine()));
-				} catch (Throwable ex) {
-					abort(cl.future(), ex);
-				}
-
 				pipeline.addLast(HTTP_HANDLER, new HttpClientCodec());
 
 				if (config.isCompressionEnabled()) {
@@ -298,27 +378,12 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 			/* @Override */
 			public ChannelPipeline getPipeline() throws Exception {
 				ChannelPipeline pipeline = pipeline();
-
-				try {
-					pipeline.addLast(SSL_HANDLER, new SslHandler(createSSLEngine()));
-				} catch (Throwable ex) {
-					abort(cl.future(), ex);
-				}
-
 				pipeline.addLast("ws-decoder", new HttpResponseDecoder());
 				pipeline.addLast("ws-encoder", new HttpRequestEncoder());
 				pipeline.addLast("httpProcessor", NettyProvider.this);
-
 				return pipeline;
 			}
 		});
-
-		if (asyncHttpProviderConfig != null) {
-			for (Entry<String, Object> entry : asyncHttpProviderConfig.propertiesSet()) {
-				secureBootstrap.setOption(entry.getKey(), entry.getValue());
-				secureWebSocketBootstrap.setOption(entry.getKey(), entry.getValue());
-			}
-		}
 	}
 
 	private Channel lookupInCache(URI uri) {
@@ -329,7 +394,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				// Always make sure the channel who got cached support the proper protocol. It could
 				// only occurs when a HttpMethod.CONNECT is used agains a proxy that require upgrading from http to
 				// https.
-				return verifyChannelPipeline(channel, uri.getScheme());
+				return verifyChannelPipeline(channel, uri);
 			} catch (Exception ex) {
 				ex.printStackTrace() ;
 			}
@@ -337,22 +402,69 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		return null;
 	}
 
-	private SSLEngine createSSLEngine() throws IOException, GeneralSecurityException {
-		SSLEngine sslEngine = config.getSSLEngineFactory().newSSLEngine();
+	/**
+	 * Engines are created for the peer host and port so the JDK can resume a session cached for it, unless the factory is not told the peer.
+	 */
+	private SSLEngine createSSLEngine(String peerHost, int peerPort) throws IOException, GeneralSecurityException {
+		SSLEngineFactory factory = config.getSSLEngineFactory();
+		SSLEngine sslEngine;
+		if (factory instanceof PeerAwareSSLEngineFactory) {
+			sslEngine = ((PeerAwareSSLEngineFactory) factory).newSSLEngine(peerHost, peerPort);
+		} else {
+			sslEngine = factory.newSSLEngine();
+		}
 		if (sslEngine == null) {
-			sslEngine = SslUtils.getSSLEngine();
+			sslEngine = getDefaultSSLContext().createSSLEngine(peerHost, peerPort);
+			sslEngine.setUseClientMode(true);
 		}
 		return sslEngine;
 	}
 
-	private Channel verifyChannelPipeline(Channel channel, String scheme) throws IOException, GeneralSecurityException {
+	private SSLEngine createSSLEngine(URI uri) throws IOException, GeneralSecurityException {
+		return createSSLEngine(AsyncHttpProviderUtils.getHost(uri), AsyncHttpProviderUtils.getPort(uri));
+	}
+
+	private SSLContext getDefaultSSLContext() throws IOException, GeneralSecurityException {
+		SSLContext sslContext = defaultSSLContext;
+		if (sslContext == null) {
+			synchronized (this) {
+				sslContext = defaultSSLContext;
+				if (sslContext == null) {
+					sslContext = SslUtils.getSSLContext();
+					configureSessionCache(sslContext);
+					defaultSSLContext = sslContext;
+				}
+			}
+		}
+		return sslContext;
+	}
+
+	private void configureSessionCache(SSLContext sslContext) {
+		SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+		if (sessionContext == null) {
+			return;
+		}
+		if (config.getSslSessionCacheSize() >= 0) {
+			sessionContext.setSessionCacheSize(config.getSslSessionCacheSize());
+		}
+		if (config.getSslSessionTimeoutInSec() >= 0) {
+			sessionContext.setSessionTimeout(config.getSslSessionTimeoutInSec());
+		}
+	}
+
+	public SslSessionStatistics getSslSessionStatistics() {
+		return sslSessionStatistics;
+	}
+
+	private Channel verifyChannelPipeline(Channel channel, URI uri) throws IOException, GeneralSecurityException {
+		String scheme = uri.getScheme();
 
 		if (channel.getPipeline().get(SSL_HANDLER) != null && HTTP.equalsIgnoreCase(scheme)) {
 			channel.getPipeline().remove(SSL_HANDLER);
 		} else if (channel.getPipeline().get(HTTP_HANDLER) != null && HTTP.equalsIgnoreCase(scheme)) {
 			return channel;
 		} else if (channel.getPipeline().get(SSL_HANDLER) == null && isSecure(scheme)) {
-			channel.getPipeline().addFirst(SSL_HANDLER, new SslHandler(createSSLEngine()));
+			channel.getPipeline().addFirst(SSL_HANDLER, new SslHandler(createSSLEngine(uri)));
 		}
 		return channel;
 	}
@@ -366,6 +478,12 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				return;
 			}
 
+			if (canPipeline(future) && channelPipelines.get(channel) == null) {
+				NettyRequestPipeline pipeline = new NettyRequestPipeline(channel, AsyncHttpProviderUtils.getBaseUrl(future.getURI()), pipeliningMaxDepth, future);
+				channelPipelines.set(channel, pipeline);
+				pipelines.put(pipeline.getBaseUrl(), pipeline);
+			}
+
 			Body body = null;
 			if (!future.getNettyRequest().getMethod().equals(Method.CONNECT)) {
 				BodyGenerator bg = future.getRequest().getBodyGenerator();
@@ -391,6 +509,13 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				}
 			}
 
+			if (future.getAsyncHandler() instanceof WebSocketUpgradeHandler && isWebSocket(future.getURI())) {
+				WebSocketUpgradeHandler wsh = (WebSocketUpgradeHandler) future.getAsyncHandler();
+				if (wsh.isPerMessageDeflate()) {
+					nettyRequest.setHeader(PerMessageDeflate.EXTENSIONS_HEADER, PerMessageDeflate.offer(wsh));
+				}
+			}
+
 			if (TransferCompletionHandler.class.isAssignableFrom(future.getAsyncHandler().getClass())) {
 
 				FluentCaseInsensitiveStringsMap h = new FluentCaseInsensitiveStringsMap();
@@ -431,7 +556,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 							ChannelFuture writeFuture;
 							if (channel.getPipeline().get(SslHandler.class) != null) {
-								writeFuture = channel.write(new ChunkedFile(raf, 0, fileLength, 8192));
+								writeFuture = channel.write(new ChunkedFile(raf, 0, fileLength, writeChunkSize));
 							} else {
 								final FileRegion region = new OptimizedFileRegion(raf, 0, fileLength);
 								writeFuture = channel.write(region);
@@ -460,8 +585,16 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 						if (channel.getPipeline().get(SslHandler.class) == null && (body instanceof RandomAccessBody)) {
 							BodyFileRegion bodyFileRegion = new BodyFileRegion((RandomAccessBody) body);
 							writeFuture = channel.write(bodyFileRegion);
+						} else if (body instanceof FeedableBodyGenerator.FeedableBody) {
+							final ChunkedWriteHandler chunkedWriter = channel.getPipeline().get(ChunkedWriteHandler.class);
+							FeedableBodyGenerator.class.cast(future.getRequest().getBodyGenerator()).setFeedListener(new FeedableBodyGenerator.FeedListener() {
+								public void onContentAdded() {
+									chunkedWriter.resumeTransfer();
+								}
+							});
+							writeFuture = channel.write(new BodyChunkedInput(body, writeChunkSize, true));
 						} else {
-							BodyChunkedInput bodyChunkedInput = new BodyChunkedInput(body);
+							BodyChunkedInput bodyChunkedInput = new BodyChunkedInput(body, writeChunkSize, false);
 							writeFuture = channel.write(bodyChunkedInput);
 						}
 
@@ -487,12 +620,10 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 			future.touch();
 			int delay = requestTimeout(config, future.getRequest().getPerRequestConfig());
 			if (delay != -1 && !future.isDone() && !future.isCancelled()) {
-				ReaperFuture reaperFuture = new ReaperFuture(future);
-				Future<?> scheduledFuture = config.reaper().scheduleAtFixedRate(reaperFuture, 0, delay, TimeUnit.MILLISECONDS);
-				reaperFuture.setScheduledFuture(scheduledFuture);
-				future.setReaperFuture(reaperFuture);
+				scheduleTimeout(future, future.timeUntilExpiry());
 			}
-		} catch (RejectedExecutionException ex) {
+		} catch (IllegalStateException ex) {
+			// the timer has been stopped
 			abort(future, ex);
 		}
 
@@ -796,7 +927,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				ChannelHandlerContext ctx = channel.getPipeline().getContext(NettyProvider.class);
 				if (ctx.getAttachment() instanceof NettyResponseFuture<?>) {
 					NettyResponseFuture<?> future = (NettyResponseFuture<?>) ctx.getAttachment();
-					future.setReaperFuture(null);
+					future.setTimeout(null);
 				}
 			}
 
@@ -810,6 +941,18 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		} catch (Throwable ex) {
 			ex.printStackTrace() ;
 		}
+		try {
+			nettyTimer.stop();
+		} catch (IllegalStateException ex) {
+			// close() was called from a timer task and the timer thread cannot stop itself, another thread stops it once the task returns.
+			Thread stopper = new Thread("NettyProvider timer stopper") {
+				public void run() {
+					nettyTimer.stop();
+				}
+			};
+			stopper.setDaemon(true);
+			stopper.start();
+		}
 	}
 
 	/* @Override */
@@ -848,6 +991,23 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		URI uri = AsyncHttpProviderUtils.createUri(requestUrl);
 		Channel channel = null;
 
+		if (useCache && f == null && pipelining) {
+			NettyRequestPipeline pipeline = pipelines.get(AsyncHttpProviderUtils.getBaseUrl(uri));
+			if (pipeline != null && pipeline.getChannel().isConnected()) {
+				HttpRequest nettyRequest = buildRequest(config, request, uri, false, null);
+				NettyResponseFuture<T> pf = newFuture(uri, request, asyncHandler, nettyRequest, config, this);
+				if (canPipeline(pf)) {
+					pf.attachChannel(pipeline.getChannel(), false);
+					if (pipeline.offer(pf)) {
+						pf.setState(NettyResponseFuture.STATE.POOLED);
+						writeRequest(pipeline.getChannel(), config, pf, nettyRequest);
+						return pf;
+					}
+					pf.attachChannel(null, false);
+				}
+			}
+		}
+
 		if (useCache) {
 			if (f != null && f.reuseChannel() && f.channel() != null) {
 				channel = f.channel();
@@ -921,59 +1081,156 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 			}
 		}
 
-		NettyConnectListener<T> c = new NettyConnectListener.Builder<T>(config, request, asyncHandler, f, this, bufferedBytes).build(uri);
+		final NettyConnectListener<T> c = new NettyConnectListener.Builder<T>(config, request, asyncHandler, f, this, bufferedBytes).build(uri);
 		boolean avoidProxy = ProxyUtils.avoidProxy(proxyServer, uri.getHost());
 
-		if (useSSl) {
-			constructSSLPipeline(c);
+		ClientBootstrap bootstrap = request.getUrl().startsWith(WEBSOCKET) ? (useSSl ? secureWebSocketBootstrap : webSocketBootstrap) : (useSSl ? secureBootstrap : plainBootstrap);
+
+		boolean directInvokation = true;
+		if (IN_IO_THREAD.get() && DefaultChannelFuture.isUseDeadLockChecker()) {
+			directInvokation = false;
 		}
+		boolean blocking = directInvokation && !asyncConnect && request.getFile() == null;
+		InetSocketAddress localAddress = request.getLocalAddress() != null ? new InetSocketAddress(request.getLocalAddress(), 0) : null;
+		final ConnectContext<T> context = new ConnectContext<T>(bootstrap, c, useSSl, uri, localAddress, blocking, acquiredConnection);
 
-		ChannelFuture channelFuture;
-		ClientBootstrap bootstrap = request.getUrl().startsWith(WEBSOCKET) ? (useSSl ? secureWebSocketBootstrap : webSocketBootstrap) : (useSSl ? secureBootstrap : plainBootstrap);
-		bootstrap.setOption("connectTimeoutMillis", config.getConnectionTimeoutInMs());
+		if (request.getInetAddress() != null) {
+			connect(context, new InetSocketAddress(request.getInetAddress(), AsyncHttpProviderUtils.getPort(uri)));
+			return c.future();
+		}
 
-		// Do no enable this with win.
-		if (System.getProperty("os.name").toLowerCase().indexOf("win") == -1) {
-			bootstrap.setOption("reuseAddress", asyncHttpProviderConfig.getProperty(NettyProviderConfig.REUSE_ADDRESS));
+		final String host;
+		final int port;
+		if (proxyServer == null || avoidProxy) {
+			host = AsyncHttpProviderUtils.getHost(uri);
+			port = AsyncHttpProviderUtils.getPort(uri);
+		} else {
+			host = proxyServer.getHost();
+			port = proxyServer.getPort();
 		}
 
-		try {
-			InetSocketAddress remoteAddress;
-			if (request.getInetAddress() != null) {
-				remoteAddress = new InetSocketAddress(request.getInetAddress(), AsyncHttpProviderUtils.getPort(uri));
-			} else if (proxyServer == null || avoidProxy) {
-				remoteAddress = new InetSocketAddress(AsyncHttpProviderUtils.getHost(uri), AsyncHttpProviderUtils.getPort(uri));
-			} else {
-				remoteAddress = new InetSocketAddress(proxyServer.getHost(), proxyServer.getPort());
+		if (blocking) {
+			BlockingResolveListener resolved = new BlockingResolveListener();
+			nameResolver.resolve(host, resolved);
+			try {
+				InetAddress[] addresses = resolved.await(config.getConnectionTimeoutInMs());
+				connect(context, new InetSocketAddress(addresses[0], port));
+			} catch (UnknownHostException ex) {
+				if (acquiredConnection) {
+					freeConnections.release();
+				}
+				abort(c.future(), ex);
+			}
+			return c.future();
+		}
+
+		nameResolver.resolve(host, new NameResolver.ResolveListener() {
+			public void onResolved(String host, InetAddress[] addresses) {
+				try {
+					connect(context, addresses, port);
+				} catch (IOException ex) {
+					abort(c.future(), ex);
+				}
 			}
 
-			if (request.getLocalAddress() != null) {
-				channelFuture = bootstrap.connect(remoteAddress, new InetSocketAddress(request.getLocalAddress(), 0));
+			public void onFailure(String host, UnknownHostException cause) {
+				if (context.acquiredConnection) {
+					freeConnections.release();
+				}
+				abort(c.future(), cause);
+			}
+		});
+		return c.future();
+	}
+
+	/**
+	 * What a single connect needs on top of the shared bootstrap.
+	 */
+	private static final class ConnectContext<T> {
+		final ClientBootstrap bootstrap;
+		final NettyConnectListener<T> listener;
+		final boolean secure;
+		final URI uri;
+		final InetSocketAddress localAddress;
+		final boolean blocking;
+		final boolean acquiredConnection;
+
+		ConnectContext(ClientBootstrap bootstrap, NettyConnectListener<T> listener, boolean secure, URI uri, InetSocketAddress localAddress, boolean blocking, boolean acquiredConnection) {
+			this.bootstrap = bootstrap;
+			this.listener = listener;
+			this.secure = secure;
+			this.uri = uri;
+			this.localAddress = localAddress;
+			this.blocking = blocking;
+			this.acquiredConnection = acquiredConnection;
+		}
+	}
+
+	/**
+	 * Same as {@link ClientBootstrap#connect(java.net.SocketAddress, java.net.SocketAddress)}, but the connection specific handlers are added to the pipeline without touching the shared bootstrap.
+	 */
+	private ChannelFuture newChannel(ConnectContext<?> context, InetSocketAddress remoteAddress) throws Exception {
+		ChannelPipeline pipeline = context.bootstrap.getPipelineFactory().getPipeline();
+		if (context.secure) {
+			pipeline.addFirst(SSL_HANDLER, new SslHandler(createSSLEngine(context.uri)));
+		}
+
+		Channel channel = socketChannelFactory.newChannel(pipeline);
+		channel.getConfig().setOptions(context.bootstrap.getOptions());
+		setWriteBufferWaterMarks(channel.getConfig());
+		if (context.localAddress != null) {
+			channel.bind(context.localAddress);
+		}
+		return channel.connect(remoteAddress);
+	}
+
+	/**
+	 * Netty refuses a high water mark below the current low one and the other way around, so the marks are set in the order which keeps them valid.
+	 */
+	private void setWriteBufferWaterMarks(ChannelConfig channelConfig) {
+		if (!(channelConfig instanceof NioSocketChannelConfig)) {
+			return;
+		}
+		NioSocketChannelConfig nioConfig = (NioSocketChannelConfig) channelConfig;
+		if (writeBufferHighWaterMark != -1 && writeBufferHighWaterMark < nioConfig.getWriteBufferLowWaterMark()) {
+			if (writeBufferLowWaterMark != -1) {
+				nioConfig.setWriteBufferLowWaterMark(writeBufferLowWaterMark);
 			} else {
-				channelFuture = bootstrap.connect(remoteAddress);
+				nioConfig.setWriteBufferLowWaterMark(writeBufferHighWaterMark);
+			}
+			nioConfig.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
+		} else {
+			if (writeBufferHighWaterMark != -1) {
+				nioConfig.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
 			}
+			if (writeBufferLowWaterMark != -1) {
+				nioConfig.setWriteBufferLowWaterMark(Math.min(writeBufferLowWaterMark, nioConfig.getWriteBufferHighWaterMark()));
+			}
+		}
+	}
 
+	private <T> void connect(ConnectContext<T> context, InetSocketAddress remoteAddress) throws IOException {
+		NettyConnectListener<T> c = context.listener;
+		boolean acquiredConnection = context.acquiredConnection;
+		ChannelFuture channelFuture;
+		try {
+			channelFuture = newChannel(context, remoteAddress);
 		} catch (Throwable t) {
 			if (acquiredConnection) {
 				freeConnections.release();
 			}
 			abort(c.future(), t.getCause() == null ? t : t.getCause());
-			return c.future();
-		}
-
-		boolean directInvokation = true;
-		if (IN_IO_THREAD.get() && DefaultChannelFuture.isUseDeadLockChecker()) {
-			directInvokation = false;
+			return;
 		}
 
-		if (directInvokation && !asyncConnect && request.getFile() == null) {
+		if (context.blocking) {
 			int timeOut = config.getConnectionTimeoutInMs() > 0 ? config.getConnectionTimeoutInMs() : Integer.MAX_VALUE;
 			if (!channelFuture.awaitUninterruptibly(timeOut, TimeUnit.MILLISECONDS)) {
 				if (acquiredConnection) {
 					freeConnections.release();
 				}
 				channelFuture.cancel();
-				abort(c.future(), new ConnectException(String.format("Connect operation to %s timeout %s", uri, timeOut)));
+				abort(c.future(), new ConnectException(String.format("Connect operation to %s timeout %s", c.future().getURI(), timeOut)));
 			}
 
 			try {
@@ -985,22 +1242,245 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				IOException ioe = new IOException(e.getMessage());
 				ioe.initCause(e);
 				try {
-					asyncHandler.onThrowable(ioe);
+					c.future().getAsyncHandler().onThrowable(ioe);
 				} catch (Throwable t) {
 					Debug.warn("c.operationComplete()", t);
 				}
 				throw ioe;
 			}
 		} else {
+			// Never block the caller, the connect timeout is reported by the listener.
+			if (config.getConnectionTimeoutInMs() > 0) {
+				c.scheduleTimeout(nettyTimer, channelFuture, config.getConnectionTimeoutInMs());
+			}
 			channelFuture.addListener(c);
 		}
 
-
 		if (!c.future().isCancelled() || !c.future().isDone()) {
 			openChannels.add(channelFuture.getChannel());
 			c.future().attachChannel(channelFuture.getChannel(), false);
 		}
-		return c.future();
+	}
+
+	private <T> void connect(ConnectContext<T> context, InetAddress[] addresses, int port) throws IOException {
+		if (addresses.length == 1 || context.blocking) {
+			connect(context, new InetSocketAddress(addresses[0], port));
+			return;
+		}
+
+		final ConnectRace<T> race = new ConnectRace<T>(context, interleaveFamilies(addresses), port);
+		if (config.getConnectionTimeoutInMs() > 0) {
+			context.listener.scheduleTimeout(nettyTimer, new Runnable() {
+				public void run() {
+					race.cancel();
+				}
+			}, config.getConnectionTimeoutInMs());
+		}
+		race.attemptNext();
+	}
+
+	/**
+	 * Alternates IPv6 and IPv4 addresses, keeping the resolver order within each family, so a broken family costs a single attempt.
+	 */
+	private static InetAddress[] interleaveFamilies(InetAddress[] addresses) {
+		List<InetAddress> first = new ArrayList<InetAddress>();
+		List<InetAddress> second = new ArrayList<InetAddress>();
+		for (InetAddress address : addresses) {
+			if (address.getClass() == addresses[0].getClass()) {
+				first.add(address);
+			} else {
+				second.add(address);
+			}
+		}
+
+		InetAddress[] result = new InetAddress[addresses.length];
+		int i = 0;
+		for (int j = 0; i < result.length; j++) {
+			if (j < first.size()) {
+				result[i++] = first.get(j);
+			}
+			if (j < second.size()) {
+				result[i++] = second.get(j);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Connects to the addresses of a host one after the other, the next attempt starts when the previous one failed or did not succeed within the connect attempt delay. The first channel connected wins, the other attempts are closed. The listener only hears about the winner, or about the last failure.
+	 */
+	private final class ConnectRace<T> implements ChannelFutureListener, TimerTask {
+		private final ConnectContext<T> context;
+		private final InetAddress[] addresses;
+		private final int port;
+		private final List<ChannelFuture> attempts = new ArrayList<ChannelFuture>();
+		private int next = 0;
+		private int failed = 0;
+		private boolean done = false;
+		private Timeout nextAttempt;
+
+		ConnectRace(ConnectContext<T> context, InetAddress[] addresses, int port) {
+			this.context = context;
+			this.addresses = addresses;
+			this.port = port;
+		}
+
+		void attemptNext() {
+			InetSocketAddress address;
+			synchronized (this) {
+				if (done || next == addresses.length) {
+					return;
+				}
+				address = new InetSocketAddress(addresses[next++], port);
+				if (nextAttempt != null) {
+					nextAttempt.cancel();
+				}
+				nextAttempt = next < addresses.length ? nettyTimer.newTimeout(this, connectAttemptDelayInMs, TimeUnit.MILLISECONDS) : null;
+			}
+
+			ChannelFuture attempt;
+			try {
+				attempt = newChannel(context, address);
+			} catch (Throwable t) {
+				attemptFailed(null, t.getCause() == null ? t : t.getCause());
+				return;
+			}
+
+			boolean cancelled;
+			synchronized (this) {
+				cancelled = done;
+				if (!cancelled) {
+					attempts.add(attempt);
+				}
+			}
+			if (cancelled) {
+				attempt.getChannel().close();
+				return;
+			}
+			attempt.addListener(this);
+		}
+
+		public void run(Timeout timeout) {
+			if (!timeout.isCancelled()) {
+				attemptNext();
+			}
+		}
+
+		public void operationComplete(ChannelFuture f) throws Exception {
+			if (!f.isSuccess()) {
+				attemptFailed(f, f.getCause());
+				return;
+			}
+
+			List<ChannelFuture> losers;
+			synchronized (this) {
+				if (done) {
+					f.getChannel().close();
+					return;
+				}
+				done = true;
+				if (nextAttempt != null) {
+					nextAttempt.cancel();
+				}
+				losers = new ArrayList<ChannelFuture>(attempts);
+				losers.remove(f);
+			}
+			for (ChannelFuture loser : losers) {
+				loser.cancel();
+				loser.getChannel().close();
+			}
+
+			NettyConnectListener<T> c = context.listener;
+			openChannels.add(f.getChannel());
+			c.future().attachChannel(f.getChannel(), false);
+			c.operationComplete(f);
+		}
+
+		private void attemptFailed(ChannelFuture f, Throwable cause) {
+			boolean last;
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				last = ++failed == addresses.length;
+				done = last;
+			}
+
+			if (!last) {
+				// no reason to wait for the delay.
+				attemptNext();
+				return;
+			}
+
+			if (context.acquiredConnection) {
+				freeConnections.release();
+			}
+			if (f == null) {
+				abort(context.listener.future(), cause);
+				return;
+			}
+			try {
+				context.listener.operationComplete(f);
+			} catch (Exception e) {
+				abort(context.listener.future(), e);
+			}
+		}
+
+		void cancel() {
+			boolean wasDone;
+			List<ChannelFuture> running;
+			synchronized (this) {
+				wasDone = done;
+				done = true;
+				if (nextAttempt != null) {
+					nextAttempt.cancel();
+				}
+				running = new ArrayList<ChannelFuture>(attempts);
+			}
+			for (ChannelFuture attempt : running) {
+				attempt.cancel();
+				attempt.getChannel().close();
+			}
+			if (!wasDone && context.acquiredConnection) {
+				freeConnections.release();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the {@link NameResolver} when the caller asked for a blocking connect.
+	 */
+	private static final class BlockingResolveListener implements NameResolver.ResolveListener {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile InetAddress[] addresses;
+		private volatile UnknownHostException cause;
+
+		public void onResolved(String host, InetAddress[] addresses) {
+			this.addresses = addresses;
+			latch.countDown();
+		}
+
+		public void onFailure(String host, UnknownHostException cause) {
+			this.cause = cause;
+			latch.countDown();
+		}
+
+		InetAddress[] await(int timeoutInMs) throws UnknownHostException {
+			boolean done;
+			try {
+				done = latch.await(timeoutInMs > 0 ? timeoutInMs : Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				done = false;
+			}
+			if (cause != null) {
+				throw cause;
+			}
+			if (!done || addresses == null) {
+				throw new UnknownHostException("Name resolution timeout");
+			}
+			return addresses;
+		}
 	}
 
 	protected static int requestTimeout(ClientConfig config, PerRequestConfig perRequestConfig) {
@@ -1021,6 +1501,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 	private void finishChannel(final ChannelHandlerContext ctx) {
 		ctx.setAttachment(new DiscardEvent());
+		breakPipeline(ctx.getChannel());
 
 		// The channel may have already been removed if a timeout occurred, and this method may be called just after.
 		if (ctx.getChannel() == null) {
@@ -1039,12 +1520,53 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 	}
 
+	/**
+	 * Hands a callback to the serial executor of the channel, so the {@link AsyncHandler} runs outside of the I/O thread but still sees the events of a channel in order.
+	 */
+	private void dispatch(ChannelHandlerContext ctx, Runnable callback) {
+		Channel channel = ctx.getChannel();
+		ChannelCallbackExecutor executor = callbackExecutors.get(channel);
+		if (executor == null) {
+			executor = new ChannelCallbackExecutor(channel, config.executorService(), callbackQueueHighWaterMark);
+			ChannelCallbackExecutor existing = callbackExecutors.setIfAbsent(channel, executor);
+			if (existing != null) {
+				executor = existing;
+			}
+		}
+		executor.execute(callback);
+	}
+
+	private static boolean isReadable(Channel channel) {
+		return channel.isReadable() || ReadSuspension.isSuspended(channel);
+	}
+
 	@Override
-	public void messageReceived(final ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
 		// call super to reset the read timeout
 		super.messageReceived(ctx, e);
 		IN_IO_THREAD.set(Boolean.TRUE);
 
+		if (!dispatchCallbacks) {
+			handleMessage(ctx, e);
+			return;
+		}
+
+		dispatch(ctx, new Runnable() {
+			public void run() {
+				try {
+					handleMessage(ctx, e);
+				} catch (Throwable t) {
+					try {
+						handleException(ctx, new DefaultExceptionEvent(ctx.getChannel(), t));
+					} catch (Throwable ignore) {
+						Debug.warn("handleException", ignore);
+					}
+				}
+			}
+		});
+	}
+
+	private void handleMessage(final ChannelHandlerContext ctx, MessageEvent e) throws Exception {
 		if (ctx.getAttachment() instanceof DiscardEvent) {
 			return;
 		} else if (ctx.getAttachment() instanceof AsyncCallable) {
@@ -1060,7 +1582,10 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 				AsyncCallable ac = (AsyncCallable) ctx.getAttachment();
 				ac.call();
 			}
-			ctx.setAttachment(new DiscardEvent());
+			// A pipelined channel moves on to the next response.
+			if (!(ctx.getAttachment() instanceof NettyResponseFuture<?>)) {
+				ctx.setAttachment(new DiscardEvent());
+			}
 			return;
 		} else if (!(ctx.getAttachment() instanceof NettyResponseFuture<?>)) {
 			try {
@@ -1167,7 +1692,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 	private void drainChannel(final ChannelHandlerContext ctx, final NettyResponseFuture<?> future, final boolean keepAlive, final URI uri) {
 		ctx.setAttachment(new AsyncCallable(future) {
 			public Object call() throws Exception {
-				if (keepAlive && ctx.getChannel().isReadable() && connectionsPool.offer(AsyncHttpProviderUtils.getBaseUrl(uri), ctx.getChannel())) {
+				if (keepAlive && isReadable(ctx.getChannel()) && offerToPool(ctx, AsyncHttpProviderUtils.getBaseUrl(uri))) {
 					return null;
 				}
 
@@ -1182,6 +1707,78 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		});
 	}
 
+	/**
+	 * Gives the channel back once a response is complete : a pipelined channel goes on with the next response, any other goes to the pool.
+	 */
+	private boolean offerToPool(final ChannelHandlerContext ctx, String baseUrl) {
+		// a handler may have paused the response it no longer reads.
+		ReadSuspension.resume(ctx.getChannel(), ReadSuspension.HANDLER);
+		NettyRequestPipeline pipeline = channelPipelines.get(ctx.getChannel());
+		if (pipeline != null) {
+			if (pipeline.isBroken()) {
+				return false;
+			}
+
+			NettyResponseFuture<?> next = pipeline.next();
+			if (next != null) {
+				ctx.setAttachment(next);
+				return true;
+			}
+			channelPipelines.remove(ctx.getChannel());
+			pipelines.remove(pipeline.getBaseUrl(), pipeline);
+		}
+		return connectionsPool.offer(baseUrl, ctx.getChannel());
+	}
+
+	/**
+	 * Stops sending requests on a pipelined channel and replays on other connections those which did not get their response.
+	 */
+	private void breakPipeline(Channel channel) {
+		if (channel == null) {
+			return;
+		}
+		NettyRequestPipeline pipeline = channelPipelines.get(channel);
+		if (pipeline == null || pipeline.isBroken()) {
+			return;
+		}
+
+		pipelines.remove(pipeline.getBaseUrl(), pipeline);
+		for (NettyResponseFuture<?> future : pipeline.breakUp()) {
+			if (future.isDone() || future.isCancelled()) {
+				continue;
+			}
+
+			future.attachChannel(null, false);
+			if (!future.canRetry()) {
+				future.abort(new IOException("Remotely Closed " + channel));
+				continue;
+			}
+
+			// Only idempotent requests are pipelined, sending them again is safe.
+			future.setState(NettyResponseFuture.STATE.RECONNECTED);
+			try {
+				nextRequest(future.getRequest(), future);
+			} catch (IOException iox) {
+				future.setState(NettyResponseFuture.STATE.CLOSED);
+				future.abort(iox);
+			}
+		}
+	}
+
+	private boolean canPipeline(NettyResponseFuture<?> future) throws MalformedURLException {
+		if (!pipelining || isWebSocket(future.getURI())) {
+			return false;
+		}
+
+		String method = future.getNettyRequest().getMethod().getName();
+		if (!method.equals(Method.GET.getName()) && !method.equals(Method.HEAD.getName())) {
+			return false;
+		}
+
+		Request request = future.getRequest();
+		return request.getBodyGenerator() == null && request.getFile() == null && future.getNettyRequest().getContent().readableBytes() == 0;
+	}
+
 	private FilterContext handleIoException(FilterContext fc, NettyResponseFuture<?> future) {
 		for (IOExceptionFilter asyncFilter : config.getIOExceptionFilters()) {
 			try {
@@ -1198,6 +1795,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 	private void replayRequest(final NettyResponseFuture<?> future, FilterContext fc, HttpResponse response, ChannelHandlerContext ctx) throws IOException {
 		final Request newRequest = fc.getRequest();
+		breakPipeline(ctx.getChannel());
 		future.setAsyncHandler(fc.getAsyncHandler());
 		future.setState(NettyResponseFuture.STATE.NEW);
 		future.touch();
@@ -1227,6 +1825,10 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 	private void abort(NettyResponseFuture<?> future, Throwable t) {
 		Channel channel = future.channel();
+		NettyRequestPipeline pipeline = channel != null ? channelPipelines.get(channel) : null;
+		if (pipeline != null) {
+			pipeline.remove(future);
+		}
 		if (channel != null && openChannels.contains(channel)) {
 			closeChannel(channel.getPipeline().getContext(NettyProvider.class));
 			openChannels.remove(channel);
@@ -1235,7 +1837,8 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		future.abort(t);
 	}
 
-	private void upgradeProtocol(ChannelPipeline p, String scheme) throws IOException, GeneralSecurityException {
+	private void upgradeProtocol(ChannelPipeline p, URI uri) throws IOException, GeneralSecurityException {
+		String scheme = uri.getScheme();
 		if (p.get(HTTP_HANDLER) != null) {
 			p.remove(HTTP_HANDLER);
 		}
@@ -1243,7 +1846,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		if (isSecure(scheme)) {
 			if (p.get(SSL_HANDLER) == null) {
 				p.addFirst(HTTP_HANDLER, new HttpClientCodec());
-				p.addFirst(SSL_HANDLER, new SslHandler(createSSLEngine()));
+				p.addFirst(SSL_HANDLER, new SslHandler(createSSLEngine(uri)));
 			} else {
 				p.addAfter(SSL_HANDLER, HTTP_HANDLER, new HttpClientCodec());
 			}
@@ -1253,13 +1856,38 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		}
 	}
 
-	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+	public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+		if (!dispatchCallbacks) {
+			try {
+				handleChannelClosed(ctx, e);
+			} finally {
+				ReadSuspension.forget(ctx.getChannel());
+			}
+			return;
+		}
+
+		dispatch(ctx, new Runnable() {
+			public void run() {
+				try {
+					handleChannelClosed(ctx, e);
+				} catch (Throwable t) {
+					Debug.warn("channelClosed", t);
+				} finally {
+					callbackExecutors.remove(ctx.getChannel());
+					ReadSuspension.forget(ctx.getChannel());
+				}
+			}
+		});
+	}
 
+	private void handleChannelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
 		if (isClose.get()) {
 			return;
 		}
 
 		connectionsPool.removeAll(ctx.getChannel());
+		breakPipeline(ctx.getChannel());
+		channelPipelines.remove(ctx.getChannel());
 		try {
 			super.channelClosed(ctx, e);
 		} catch (Exception ex) {
@@ -1337,7 +1965,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 			t.printStackTrace() ;
 		}
 
-		if (!future.getKeepAlive() || !ctx.getChannel().isReadable()) {
+		if (!future.getKeepAlive() || !isReadable(ctx.getChannel())) {
 			closeChannel(ctx);
 		}
 	}
@@ -1346,7 +1974,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		if (lastValidChunk && future.getKeepAlive()) {
 			drainChannel(ctx, future, future.getKeepAlive(), future.getURI());
 		} else {
-			if (future.getKeepAlive() && ctx.getChannel().isReadable() && connectionsPool.offer(AsyncHttpProviderUtils.getBaseUrl(future.getURI()), ctx.getChannel())) {
+			if (future.getKeepAlive() && isReadable(ctx.getChannel()) && offerToPool(ctx, AsyncHttpProviderUtils.getBaseUrl(future.getURI()))) {
 				markAsDone(future, ctx);
 				return;
 			}
@@ -1356,19 +1984,31 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 	}
 
 	private final boolean updateStatusAndInterrupt(AsyncHandler<?> handler, HttpResponseStatus c) throws Exception {
-		return handler.onStatusReceived(c) != STATE.CONTINUE;
+		return interrupts(handler.onStatusReceived(c));
 	}
 
-	private final boolean updateHeadersAndInterrupt(AsyncHandler<?> handler, HttpResponseHeaders c) throws Exception {
-		return handler.onHeadersReceived(c) != STATE.CONTINUE;
+	private final boolean updateHeadersAndInterrupt(final NettyResponseFuture<?> future, AsyncHandler<?> handler, Channel channel, HttpResponseHeaders c) throws Exception {
+		if (c instanceof ResponseHeaders) {
+			((ResponseHeaders) c).setReadControl(new ChannelReadControl(channel, future));
+		}
+		return interrupts(handler.onHeadersReceived(c));
 	}
 
-	private final boolean updateBodyAndInterrupt(final NettyResponseFuture<?> future, AsyncHandler<?> handler, HttpResponseBodyPart c) throws Exception {
-		boolean state = handler.onBodyPartReceived(c) != STATE.CONTINUE;
+	private final boolean updateBodyAndInterrupt(final NettyResponseFuture<?> future, AsyncHandler<?> handler, Channel channel, ResponseBodyPart c) throws Exception {
+		ChannelReadControl readControl = new ChannelReadControl(channel, future);
+		c.setReadControl(readControl);
+		STATE state = handler.onBodyPartReceived(c);
+		if (state == STATE.PAUSE) {
+			readControl.pause();
+		}
 		if (c.closeUnderlyingConnection()) {
 			future.setKeepAlive(false);
 		}
-		return state;
+		return interrupts(state);
+	}
+
+	private final static boolean interrupts(STATE state) {
+		return state != STATE.CONTINUE && state != STATE.PAUSE;
 	}
 
 	// Simple marker for stopping publishing bytes.
@@ -1377,7 +2017,24 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 	}
 
 	@Override
-	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+	public void exceptionCaught(final ChannelHandlerContext ctx, final ExceptionEvent e) throws Exception {
+		if (!dispatchCallbacks) {
+			handleException(ctx, e);
+			return;
+		}
+
+		dispatch(ctx, new Runnable() {
+			public void run() {
+				try {
+					handleException(ctx, e);
+				} catch (Throwable t) {
+					Debug.warn("exceptionCaught", t);
+				}
+			}
+		});
+	}
+
+	private void handleException(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
 		Channel channel = e.getChannel();
 		Throwable cause = e.getCause();
 		NettyResponseFuture<?> future = null;
@@ -1599,85 +2256,49 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 		}
 	}
 
+	private void scheduleTimeout(NettyResponseFuture<?> future, long delay) {
+		future.setTimeout(nettyTimer.newTimeout(new TimeoutTask(future), Math.max(delay, 0), TimeUnit.MILLISECONDS));
+	}
+
 	/**
-	 * Because some implementation of the ThreadSchedulingService do not clean up cancel task until they try to run them, we wrap the task with the future so the when the NettyResponseFuture cancel the reaper future this wrapper will release the references to the channel and the nettyResponseFuture immediately. Otherwise, the memory referenced this way will only be released after the request
-	 * timeout period which can be arbitrary long.
+	 * One shot check of the request and idle timeouts of a {@link NettyResponseFuture} on the shared {@link HashedWheelTimer}. If the future has been touched since the task was scheduled, the task is scheduled again for the time left instead of firing at a fixed rate.
 	 */
-	private final class ReaperFuture implements Future, Runnable {
-		private Future scheduledFuture;
-		private NettyResponseFuture<?> nettyResponseFuture;
+	private final class TimeoutTask implements TimerTask {
+		private final NettyResponseFuture<?> nettyResponseFuture;
 
-		public ReaperFuture(NettyResponseFuture<?> nettyResponseFuture) {
+		public TimeoutTask(NettyResponseFuture<?> nettyResponseFuture) {
 			this.nettyResponseFuture = nettyResponseFuture;
 		}
 
-		public void setScheduledFuture(Future scheduledFuture) {
-			this.scheduledFuture = scheduledFuture;
-		}
-
-		/**
-		 * @Override
-		 */
-		public boolean cancel(boolean mayInterruptIfRunning) {
-			nettyResponseFuture = null;
-			return scheduledFuture.cancel(mayInterruptIfRunning);
-		}
-
-		/**
-		 * @Override
-		 */
-		public Object get() throws InterruptedException, ExecutionException {
-			return scheduledFuture.get();
-		}
-
-		/**
-		 * @Override
-		 */
-		public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-			return scheduledFuture.get(timeout, unit);
-		}
-
-		/**
-		 * @Override
-		 */
-		public boolean isCancelled() {
-			return scheduledFuture.isCancelled();
-		}
-
-		/**
-		 * @Override
-		 */
-		public boolean isDone() {
-			return scheduledFuture.isDone();
-		}
-
-		/**
-		 * @Override
-		 */
-		public synchronized void run() {
-			if (isClose.get()) {
-				cancel(true);
+		public void run(Timeout timeout) {
+			if (isClose.get() || timeout.isCancelled() || nettyResponseFuture.isDone() || nettyResponseFuture.isCancelled()) {
 				return;
 			}
 
-			if (nettyResponseFuture != null && nettyResponseFuture.hasExpired() && !nettyResponseFuture.isDone() && !nettyResponseFuture.isCancelled()) {
-				int requestTimeout = config.getRequestTimeoutInMs();
-				PerRequestConfig p = nettyResponseFuture.getRequest().getPerRequestConfig();
-				if (p != null && p.getRequestTimeoutInMs() != -1) {
-					requestTimeout = p.getRequestTimeoutInMs();
+			long remaining = nettyResponseFuture.timeUntilExpiry();
+			if (remaining > 0) {
+				try {
+					scheduleTimeout(nettyResponseFuture, remaining);
+				} catch (IllegalStateException ignore) {
+					// closed meanwhile.
 				}
-
-				abort(nettyResponseFuture, new TimeoutException(String.format("No response received after %s", requestTimeout)));
-
-				nettyResponseFuture = null;
+				return;
 			}
 
-			if (nettyResponseFuture == null || nettyResponseFuture.isDone() || nettyResponseFuture.isCancelled()) {
-				cancel(true);
+			int requestTimeout = config.getRequestTimeoutInMs();
+			PerRequestConfig p = nettyResponseFuture.getRequest().getPerRequestConfig();
+			if (p != null && p.getRequestTimeoutInMs() != -1) {
+				requestTimeout = p.getRequestTimeoutInMs();
 			}
+
+			abort(nettyResponseFuture, new TimeoutException(String.format("No response received after %s", requestTimeout)));
 		}
 	}
 
+	Timer getTimer() {
+		return nettyTimer;
+	}
+
 	private abstract class AsyncCallable implements Callable<Object> {
 
 		private final NettyResponseFuture<?> future;
@@ -1860,7 +2481,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 					AsyncCallable ac = new AsyncCallable(future) {
 						public Object call() throws Exception {
-							if (initialConnectionKeepAlive && ctx.getChannel().isReadable() && connectionsPool.offer(AsyncHttpProviderUtils.getBaseUrl(initialConnectionUri), ctx.getChannel())) {
+							if (initialConnectionKeepAlive && isReadable(ctx.getChannel()) && offerToPool(ctx, AsyncHttpProviderUtils.getBaseUrl(initialConnectionUri))) {
 								return null;
 							}
 							finishChannel(ctx);
@@ -1951,6 +2572,8 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 					if (statusCode == 401 && wwwAuth.size() > 0 && !future.getAndSetAuth(true)) {
 
+						// the channel is drained then reused for the challenge, the requests queued behind go elsewhere.
+						breakPipeline(ctx.getChannel());
 						future.setState(NettyResponseFuture.STATE.NEW);
 						// NTLM
 						if (!wwwAuth.contains("Kerberos") && (wwwAuth.contains("NTLM") || (wwwAuth.contains("Negotiate")))) {
@@ -2026,7 +2649,7 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 						}
 
 						try {
-							upgradeProtocol(ctx.getChannel().getPipeline(), URI.create(request.getUrl()).getScheme());
+							upgradeProtocol(ctx.getChannel().getPipeline(), URI.create(request.getUrl()));
 						} catch (Throwable ex) {
 							abort(future, ex);
 						}
@@ -2043,19 +2666,19 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 					if (!future.getAndSetStatusReceived(true) && updateStatusAndInterrupt(handler, status)) {
 						finishUpdate(future, ctx, response.isChunked());
 						return;
-					} else if (updateHeadersAndInterrupt(handler, responseHeaders)) {
+					} else if (updateHeadersAndInterrupt(future, handler, ctx.getChannel(), responseHeaders)) {
 						finishUpdate(future, ctx, response.isChunked());
 						return;
 					} else if (!response.isChunked()) {
 						if (response.getContent().readableBytes() != 0) {
-							updateBodyAndInterrupt(future, handler, new ResponseBodyPart(future.getURI(), response, NettyProvider.this, true));
+							updateBodyAndInterrupt(future, handler, ctx.getChannel(), new ResponseBodyPart(future.getURI(), response, NettyProvider.this, true));
 						}
 						finishUpdate(future, ctx, false);
 						return;
 					}
 
 					if (nettyRequest.getMethod().getName().equals(Method.HEAD.getName())) {
-						updateBodyAndInterrupt(future, handler, new ResponseBodyPart(future.getURI(), response, NettyProvider.this, true));
+						updateBodyAndInterrupt(future, handler, ctx.getChannel(), new ResponseBodyPart(future.getURI(), response, NettyProvider.this, true));
 						markAsDone(future, ctx);
 						drainChannel(ctx, future, future.getKeepAlive(), future.getURI());
 					}
@@ -2064,9 +2687,9 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 					HttpChunk chunk = (HttpChunk) e.getMessage();
 
 					if (handler != null) {
-						if (chunk.isLast() || updateBodyAndInterrupt(future, handler, new ResponseBodyPart(future.getURI(), null, NettyProvider.this, chunk, chunk.isLast()))) {
+						if (chunk.isLast() || updateBodyAndInterrupt(future, handler, ctx.getChannel(), new ResponseBodyPart(future.getURI(), null, NettyProvider.this, chunk, chunk.isLast()))) {
 							if (chunk instanceof DefaultHttpChunkTrailer) {
-								updateHeadersAndInterrupt(handler, new ResponseHeaders(future.getURI(), future.getHttpResponse(), NettyProvider.this, (HttpChunkTrailer) chunk));
+								updateHeadersAndInterrupt(future, handler, ctx.getChannel(), new ResponseHeaders(future.getURI(), future.getHttpResponse(), NettyProvider.this, (HttpChunkTrailer) chunk));
 							}
 							finishUpdate(future, ctx, !chunk.isLast());
 						}
@@ -2164,51 +2787,45 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 					throw new IOException(String.format("Invalid challenge. Actual: %s. Expected: %s", accept, key));
 				}
 
-				ctx.getPipeline().replace("ws-decoder", "ws-decoder", new WebSocket08FrameDecoder(false, false));
+				Boolean serverNoContextTakeover = PerMessageDeflate.accept(response.getHeader(PerMessageDeflate.EXTENSIONS_HEADER), h);
+
+				ctx.getPipeline().replace("ws-decoder", "ws-decoder", new WebSocket08FrameDecoder(false, serverNoContextTakeover != null));
 				ctx.getPipeline().replace("ws-encoder", "ws-encoder", new WebSocket08FrameEncoder(true));
+				ctx.getPipeline().addBefore("ws-encoder", "ws-batcher", new WebSocketWriteBatcher(ctx.getChannel().getConfig()));
+				if (serverNoContextTakeover != null) {
+					ctx.getPipeline().addAfter("ws-decoder", "ws-inflater", new WebSocketInflateDecoder(serverNoContextTakeover, h.getMaxInflatedSize()));
+					ctx.getPipeline().addAfter("ws-encoder", "ws-deflater", new WebSocketDeflateEncoder(h.getDeflateLevel(), h.getDeflateThreshold()));
+				}
 				if (h.onHeadersReceived(responseHeaders) == STATE.CONTINUE) {
-					h.onSuccess(new NettyWebSocket(ctx.getChannel()));
+					NettyWebSocket webSocket = new NettyWebSocket(ctx.getChannel(), h.getMaxByteSize(), h.getMaxTextSize());
+					long readIdleTimeout = h.getReadIdleTimeoutInMs() != -1 ? h.getReadIdleTimeoutInMs() : config.getWebSocketIdleTimeoutInMs();
+					WebSocketKeepAlive keepAlive = new WebSocketKeepAlive(webSocket, nettyTimer, config.executorService(), h.getPingIntervalInMs(), h.getPongTimeoutInMs(), readIdleTimeout, h.getWriteIdleTimeoutInMs());
+					webSocket.setKeepAlive(keepAlive);
+					h.onSuccess(webSocket);
+					keepAlive.start();
 				}
 				future.done(null);
 			} else if (e.getMessage() instanceof WebSocketFrame) {
 				final WebSocketFrame frame = (WebSocketFrame) e.getMessage();
+				if (frame.getBinaryData() == null) {
+					return;
+				}
 
-				HttpChunk webSocketChunk = new HttpChunk() {
-					private ChannelBuffer content;
-
-					// @Override
-					public boolean isLast() {
-						return false;
-					}
-
-					// @Override
-					public ChannelBuffer getContent() {
-						return content;
-					}
-
-					// @Override
-					public void setContent(ChannelBuffer content) {
-						this.content = content;
-					}
-				};
-
-				if (frame.getBinaryData() != null) {
-					webSocketChunk.setContent(ChannelBuffers.wrappedBuffer(frame.getBinaryData()));
-					ResponseBodyPart rp = new ResponseBodyPart(future.getURI(), null, NettyProvider.this, webSocketChunk, true);
-					h.onBodyPartReceived(rp);
-
-					NettyWebSocket webSocket = NettyWebSocket.class.cast(h.onCompleted());
-					webSocket.onMessage(rp.getBodyPartBytes());
-					webSocket.onTextMessage(frame.getBinaryData().toString(UTF8));
-
-					if (CloseWebSocketFrame.class.isAssignableFrom(frame.getClass())) {
-						try {
-							webSocket.onClose(CloseWebSocketFrame.class.cast(frame).getStatusCode(), CloseWebSocketFrame.class.cast(frame).getReasonText());
-						} catch (Throwable t) {
-							// Swallow any exception that may comes from a Netty version released before 3.4.0
-							Debug.warn("", t);
-						}
+				NettyWebSocket webSocket = NettyWebSocket.class.cast(h.onCompleted());
+				webSocket.onRead();
+				if (frame instanceof CloseWebSocketFrame) {
+					try {
+						webSocket.onClose(CloseWebSocketFrame.class.cast(frame).getStatusCode(), CloseWebSocketFrame.class.cast(frame).getReasonText());
+					} catch (Throwable t) {
+						// Swallow any exception that may comes from a Netty version released before 3.4.0
+						Debug.warn("", t);
 					}
+				} else if (frame instanceof PingWebSocketFrame) {
+					webSocket.onPing(frame.getBinaryData());
+				} else if (frame instanceof PongWebSocketFrame) {
+					webSocket.onPong(frame.getBinaryData());
+				} else {
+					webSocket.onDataFrame(frame);
 				}
 			} else {
 				Debug.error("Invalid attachment {}", ctx.getAttachment());
@@ -2227,7 +2844,11 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 				NettyWebSocket webSocket = NettyWebSocket.class.cast(h.onCompleted());
 				webSocket.onError(e.getCause());
-				webSocket.close();
+				if (e.getCause() instanceof TooLongFrameException) {
+					webSocket.close(1009, e.getCause().getMessage());
+				} else {
+					webSocket.close();
+				}
 			} catch (Throwable ex) {
 				ex.printStackTrace() ;
 			}
@@ -2235,6 +2856,15 @@ public class NettyProvider extends SimpleChannelUpstreamHandler implements Async
 
 		// @Override
 		public void onClose(ChannelHandlerContext ctx, ChannelStateEvent e) {
+			WebSocketDeflateEncoder deflater = ctx.getPipeline().get(WebSocketDeflateEncoder.class);
+			if (deflater != null) {
+				deflater.end();
+			}
+			WebSocketInflateDecoder inflater = ctx.getPipeline().get(WebSocketInflateDecoder.class);
+			if (inflater != null) {
+				inflater.end();
+			}
+
 			if (ctx.getAttachment() == null || !NettyResponseFuture.class.isAssignableFrom(ctx.getAttachment().getClass())) {
 				return;
 			}
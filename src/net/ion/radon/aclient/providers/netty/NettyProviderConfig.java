@@ -15,6 +15,9 @@ public class NettyProviderConfig implements AsyncHttpProviderConfig<String, Obje
 
 	public final static String USE_DIRECT_BYTEBUFFER = "bufferFactory";
 
+	/**
+	 * Connect without blocking the calling thread (the default). The connect, the SSL handshake, their failure and their timeout are all reported through the returned future. Set to false to wait for the connection in the calling thread.
+	 */
 	public final static String EXECUTE_ASYNC_CONNECT = "asyncConnect";
 
 	public final static String DISABLE_NESTED_REQUEST = "disableNestedRequest";
@@ -23,6 +26,55 @@ public class NettyProviderConfig implements AsyncHttpProviderConfig<String, Obje
 
 	public final static String REUSE_ADDRESS = "reuseAddress";
 
+	/**
+	 * Write GET and HEAD requests without a body back to back on one keep-alive connection per host instead of waiting for each response. Responses are matched to the requests in order. Requests still waiting for their response when the connection fails are sent again on another one. Off by default.
+	 */
+	public final static String HTTP_PIPELINING = "httpPipelining";
+
+	/**
+	 * How many requests may wait behind the one being answered on a pipelined connection.
+	 */
+	public final static String HTTP_PIPELINING_MAX_DEPTH = "httpPipeliningMaxDepth";
+
+	public final static int DEFAULT_HTTP_PIPELINING_MAX_DEPTH = 8;
+
+	/**
+	 * When a host has several addresses, how long to wait for a connect attempt before starting one to the next address in parallel. The first connection established is used, the others are closed.
+	 */
+	public final static String CONNECT_ATTEMPT_DELAY = "connectAttemptDelayInMs";
+
+	public final static int DEFAULT_CONNECT_ATTEMPT_DELAY = 250;
+
+	/**
+	 * Call the {@link net.ion.radon.aclient.AsyncHandler} from the client executor service instead of the I/O threads, so a slow handler does not hold the other channels of
+	 * its I/O thread. The callbacks of a channel still run one at a time and in order. Off by default.
+	 */
+	public final static String DISPATCH_CALLBACKS = "dispatchCallbacks";
+
+	/**
+	 * How many callbacks of a channel may wait for the executor before the channel stops reading.
+	 */
+	public final static String CALLBACK_QUEUE_HIGH_WATER_MARK = "callbackQueueHighWaterMark";
+
+	public final static int DEFAULT_CALLBACK_QUEUE_HIGH_WATER_MARK = 64;
+
+	/**
+	 * How many bytes may wait to be written on a connection before it stops taking more of the request body. Netty's default is 64 KB.
+	 */
+	public final static String WRITE_BUFFER_HIGH_WATER_MARK = "writeBufferHighWaterMark";
+
+	/**
+	 * Once stopped, the request body is read again when that many bytes or less wait to be written. Netty's default is 32 KB.
+	 */
+	public final static String WRITE_BUFFER_LOW_WATER_MARK = "writeBufferLowWaterMark";
+
+	/**
+	 * Size of the chunks a streamed request body is read and written in.
+	 */
+	public final static String WRITE_CHUNK_SIZE = "writeChunkSize";
+
+	public final static int DEFAULT_WRITE_CHUNK_SIZE = 8192;
+
 	private final ConcurrentHashMap<String, Object> properties = new ConcurrentHashMap<String, Object>();
 
 	public NettyProviderConfig() {
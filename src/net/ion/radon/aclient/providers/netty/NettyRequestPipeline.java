@@ -0,0 +1,93 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * The requests written back to back on a keep-alive channel when pipelining is enabled. Responses come back in the order the requests were written : the head is the future the channel is reading a response for, the others are waiting for theirs.
+ */
+final class NettyRequestPipeline {
+
+	private final Channel channel;
+	private final String baseUrl;
+	private final int maxDepth;
+	private final LinkedList<NettyResponseFuture<?>> waiting = new LinkedList<NettyResponseFuture<?>>();
+	private NettyResponseFuture<?> head;
+	private boolean closed = false;
+	private boolean broken = false;
+
+	NettyRequestPipeline(Channel channel, String baseUrl, int maxDepth, NettyResponseFuture<?> head) {
+		this.channel = channel;
+		this.baseUrl = baseUrl;
+		this.maxDepth = maxDepth;
+		this.head = head;
+	}
+
+	Channel getChannel() {
+		return channel;
+	}
+
+	String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * Queues a future behind the ones in flight, false if the pipeline is full or no longer takes requests.
+	 */
+	synchronized boolean offer(NettyResponseFuture<?> future) {
+		if (closed || waiting.size() >= maxDepth) {
+			return false;
+		}
+		waiting.add(future);
+		return true;
+	}
+
+	/**
+	 * Called once the head has its whole response.
+	 *
+	 * @return the future the next response belongs to, or null when nothing is waiting. The pipeline is then closed and the channel can be reused for anything.
+	 */
+	synchronized NettyResponseFuture<?> next() {
+		head = waiting.poll();
+		if (head == null) {
+			closed = true;
+		}
+		return head;
+	}
+
+	/**
+	 * Forgets a future which is being aborted.
+	 */
+	synchronized void remove(NettyResponseFuture<?> future) {
+		if (head == future) {
+			head = null;
+		} else {
+			waiting.remove(future);
+		}
+	}
+
+	/**
+	 * Stops the pipeline, the channel must not be reused since responses may still be on their way.
+	 *
+	 * @return the futures which did not get their response yet, other than the head.
+	 */
+	synchronized List<NettyResponseFuture<?>> breakUp() {
+		closed = true;
+		broken = true;
+		List<NettyResponseFuture<?>> unanswered = new ArrayList<NettyResponseFuture<?>>(waiting);
+		waiting.clear();
+		return unanswered;
+	}
+
+	synchronized boolean isBroken() {
+		return broken;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("NettyRequestPipeline[channel=%s, head=%s, waiting=%s, broken=%s]", channel, head != null, waiting.size(), broken);
+	}
+}
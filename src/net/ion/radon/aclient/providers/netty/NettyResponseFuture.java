@@ -6,7 +6,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -14,13 +13,16 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.ion.framework.util.Debug;
 import net.ion.radon.aclient.AsyncHandler;
+import net.ion.radon.aclient.ReleasableHandler;
 import net.ion.radon.aclient.Request;
 import net.ion.radon.aclient.listenable.AbstractListenableFuture;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.util.Timeout;
 
 public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 
@@ -44,7 +46,7 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 	private HttpResponse httpResponse;
 	private final AtomicReference<ExecutionException> exEx = new AtomicReference<ExecutionException>();
 	private final AtomicInteger redirectCount = new AtomicInteger();
-	private volatile Future<?> reaperFuture;
+	private volatile Timeout timeout;
 	private final AtomicBoolean inAuth = new AtomicBoolean(false);
 	private final AtomicBoolean statusReceived = new AtomicBoolean(false);
 	private final AtomicLong touch = new AtomicLong(System.currentTimeMillis());
@@ -101,7 +103,7 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 	}
 
 	public boolean cancel(boolean force) {
-		cancelReaper();
+		cancelTimeout();
 
 		if (isCancelled.get())
 			return false;
@@ -113,7 +115,11 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 			// Ignore
 		}
 		if (!throwableCalled.getAndSet(true)) {
-			asyncHandler.onThrowable(new CancellationException());
+			try {
+				asyncHandler.onThrowable(new CancellationException());
+			} finally {
+				releaseHandler();
+			}
 		}
 		latch.countDown();
 		isCancelled.set(true);
@@ -122,22 +128,37 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 	}
 
 	public boolean hasExpired() {
+		return timeUntilExpiry() <= 0;
+	}
+
+	/**
+	 * @return the milliseconds left before the idle or the response timeout is reached, {@link Long#MAX_VALUE} when none of them is set.
+	 */
+	long timeUntilExpiry() {
 		long now = System.currentTimeMillis();
-		return idleConnectionTimeoutInMs != -1 && ((now - touch.get()) >= idleConnectionTimeoutInMs) || responseTimeoutInMs != -1 && ((now - start) >= responseTimeoutInMs);
+		long remaining = Long.MAX_VALUE;
+		if (idleConnectionTimeoutInMs != -1) {
+			remaining = Math.min(remaining, idleConnectionTimeoutInMs - (now - touch.get()));
+		}
+		if (responseTimeoutInMs != -1) {
+			remaining = Math.min(remaining, responseTimeoutInMs - (now - start));
+		}
+		return remaining;
 	}
 
 	public V get() throws InterruptedException, ExecutionException {
 		try {
 			return get(responseTimeoutInMs, TimeUnit.MILLISECONDS);
 		} catch (TimeoutException e) {
-			cancelReaper();
+			cancelTimeout();
 			throw new ExecutionException(e);
 		}
 	}
 
-	void cancelReaper() {
-		if (reaperFuture != null) {
-			reaperFuture.cancel(true);
+	void cancelTimeout() {
+		Timeout t = timeout;
+		if (t != null) {
+			t.cancel();
 		}
 	}
 
@@ -157,7 +178,8 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 					try {
 						asyncHandler.onThrowable(te);
 					} finally {
-						cancelReaper();
+						releaseHandler();
+						cancelTimeout();
 						throw new ExecutionException(te);
 					}
 				}
@@ -189,7 +211,8 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 					try {
 						asyncHandler.onThrowable(ex);
 					} finally {
-						cancelReaper();
+						releaseHandler();
+						cancelTimeout();
 						throw new RuntimeException(ex);
 					}
 				}
@@ -201,7 +224,7 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 
 	public final void done(Callable callable) {
 		try {
-			cancelReaper();
+			cancelTimeout();
 
 			if (exEx.get() != null) {
 				return;
@@ -226,7 +249,7 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 	}
 
 	public final void abort(final Throwable t) {
-		cancelReaper();
+		cancelTimeout();
 
 		if (isDone.get() || isCancelled.get())
 			return;
@@ -236,6 +259,7 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 			try {
 				asyncHandler.onThrowable(t);
 			} finally {
+				releaseHandler();
 				isCancelled.set(true);
 			}
 		}
@@ -243,6 +267,16 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 		super.done();
 	}
 
+	private void releaseHandler() {
+		if (asyncHandler instanceof ReleasableHandler) {
+			try {
+				((ReleasableHandler) asyncHandler).releaseResources();
+			} catch (Throwable t) {
+				Debug.warn("releaseResources", t);
+			}
+		}
+	}
+
 	public void content(V v) {
 		content.set(v);
 	}
@@ -283,9 +317,9 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 		return redirectCount.incrementAndGet();
 	}
 
-	protected void setReaperFuture(Future<?> reaperFuture) {
-		cancelReaper();
-		this.reaperFuture = reaperFuture;
+	protected void setTimeout(Timeout timeout) {
+		cancelTimeout();
+		this.timeout = timeout;
 	}
 
 	protected boolean isInAuth() {
@@ -375,7 +409,7 @@ public final class NettyResponseFuture<V> extends AbstractListenableFuture<V> {
 	@Override
 	public String toString() {
 		return "NettyResponseFuture{" + "currentRetry=" + currentRetry + ",\n\tisDone=" + isDone + ",\n\tisCancelled=" + isCancelled + ",\n\tasyncHandler=" + asyncHandler + ",\n\tresponseTimeoutInMs=" + responseTimeoutInMs + ",\n\tnettyRequest=" + nettyRequest + ",\n\tcontent=" + content
-				+ ",\n\turi=" + uri + ",\n\tkeepAlive=" + keepAlive + ",\n\thttpResponse=" + httpResponse + ",\n\texEx=" + exEx + ",\n\tredirectCount=" + redirectCount + ",\n\treaperFuture=" + reaperFuture + ",\n\tinAuth=" + inAuth + ",\n\tstatusReceived=" + statusReceived + ",\n\ttouch=" + touch
+				+ ",\n\turi=" + uri + ",\n\tkeepAlive=" + keepAlive + ",\n\thttpResponse=" + httpResponse + ",\n\texEx=" + exEx + ",\n\tredirectCount=" + redirectCount + ",\n\ttimeout=" + timeout + ",\n\tinAuth=" + inAuth + ",\n\tstatusReceived=" + statusReceived + ",\n\ttouch=" + touch
 				+ '}';
 	}
 
@@ -2,49 +2,155 @@ package net.ion.radon.aclient.providers.netty;
 
 import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
+import net.ion.framework.util.Debug;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.BinaryWebSocketFrame;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.ContinuationWebSocketFrame;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.PingWebSocketFrame;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.PongWebSocketFrame;
 import net.ion.radon.aclient.providers.netty.codec.http.websocketx.TextWebSocketFrame;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocketFrame;
 import net.ion.radon.aclient.websocket.WebSocket;
 import net.ion.radon.aclient.websocket.WebSocketByteListener;
 import net.ion.radon.aclient.websocket.WebSocketCloseCodeReasonListener;
 import net.ion.radon.aclient.websocket.WebSocketListener;
+import net.ion.radon.aclient.websocket.WebSocketPingListener;
+import net.ion.radon.aclient.websocket.WebSocketPongListener;
 import net.ion.radon.aclient.websocket.WebSocketTextListener;
+import net.ion.radon.aclient.websocket.WebSocketWritabilityListener;
+import net.ion.radon.aclient.websocket.WebSocketWriteFuture;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
 
 public class NettyWebSocket implements WebSocket {
 	private final Channel channel;
-	private final ConcurrentLinkedQueue<WebSocketListener> listeners = new ConcurrentLinkedQueue<WebSocketListener>();
-	private ChannelFuture future;
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	// sorted by type when they change, a message only goes through the listeners which want it.
+	private volatile Listeners listeners = new Listeners(new ArrayList<WebSocketListener>());
+	// not this, the channel may be closing on the I/O thread while a write holds this.
+	private final Object listenersLock = new Object();
+	// the last write, the writes before it are done once it is.
+	private volatile ChannelFuture lastWrite;
+	private final WebSocketWriteBatcher batcher;
+	private volatile WebSocketKeepAlive keepAlive;
+
+	private final static int NOT_STREAMING = 0;
+	private final static int STREAMING_BINARY = 1;
+	private final static int STREAMING_TEXT = 2;
+	// the fragmented message being sent, guarded by this.
+	private int streaming = NOT_STREAMING;
+
+	private final long maxByteSize;
+	private final long maxTextSize;
+	// the fragmented message being received.
+	private boolean receivingFragments = false;
+	private boolean receivingText = false;
+	private ChannelBuffer aggregated;
+	private byte[] textCarry;
 
 	public NettyWebSocket(Channel channel) {
+		this(channel, Long.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxByteSize up to how many bytes a fragmented binary message is aggregated for {@link WebSocketByteListener#onMessage(byte[])}, bigger ones only go
+	 *            to {@link WebSocketByteListener#onFragment(byte[], boolean)} and the listeners are told with onError.
+	 * @param maxTextSize the same for text messages, in bytes of UTF-8.
+	 */
+	public NettyWebSocket(Channel channel, long maxByteSize, long maxTextSize) {
 		this.channel = channel;
+		this.maxByteSize = maxByteSize;
+		this.maxTextSize = maxTextSize;
+		this.batcher = channel.getPipeline().get(WebSocketWriteBatcher.class);
+		if (batcher != null) {
+			batcher.setWebSocket(this);
+		}
+	}
+
+	public WebSocketWriteFuture stream(byte[] fragment, boolean last) {
+		return stream(fragment, 0, fragment.length, last);
 	}
 
-	public WebSocket stream(byte[] fragment, boolean last) {
-		throw new UnsupportedOperationException("Streaming currently not supported.");
+	/**
+	 * Sends a fragment of a binary message as a frame of its own, the message ends with the fragment sent with last set.
+	 */
+	public WebSocketWriteFuture stream(byte[] fragment, int offset, int len, boolean last) {
+		WebSocketWriteFuture future;
+		synchronized (this) {
+			if (streaming == STREAMING_TEXT) {
+				throw new IllegalStateException("a text message is being streamed");
+			}
+			WebSocketFrame frame;
+			if (streaming == NOT_STREAMING) {
+				frame = new BinaryWebSocketFrame(last, 0, wrappedBuffer(fragment, offset, len));
+			} else {
+				frame = new ContinuationWebSocketFrame(last, 0, wrappedBuffer(fragment, offset, len));
+			}
+			streaming = last ? NOT_STREAMING : STREAMING_BINARY;
+			future = write(frame);
+		}
+		announceWritability();
+		return future;
 	}
 
-	public WebSocket stream(byte[] fragment, int offset, int len, boolean last) {
-		throw new UnsupportedOperationException("Streaming currently not supported.");
+	public WebSocketWriteFuture sendMessage(byte[] message) {
+		WebSocketWriteFuture future;
+		synchronized (this) {
+			checkNotStreaming();
+			future = write(new BinaryWebSocketFrame(wrappedBuffer(message)));
+		}
+		announceWritability();
+		return future;
 	}
 
-	public WebSocket sendMessage(byte[] message) {
-		this.future = channel.write(new BinaryWebSocketFrame(wrappedBuffer(message)));
-		return this;
+	public WebSocketWriteFuture sendTextMessage(String message) {
+		WebSocketWriteFuture future;
+		synchronized (this) {
+			checkNotStreaming();
+			future = write(new TextWebSocketFrame(message));
+		}
+		announceWritability();
+		return future;
 	}
 
-	public WebSocket sendTextMessage(String message) {
-		this.future = channel.write(new TextWebSocketFrame(message));
-		return this;
+	private synchronized WebSocketWriteFuture write(WebSocketFrame frame) {
+		WebSocketKeepAlive k = keepAlive;
+		if (k != null && !(frame instanceof PingWebSocketFrame || frame instanceof PongWebSocketFrame)) {
+			k.onWrite();
+		}
+		ChannelFuture future = channel.write(frame);
+		lastWrite = future;
+		return new NettyWebSocketWriteFuture(future);
+	}
+
+	/**
+	 * The writability changes made while this thread held the monitor are told once it is released, a listener may send from another thread.
+	 */
+	private void announceWritability() {
+		if (batcher != null) {
+			batcher.announceWritability();
+		}
+	}
+
+	private void checkNotStreaming() {
+		if (streaming != NOT_STREAMING) {
+			throw new IllegalStateException("a fragmented message is being streamed");
+		}
 	}
 	
+	/**
+	 * Waits for the messages sent so far to be written.
+	 */
 	public void flush() {
+		ChannelFuture future = lastWrite;
 		if (future == null) return ;
 		
 		try {
@@ -55,27 +161,55 @@ public class NettyWebSocket implements WebSocket {
 	}
 
 
-	public WebSocket streamText(String fragment, boolean last) {
-		throw new UnsupportedOperationException("Streaming currently not supported.");
+	/**
+	 * Sends a fragment of a text message as a frame of its own. A fragment must not end in the middle of a surrogate pair.
+	 */
+	public WebSocketWriteFuture streamText(String fragment, boolean last) {
+		WebSocketWriteFuture future;
+		synchronized (this) {
+			if (streaming == STREAMING_BINARY) {
+				throw new IllegalStateException("a binary message is being streamed");
+			}
+			WebSocketFrame frame;
+			if (streaming == NOT_STREAMING) {
+				frame = new TextWebSocketFrame(last, 0, fragment);
+			} else {
+				frame = new ContinuationWebSocketFrame(last, 0, fragment);
+			}
+			streaming = last ? NOT_STREAMING : STREAMING_TEXT;
+			future = write(frame);
+		}
+		announceWritability();
+		return future;
 	}
 
-	public WebSocket sendPing(byte[] payload) {
-		this.future = channel.write(new PingWebSocketFrame(wrappedBuffer(payload)));
-		return this;
+	public WebSocketWriteFuture sendPing(byte[] payload) {
+		WebSocketWriteFuture future = write(new PingWebSocketFrame(wrappedBuffer(payload)));
+		announceWritability();
+		return future;
 	}
 
-	public WebSocket sendPong(byte[] payload) {
-		this.future = channel.write(new PongWebSocketFrame(wrappedBuffer(payload)));
-		return this;
+	public WebSocketWriteFuture sendPong(byte[] payload) {
+		WebSocketWriteFuture future = write(new PongWebSocketFrame(wrappedBuffer(payload)));
+		announceWritability();
+		return future;
 	}
 
 	public WebSocket addWebSocketListener(WebSocketListener l) {
-		listeners.add(l);
+		synchronized (listenersLock) {
+			List<WebSocketListener> all = listeners.asList();
+			all.add(l);
+			listeners = new Listeners(all);
+		}
 		return this;
 	}
 
 	public WebSocket removeWebSocketListener(WebSocketListener l) {
-		listeners.remove(l);
+		synchronized (listenersLock) {
+			List<WebSocketListener> all = listeners.asList();
+			all.remove(l);
+			listeners = new Listeners(all);
+		}
 		return this;
 	}
 
@@ -83,40 +217,262 @@ public class NettyWebSocket implements WebSocket {
 		return channel.isOpen();
 	}
 
+	public boolean isWritable() {
+		return batcher != null ? batcher.isWritable() : channel.isWritable();
+	}
+
+	public long getOutboundBytes() {
+		return batcher != null ? batcher.getOutboundBytes() : 0;
+	}
+
 	public void close() {
 		flush() ;
 		
 		onClose();
-		listeners.clear();
+		closeChannel();
+	}
+
+	/**
+	 * Closes without waiting for the messages sent so far, the listeners are told the code and reason.
+	 */
+	void close(int code, String reason) {
+		onClose(code, reason);
+		closeChannel();
+	}
+
+	private void closeChannel() {
+		WebSocketKeepAlive k = keepAlive;
+		if (k != null) {
+			k.stop();
+		}
+		synchronized (listenersLock) {
+			listeners = new Listeners(new ArrayList<WebSocketListener>());
+		}
 		channel.close();
 	}
 
-	protected void onMessage(byte[] message) {
-		for (WebSocketListener listener : listeners) {
-			if (WebSocketByteListener.class.isAssignableFrom(listener.getClass())) {
+	void setKeepAlive(WebSocketKeepAlive keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Called for every frame read, before it is handed out.
+	 */
+	void onRead() {
+		WebSocketKeepAlive k = keepAlive;
+		if (k != null) {
+			k.onRead();
+		}
+	}
+
+	/**
+	 * Hands a text, binary or continuation frame to the listeners. The fragments of a message go to onFragment as they arrive, and to onMessage once complete unless the
+	 * message is over the max size.
+	 */
+	void onDataFrame(WebSocketFrame frame) {
+		ChannelBuffer data = frame.getBinaryData();
+		if (frame instanceof ContinuationWebSocketFrame) {
+			if (!receivingFragments) {
+				onError(new IllegalStateException("continuation frame outside of a fragmented message"));
+				return;
+			}
+			onFragment(data, frame.isFinalFragment());
+		} else if (!frame.isFinalFragment()) {
+			receivingFragments = true;
+			receivingText = frame instanceof TextWebSocketFrame;
+			Listeners ls = listeners;
+			if (ls.bytes.length > 0 || ls.texts.length > 0) {
+				aggregated = ChannelBuffers.dynamicBuffer((int) Math.min(data.readableBytes() * 2L, receivingText ? maxTextSize : maxByteSize));
+			}
+			onFragment(data, false);
+		} else {
+			onMessage(data);
+		}
+	}
+
+	private void onFragment(ChannelBuffer data, boolean last) {
+		Listeners ls = listeners;
+		if (ls.bytes.length > 0) {
+			byte[] fragment = new byte[data.readableBytes()];
+			data.getBytes(data.readerIndex(), fragment);
+			for (WebSocketByteListener listener : ls.bytes) {
 				try {
-					WebSocketByteListener.class.cast(listener).onMessage(message);
+					listener.onFragment(fragment, last);
 				} catch (Exception ex) {
 					listener.onError(ex);
 				}
 			}
 		}
-	}
-
-	protected void onTextMessage(String message) {
-		for (WebSocketListener listener : listeners) {
-			if (WebSocketTextListener.class.isAssignableFrom(listener.getClass())) {
+		if (ls.texts.length > 0) {
+			String fragment = decodeFragment(data, last);
+			for (WebSocketTextListener listener : ls.texts) {
 				try {
-					WebSocketTextListener.class.cast(listener).onMessage(message);
+					listener.onFragment(fragment, last);
 				} catch (Exception ex) {
 					listener.onError(ex);
 				}
 			}
 		}
+
+		if (aggregated != null) {
+			long max = receivingText ? maxTextSize : maxByteSize;
+			if (aggregated.readableBytes() + (long) data.readableBytes() > max) {
+				// too big, the listeners only get the fragments.
+				aggregated = null;
+				onTooLong(ls, new TooLongFrameException((receivingText ? "text" : "binary") + " message over " + max + " bytes, only its fragments are delivered"));
+			} else {
+				aggregated.writeBytes(data, data.readerIndex(), data.readableBytes());
+			}
+		}
+
+		if (last) {
+			ChannelBuffer message = aggregated;
+			receivingFragments = false;
+			aggregated = null;
+			textCarry = null;
+			if (message != null) {
+				onMessage(message);
+			}
+		}
+	}
+
+	private void onTooLong(Listeners ls, TooLongFrameException ex) {
+		WebSocketListener[] told = receivingText ? ls.texts : ls.bytes;
+		for (WebSocketListener listener : told) {
+			try {
+				listener.onError(ex);
+			} catch (Throwable ignore) {
+				Debug.warn("WebSocketListener failure", ignore);
+			}
+		}
+	}
+
+	/**
+	 * Decodes a text fragment, keeping for the next one a character cut at the end of this one.
+	 */
+	private String decodeFragment(ChannelBuffer data, boolean last) {
+		int carried = textCarry == null ? 0 : textCarry.length;
+		byte[] bytes = new byte[carried + data.readableBytes()];
+		if (carried > 0) {
+			System.arraycopy(textCarry, 0, bytes, 0, carried);
+		}
+		data.getBytes(data.readerIndex(), bytes, carried, data.readableBytes());
+
+		int complete = last ? bytes.length : completeUtf8Length(bytes);
+		textCarry = null;
+		if (complete < bytes.length) {
+			textCarry = new byte[bytes.length - complete];
+			System.arraycopy(bytes, complete, textCarry, 0, textCarry.length);
+		}
+		return new String(bytes, 0, complete, UTF8);
+	}
+
+	private static int completeUtf8Length(byte[] bytes) {
+		// a character is at most 4 bytes, look for its first byte at the end.
+		for (int i = bytes.length - 1; i >= 0 && i >= bytes.length - 4; i--) {
+			int b = bytes[i] & 0xFF;
+			if (b < 0x80) {
+				return bytes.length;
+			}
+			if (b >= 0xC0) {
+				int size = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+				return i + size <= bytes.length ? bytes.length : i;
+			}
+		}
+		return bytes.length;
+	}
+
+	/**
+	 * Hands an unfragmented message to the listeners, decoding it only in the forms they take.
+	 */
+	void onMessage(ChannelBuffer data) {
+		Listeners ls = listeners;
+		if (ls.bytes.length > 0) {
+			byte[] message = new byte[data.readableBytes()];
+			data.getBytes(data.readerIndex(), message);
+			onMessage(ls, message);
+		}
+		if (ls.texts.length > 0) {
+			onTextMessage(ls, data.toString(UTF8));
+		}
+	}
+
+	protected void onMessage(byte[] message) {
+		onMessage(listeners, message);
+	}
+
+	private void onMessage(Listeners ls, byte[] message) {
+		for (WebSocketByteListener listener : ls.bytes) {
+			try {
+				listener.onMessage(message);
+			} catch (Exception ex) {
+				listener.onError(ex);
+			}
+		}
+	}
+
+	protected void onTextMessage(String message) {
+		onTextMessage(listeners, message);
+	}
+
+	private void onTextMessage(Listeners ls, String message) {
+		for (WebSocketTextListener listener : ls.texts) {
+			try {
+				listener.onMessage(message);
+			} catch (Exception ex) {
+				listener.onError(ex);
+			}
+		}
+	}
+
+	void onPing(ChannelBuffer data) {
+		Listeners ls = listeners;
+		if (ls.pings.length == 0) {
+			return;
+		}
+		byte[] payload = new byte[data.readableBytes()];
+		data.getBytes(data.readerIndex(), payload);
+		for (WebSocketPingListener listener : ls.pings) {
+			try {
+				listener.onPing(payload);
+			} catch (Exception ex) {
+				listener.onError(ex);
+			}
+		}
+	}
+
+	void onPong(ChannelBuffer data) {
+		WebSocketKeepAlive k = keepAlive;
+		if (k != null) {
+			k.onPong();
+		}
+		Listeners ls = listeners;
+		if (ls.pongs.length == 0) {
+			return;
+		}
+		byte[] payload = new byte[data.readableBytes()];
+		data.getBytes(data.readerIndex(), payload);
+		for (WebSocketPongListener listener : ls.pongs) {
+			try {
+				listener.onPong(payload);
+			} catch (Exception ex) {
+				listener.onError(ex);
+			}
+		}
+	}
+
+	void onWritabilityChanged(boolean writable) {
+		for (WebSocketWritabilityListener listener : listeners.writability) {
+			try {
+				listener.onWritabilityChanged(this, writable);
+			} catch (Exception ex) {
+				listener.onError(ex);
+			}
+		}
 	}
 
 	protected void onError(Throwable t) {
-		for (WebSocketListener listener : listeners) {
+		for (WebSocketListener listener : listeners.all) {
 			try {
 				listener.onError(t);
 			} catch (Throwable ignore) {
@@ -131,10 +487,10 @@ public class NettyWebSocket implements WebSocket {
 	}
 
 	protected void onClose(int code, String reason) {
-		for (WebSocketListener listener : listeners) {
+		for (WebSocketListener listener : listeners.all) {
 			try {
-				if (WebSocketCloseCodeReasonListener.class.isAssignableFrom(listener.getClass())) {
-					WebSocketCloseCodeReasonListener.class.cast(listener).onClose(this, code, reason);
+				if (listener instanceof WebSocketCloseCodeReasonListener) {
+					((WebSocketCloseCodeReasonListener) listener).onClose(this, code, reason);
 				}
 				listener.onClose(this);
 			} catch (Throwable t) {
@@ -147,4 +503,52 @@ public class NettyWebSocket implements WebSocket {
 	public String toString() {
 		return "NettyWebSocket{" + "channel=" + channel + '}';
 	}
+
+	private final static class Listeners {
+		final WebSocketListener[] all;
+		final WebSocketByteListener[] bytes;
+		final WebSocketTextListener[] texts;
+		final WebSocketPingListener[] pings;
+		final WebSocketPongListener[] pongs;
+		final WebSocketWritabilityListener[] writability;
+
+		Listeners(List<WebSocketListener> listeners) {
+			List<WebSocketByteListener> bytes = new ArrayList<WebSocketByteListener>();
+			List<WebSocketTextListener> texts = new ArrayList<WebSocketTextListener>();
+			List<WebSocketPingListener> pings = new ArrayList<WebSocketPingListener>();
+			List<WebSocketPongListener> pongs = new ArrayList<WebSocketPongListener>();
+			List<WebSocketWritabilityListener> writability = new ArrayList<WebSocketWritabilityListener>();
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketByteListener) {
+					bytes.add((WebSocketByteListener) listener);
+				}
+				if (listener instanceof WebSocketTextListener) {
+					texts.add((WebSocketTextListener) listener);
+				}
+				if (listener instanceof WebSocketPingListener) {
+					pings.add((WebSocketPingListener) listener);
+				}
+				if (listener instanceof WebSocketPongListener) {
+					pongs.add((WebSocketPongListener) listener);
+				}
+				if (listener instanceof WebSocketWritabilityListener) {
+					writability.add((WebSocketWritabilityListener) listener);
+				}
+			}
+			this.all = listeners.toArray(new WebSocketListener[listeners.size()]);
+			this.bytes = bytes.toArray(new WebSocketByteListener[bytes.size()]);
+			this.texts = texts.toArray(new WebSocketTextListener[texts.size()]);
+			this.pings = pings.toArray(new WebSocketPingListener[pings.size()]);
+			this.pongs = pongs.toArray(new WebSocketPongListener[pongs.size()]);
+			this.writability = writability.toArray(new WebSocketWritabilityListener[writability.size()]);
+		}
+
+		List<WebSocketListener> asList() {
+			List<WebSocketListener> list = new ArrayList<WebSocketListener>(all.length + 1);
+			for (WebSocketListener listener : all) {
+				list.add(listener);
+			}
+			return list;
+		}
+	}
 }
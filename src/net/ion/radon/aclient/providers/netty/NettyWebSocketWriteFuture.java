@@ -0,0 +1,77 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.ion.radon.aclient.websocket.WebSocketWriteFuture;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+final class NettyWebSocketWriteFuture implements WebSocketWriteFuture {
+
+	private final ChannelFuture future;
+
+	NettyWebSocketWriteFuture(ChannelFuture future) {
+		this.future = future;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return future.cancel();
+	}
+
+	public boolean isCancelled() {
+		return future.isCancelled();
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	public boolean isSuccess() {
+		return future.isSuccess();
+	}
+
+	public Throwable getCause() {
+		return future.getCause();
+	}
+
+	public Void get() throws InterruptedException, ExecutionException {
+		future.await();
+		return result();
+	}
+
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!future.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private Void result() throws ExecutionException {
+		if (future.isCancelled()) {
+			throw new CancellationException();
+		}
+		if (!future.isSuccess()) {
+			throw new ExecutionException(future.getCause());
+		}
+		return null;
+	}
+
+	public WebSocketWriteFuture addListener(final Runnable listener, final Executor exec) {
+		future.addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture f) {
+				exec.execute(listener);
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "NettyWebSocketWriteFuture{" + "future=" + future + '}';
+	}
+}
@@ -0,0 +1,62 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.io.IOException;
+
+import net.ion.radon.aclient.websocket.WebSocketUpgradeHandler;
+
+/**
+ * Negotiation of the permessage-deflate WebSocket extension (RFC 7692). Java 6 can't flush a deflate stream without ending it, so every message is compressed on its
+ * own and client_no_context_takeover is always offered. The compression window can't be reduced either, client_max_window_bits is never offered.
+ */
+final class PerMessageDeflate {
+
+	static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+	static final String EXTENSION = "permessage-deflate";
+
+	private PerMessageDeflate() {
+	}
+
+	static String offer(WebSocketUpgradeHandler handler) {
+		StringBuilder offer = new StringBuilder(EXTENSION).append("; client_no_context_takeover");
+		if (handler.isServerNoContextTakeover()) {
+			offer.append("; server_no_context_takeover");
+		}
+		if (handler.getServerMaxWindowBits() < 15) {
+			offer.append("; server_max_window_bits=").append(handler.getServerMaxWindowBits());
+		}
+		return offer.toString();
+	}
+
+	/**
+	 * @return whether the server keeps no compression context between messages, null if it did not accept the extension.
+	 * @throws IOException if the server answered with something which was not offered.
+	 */
+	static Boolean accept(String header, WebSocketUpgradeHandler handler) throws IOException {
+		if (header == null || header.trim().length() == 0) {
+			return null;
+		}
+		if (!handler.isPerMessageDeflate() || header.indexOf(',') != -1) {
+			throw new IOException("Unexpected WebSocket extensions: " + header);
+		}
+
+		String[] params = header.split(";");
+		if (!EXTENSION.equalsIgnoreCase(params[0].trim())) {
+			throw new IOException("Unexpected WebSocket extensions: " + header);
+		}
+		boolean serverNoContextTakeover = false;
+		for (int i = 1; i < params.length; i++) {
+			String param = params[i].trim();
+			int eq = param.indexOf('=');
+			String name = eq == -1 ? param : param.substring(0, eq).trim();
+			if ("server_no_context_takeover".equalsIgnoreCase(name)) {
+				serverNoContextTakeover = true;
+			} else if ("client_no_context_takeover".equalsIgnoreCase(name)) {
+				// every message is compressed on its own anyway.
+			} else if (!"server_max_window_bits".equalsIgnoreCase(name)) {
+				// the inflater takes any window, client_max_window_bits was not offered.
+				throw new IOException("Unexpected permessage-deflate parameter: " + param);
+			}
+		}
+		return serverNoContextTakeover;
+	}
+}
@@ -0,0 +1,91 @@
+package net.ion.radon.aclient.providers.netty;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelLocal;
+
+/**
+ * Reads of a channel can be suspended for several reasons at the same time, they resume once every reason is gone.
+ */
+final class ReadSuspension {
+
+	/**
+	 * Too many callbacks are waiting for the channel callback executor.
+	 */
+	static final int CALLBACK_QUEUE = 1;
+
+	/**
+	 * The AsyncHandler asked for a pause.
+	 */
+	static final int HANDLER = 2;
+
+	private static final ChannelLocal<ReadSuspension> suspensions = new ChannelLocal<ReadSuspension>();
+
+	private int reasons = 0;
+
+	private ReadSuspension() {
+	}
+
+	private static ReadSuspension of(Channel channel) {
+		ReadSuspension suspension = suspensions.get(channel);
+		if (suspension == null) {
+			suspension = new ReadSuspension();
+			ReadSuspension existing = suspensions.setIfAbsent(channel, suspension);
+			if (existing != null) {
+				suspension = existing;
+			}
+		}
+		return suspension;
+	}
+
+	static void suspend(Channel channel, int reason) {
+		ReadSuspension suspension = of(channel);
+		synchronized (suspension) {
+			boolean wasReadable = suspension.reasons == 0;
+			suspension.reasons |= reason;
+			if (wasReadable) {
+				channel.setReadable(false);
+			}
+		}
+	}
+
+	static void resume(Channel channel, int reason) {
+		ReadSuspension suspension = suspensions.get(channel);
+		if (suspension == null) {
+			return;
+		}
+		synchronized (suspension) {
+			boolean wasSuspended = suspension.reasons != 0;
+			suspension.reasons &= ~reason;
+			if (wasSuspended && suspension.reasons == 0) {
+				channel.setReadable(true);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the channel is not readable because we asked for it.
+	 */
+	static boolean isSuspended(Channel channel) {
+		ReadSuspension suspension = suspensions.get(channel);
+		if (suspension == null) {
+			return false;
+		}
+		synchronized (suspension) {
+			return suspension.reasons != 0;
+		}
+	}
+
+	static boolean isSuspended(Channel channel, int reason) {
+		ReadSuspension suspension = suspensions.get(channel);
+		if (suspension == null) {
+			return false;
+		}
+		synchronized (suspension) {
+			return (suspension.reasons & reason) != 0;
+		}
+	}
+
+	static void forget(Channel channel) {
+		suspensions.remove(channel);
+	}
+}
@@ -1,6 +1,5 @@
 package net.ion.radon.aclient.providers.netty;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,8 +9,11 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import net.ion.radon.aclient.AsyncHttpProvider;
 import net.ion.radon.aclient.HttpResponseBodyPart;
+import net.ion.radon.aclient.ResponseReadControl;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 
@@ -27,7 +29,7 @@ public class ResponseBodyPart extends HttpResponseBodyPart {
 	private final AtomicReference<byte[]> bytes = new AtomicReference<byte[]>(null);
 	private final boolean isLast;
 	private boolean closeConnection = false;
-
+	private ResponseReadControl readControl = ResponseReadControl.NONE;
 
 	public ResponseBodyPart(URI uri, HttpResponse response, AsyncHttpProvider provider, boolean last) {
 		this(uri, response, provider, null, last);
@@ -40,6 +42,15 @@ public class ResponseBodyPart extends HttpResponseBodyPart {
 		isLast = last;
 	}
 
+	void setReadControl(ResponseReadControl readControl) {
+		this.readControl = readControl;
+	}
+
+	@Override
+	public ResponseReadControl getReadControl() {
+		return readControl;
+	}
+
 
 	public byte[] getBodyPartBytes() {
 		byte[] bp = bytes.get();
@@ -47,28 +58,35 @@ public class ResponseBodyPart extends HttpResponseBodyPart {
 			return bp;
 		}
 
-		ChannelBuffer b = (chunk != null) ? chunk.getContent() : response.getContent();
+		ChannelBuffer b = content();
 		int available = b.readableBytes();
 
 		final byte[] rb = (available == 0) ? NO_BYTES : new byte[available];
 		b.getBytes(b.readerIndex(), rb, 0, available);
+		bytes.compareAndSet(null, rb);
 		return rb;
 	}
 
+	/**
+	 * A read-only slice of the chunk, with the same lifetime as {@link #getReadOnlyBodyByteBuffer()}.
+	 */
+	public ChannelBuffer getChannelBuffer() {
+		return ChannelBuffers.unmodifiableBuffer(content().slice());
+	}
+
 	@Override
 	public InputStream readBodyPartBytes() {
-		return new ByteArrayInputStream(getBodyPartBytes());
+		return new ChannelBufferInputStream(content().slice());
 	}
 
 	@Override
 	public int length() {
-		ChannelBuffer b = (chunk != null) ? chunk.getContent() : response.getContent();
-		return b.readableBytes();
+		return content().readableBytes();
 	}
 
 	@Override
 	public int writeTo(OutputStream outputStream) throws IOException {
-		ChannelBuffer b = (chunk != null) ? chunk.getContent() : response.getContent();
+		ChannelBuffer b = content();
 		int available = b.readableBytes();
 		if (available > 0) {
 			b.getBytes(b.readerIndex(), outputStream, available);
@@ -81,6 +99,12 @@ public class ResponseBodyPart extends HttpResponseBodyPart {
 		return ByteBuffer.wrap(getBodyPartBytes());
 	}
 
+	@Override
+	public ByteBuffer getReadOnlyBodyByteBuffer() {
+		// only composite buffers get copied.
+		return content().toByteBuffer().asReadOnlyBuffer();
+	}
+
 
 	public boolean isLast() {
 		return isLast;
@@ -96,6 +120,10 @@ public class ResponseBodyPart extends HttpResponseBodyPart {
 		return closeConnection;
 	}
 
+	private ChannelBuffer content() {
+		return (chunk != null) ? chunk.getContent() : response.getContent();
+	}
+
 	protected HttpChunk chunk() {
 		return chunk;
 	}
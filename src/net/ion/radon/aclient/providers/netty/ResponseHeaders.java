@@ -5,6 +5,7 @@ import java.net.URI;
 import net.ion.radon.aclient.AsyncHttpProvider;
 import net.ion.radon.aclient.FluentCaseInsensitiveStringsMap;
 import net.ion.radon.aclient.HttpResponseHeaders;
+import net.ion.radon.aclient.ResponseReadControl;
 
 import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
 import org.jboss.netty.handler.codec.http.HttpResponse;
@@ -17,6 +18,7 @@ public class ResponseHeaders extends HttpResponseHeaders {
 	private final HttpChunkTrailer trailingHeaders;
 	private final HttpResponse response;
 	private final FluentCaseInsensitiveStringsMap headers;
+	private ResponseReadControl readControl = ResponseReadControl.NONE;
 
 	public ResponseHeaders(URI uri, HttpResponse response, AsyncHttpProvider provider) {
 		super(uri, provider, false);
@@ -32,6 +34,15 @@ public class ResponseHeaders extends HttpResponseHeaders {
 		headers = computerHeaders();
 	}
 
+	void setReadControl(ResponseReadControl readControl) {
+		this.readControl = readControl;
+	}
+
+	@Override
+	public ResponseReadControl getReadControl() {
+		return readControl;
+	}
+
 	private FluentCaseInsensitiveStringsMap computerHeaders() {
 		FluentCaseInsensitiveStringsMap h = new FluentCaseInsensitiveStringsMap();
 		for (String s : response.getHeaderNames()) {
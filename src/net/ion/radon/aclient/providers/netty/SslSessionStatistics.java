@@ -0,0 +1,39 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the SSL handshakes done by a {@link NettyProvider}, telling apart the full ones from those which resumed a cached session.
+ */
+public class SslSessionStatistics {
+
+	private final AtomicLong fullHandshakes = new AtomicLong();
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+
+	void handshakeCompleted(boolean resumed) {
+		if (resumed) {
+			resumedHandshakes.incrementAndGet();
+		} else {
+			fullHandshakes.incrementAndGet();
+		}
+	}
+
+	public long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+	public long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+	public double getResumedRatio() {
+		long resumed = resumedHandshakes.get();
+		long total = resumed + fullHandshakes.get();
+		return total == 0 ? 0 : (double) resumed / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SslSessionStatistics[full=%s, resumed=%s]", getFullHandshakes(), getResumedHandshakes());
+	}
+}
@@ -0,0 +1,153 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Pings a WebSocket once nothing was read for a while and closes it when the pong does not come back, or when nothing was read or written for too long.
+ * <p>
+ * Runs on the provider's shared timer with a single one shot task per socket : reads and writes only record the time, the task looks at the times when it fires
+ * and is scheduled again for the next deadline. Closes and pings are handed to the executor, the timer thread only looks at the times.
+ */
+final class WebSocketKeepAlive implements TimerTask {
+
+	// the peer is gone, no close frame was exchanged.
+	private final static int ABNORMAL_CLOSURE = 1006;
+
+	private final NettyWebSocket webSocket;
+	private final Timer timer;
+	private final Executor executor;
+	private final long pingIntervalInMs;
+	private final long pongTimeoutInMs;
+	private final long readIdleTimeoutInMs;
+	private final long writeIdleTimeoutInMs;
+	private volatile long lastReadAt;
+	private volatile long lastWriteAt;
+	// when the ping waiting for its pong was sent, 0 if none is.
+	private volatile long pingSentAt = 0;
+	private volatile Timeout timeout;
+
+	/**
+	 * A value of 0 or less disables the matching check. Without a ping interval, a read idle timeout pings at half of it : only a peer which does not answer is closed.
+	 */
+	WebSocketKeepAlive(NettyWebSocket webSocket, Timer timer, Executor executor, long pingIntervalInMs, long pongTimeoutInMs, long readIdleTimeoutInMs, long writeIdleTimeoutInMs) {
+		this.webSocket = webSocket;
+		this.timer = timer;
+		this.executor = executor;
+		this.pingIntervalInMs = pingIntervalInMs > 0 ? pingIntervalInMs : Math.max(readIdleTimeoutInMs / 2, 0);
+		this.pongTimeoutInMs = pongTimeoutInMs;
+		this.readIdleTimeoutInMs = readIdleTimeoutInMs;
+		this.writeIdleTimeoutInMs = writeIdleTimeoutInMs;
+		long now = System.currentTimeMillis();
+		lastReadAt = now;
+		lastWriteAt = now;
+	}
+
+	void start() {
+		long next = nextDeadline(System.currentTimeMillis());
+		if (next != Long.MAX_VALUE) {
+			schedule(next - System.currentTimeMillis());
+		}
+	}
+
+	void stop() {
+		Timeout t = timeout;
+		if (t != null) {
+			t.cancel();
+		}
+	}
+
+	void onRead() {
+		lastReadAt = System.currentTimeMillis();
+	}
+
+	void onPong() {
+		pingSentAt = 0;
+	}
+
+	void onWrite() {
+		lastWriteAt = System.currentTimeMillis();
+	}
+
+	public void run(Timeout timeout) {
+		if (timeout.isCancelled() || !webSocket.isOpen()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long sentAt = pingSentAt;
+		if (pongTimeoutInMs > 0 && sentAt != 0 && now - sentAt >= pongTimeoutInMs) {
+			close(String.format("No pong received after %s ms", pongTimeoutInMs));
+			return;
+		}
+		if (readIdleTimeoutInMs > 0 && now - lastReadAt >= readIdleTimeoutInMs) {
+			close(String.format("Nothing read for %s ms", readIdleTimeoutInMs));
+			return;
+		}
+		if (writeIdleTimeoutInMs > 0 && now - lastWriteAt >= writeIdleTimeoutInMs) {
+			close(String.format("Nothing written for %s ms", writeIdleTimeoutInMs));
+			return;
+		}
+		if (pingIntervalInMs > 0 && sentAt == 0 && now - lastReadAt >= pingIntervalInMs) {
+			pingSentAt = now;
+			submit(new Runnable() {
+				public void run() {
+					webSocket.sendPing(new byte[0]);
+				}
+			});
+		}
+
+		long next = nextDeadline(now);
+		if (next != Long.MAX_VALUE) {
+			schedule(next - now);
+		}
+	}
+
+	private void close(final String reason) {
+		submit(new Runnable() {
+			public void run() {
+				webSocket.close(ABNORMAL_CLOSURE, reason);
+			}
+		});
+	}
+
+	private void submit(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			// executor rejected the task (client shutting down) : close or ping inline, the other timeouts of the shared timer wait meanwhile.
+			task.run();
+		}
+	}
+
+	private long nextDeadline(long now) {
+		long next = Long.MAX_VALUE;
+		long sentAt = pingSentAt;
+		if (pongTimeoutInMs > 0 && sentAt != 0) {
+			next = Math.min(next, sentAt + pongTimeoutInMs);
+		}
+		if (readIdleTimeoutInMs > 0) {
+			next = Math.min(next, lastReadAt + readIdleTimeoutInMs);
+		}
+		if (writeIdleTimeoutInMs > 0) {
+			next = Math.min(next, lastWriteAt + writeIdleTimeoutInMs);
+		}
+		if (pingIntervalInMs > 0 && sentAt == 0) {
+			next = Math.min(next, lastReadAt + pingIntervalInMs);
+		}
+		return next;
+	}
+
+	private void schedule(long delay) {
+		try {
+			timeout = timer.newTimeout(this, Math.max(delay, 1), TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException ignore) {
+			// the provider is closed.
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+
+/**
+ * Writes the encoded WebSocket frames one batch at a time : the frames sent while a batch is being written are gathered and go to the socket together once it is
+ * done, so a burst of small messages takes a single write instead of one each.
+ * <p>
+ * Also counts the bytes sent and not yet written, the socket stops being writable above the channel high water mark until it drains under the low one. The listeners
+ * are told outside of the locks, a change made while the thread holds the {@link NettyWebSocket} monitor is told once the WebSocket releases it.
+ */
+final class WebSocketWriteBatcher extends SimpleChannelDownstreamHandler {
+
+	private final static int MAX_BATCH_SIZE = 64 * 1024;
+	private final static int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+	private final static int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+
+	private final int highWaterMark;
+	private final int lowWaterMark;
+	private final LinkedList<MessageEvent> pending = new LinkedList<MessageEvent>();
+	// a batch is being written, the thread which completes it writes the next one.
+	private boolean writing = false;
+	private long outboundBytes = 0;
+	private boolean writable = true;
+	// what the listeners were told, and whether a thread is telling them.
+	private boolean announced = true;
+	private boolean announcing = false;
+	private volatile NettyWebSocket webSocket;
+
+	WebSocketWriteBatcher(ChannelConfig config) {
+		if (config instanceof NioSocketChannelConfig) {
+			highWaterMark = ((NioSocketChannelConfig) config).getWriteBufferHighWaterMark();
+			lowWaterMark = ((NioSocketChannelConfig) config).getWriteBufferLowWaterMark();
+		} else {
+			highWaterMark = DEFAULT_HIGH_WATER_MARK;
+			lowWaterMark = DEFAULT_LOW_WATER_MARK;
+		}
+	}
+
+	void setWebSocket(NettyWebSocket webSocket) {
+		this.webSocket = webSocket;
+	}
+
+	synchronized boolean isWritable() {
+		return writable;
+	}
+
+	synchronized long getOutboundBytes() {
+		return outboundBytes;
+	}
+
+	@Override
+	public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+		if (!(e.getMessage() instanceof ChannelBuffer)) {
+			ctx.sendDownstream(e);
+			return;
+		}
+
+		boolean write;
+		synchronized (this) {
+			pending.add(e);
+			outboundBytes += ((ChannelBuffer) e.getMessage()).readableBytes();
+			if (outboundBytes > highWaterMark) {
+				writable = false;
+			}
+			write = !writing;
+			writing = true;
+		}
+
+		announceWritability();
+		if (write) {
+			writeNext(ctx);
+		}
+	}
+
+	/**
+	 * Writes the pending batches, looping as long as they complete right away : a closed channel fails every batch on the spot.
+	 */
+	private void writeNext(final ChannelHandlerContext ctx) {
+		for (;;) {
+			final List<MessageEvent> batch = new ArrayList<MessageEvent>();
+			int size = 0;
+			synchronized (this) {
+				while (!pending.isEmpty() && (batch.isEmpty() || size + readableBytes(pending.getFirst()) <= MAX_BATCH_SIZE)) {
+					MessageEvent e = pending.removeFirst();
+					batch.add(e);
+					size += readableBytes(e);
+				}
+				if (batch.isEmpty()) {
+					writing = false;
+					return;
+				}
+			}
+
+			final int batchSize = size;
+			// set by whichever of the listener and this loop comes second, that one writes the next batch.
+			final AtomicBoolean handedOver = new AtomicBoolean(false);
+			ChannelFuture written = Channels.future(ctx.getChannel());
+			written.addListener(new ChannelFutureListener() {
+				public void operationComplete(ChannelFuture future) {
+					for (MessageEvent e : batch) {
+						if (future.isSuccess()) {
+							e.getFuture().setSuccess();
+						} else {
+							e.getFuture().setFailure(future.getCause());
+						}
+					}
+					written(batchSize);
+					if (!handedOver.compareAndSet(false, true)) {
+						writeNext(ctx);
+					}
+				}
+			});
+
+			if (batch.size() == 1) {
+				Channels.write(ctx, written, batch.get(0).getMessage(), batch.get(0).getRemoteAddress());
+			} else {
+				ChannelBuffer[] buffers = new ChannelBuffer[batch.size()];
+				for (int i = 0; i < buffers.length; i++) {
+					buffers[i] = (ChannelBuffer) batch.get(i).getMessage();
+				}
+				Channels.write(ctx, written, ChannelBuffers.wrappedBuffer(buffers), batch.get(0).getRemoteAddress());
+			}
+
+			if (handedOver.compareAndSet(false, true)) {
+				// still being written, the listener goes on.
+				return;
+			}
+		}
+	}
+
+	private void written(int size) {
+		synchronized (this) {
+			outboundBytes -= size;
+			if (!writable && outboundBytes <= lowWaterMark) {
+				writable = true;
+			}
+		}
+		announceWritability();
+	}
+
+	/**
+	 * Tells the listeners the writability until they are up to date, one thread at a time so they see the changes in order.
+	 */
+	void announceWritability() {
+		NettyWebSocket webSocket = this.webSocket;
+		if (webSocket == null || Thread.holdsLock(webSocket)) {
+			return;
+		}
+		synchronized (this) {
+			if (announcing || announced == writable) {
+				return;
+			}
+			announcing = true;
+		}
+		for (;;) {
+			boolean now;
+			synchronized (this) {
+				if (announced == writable) {
+					announcing = false;
+					return;
+				}
+				now = writable;
+				announced = now;
+			}
+			webSocket.onWritabilityChanged(now);
+		}
+	}
+
+	private static int readableBytes(MessageEvent e) {
+		return ((ChannelBuffer) e.getMessage()).readableBytes();
+	}
+}
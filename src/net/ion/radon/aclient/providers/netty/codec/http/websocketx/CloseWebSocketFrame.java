@@ -44,6 +44,22 @@ public class CloseWebSocketFrame extends WebSocketFrame {
 		setRsv(rsv);
 	}
 
+	/**
+	 * Creates a new close frame with a status code and a reason
+	 * 
+	 * @param statusCode
+	 *            the status code, 1000 for a normal closure
+	 * @param reasonText
+	 *            why the connection is closed, may be empty
+	 */
+	public CloseWebSocketFrame(int statusCode, String reasonText) {
+		byte[] reason = reasonText == null ? new byte[0] : reasonText.getBytes(CharsetUtil.UTF_8);
+		ChannelBuffer binaryData = ChannelBuffers.buffer(2 + reason.length);
+		binaryData.writeShort(statusCode);
+		binaryData.writeBytes(reason);
+		setBinaryData(binaryData);
+	}
+
 	public int getStatusCode() {
 		ChannelBuffer binaryData = this.getBinaryData();
 		if (binaryData == null || binaryData.capacity() == 0) {
@@ -34,6 +34,8 @@
  */
 package net.ion.radon.aclient.providers.netty.codec.http.websocketx;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+
 /**
  * Checks UTF8 bytes for validity before converting it into a string
  */
@@ -61,14 +63,14 @@ final class UTF8Output {
 
     private final StringBuilder stringBuilder;
 
-    UTF8Output(byte[] bytes) {
-        stringBuilder = new StringBuilder(bytes.length);
-        write(bytes);
+    UTF8Output(ChannelBuffer buffer) {
+        stringBuilder = new StringBuilder(buffer.readableBytes());
+        write(buffer);
     }
 
-    public void write(byte[] bytes) {
-        for (byte b : bytes) {
-            write(b);
+    public void write(ChannelBuffer buffer) {
+        for (int i = buffer.readerIndex(); i < buffer.writerIndex(); i++) {
+            write(buffer.getByte(i));
         }
     }
 
@@ -53,22 +53,30 @@
 
 package net.ion.radon.aclient.providers.netty.codec.http.websocketx;
 
+import java.nio.ByteOrder;
+
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
 import org.jboss.netty.handler.codec.frame.TooLongFrameException;
-import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
 import org.jboss.netty.logging.InternalLogger;
 import org.jboss.netty.logging.InternalLoggerFactory;
 
 /**
  * Decodes a web socket frame from wire protocol version 8 format. This code was forked from <a
  * href="https://github.com/joewalnes/webbit">webbit</a> and modified.
+ * <p>
+ * The decoder keeps its progress between reads : a header split across reads is completed in a small buffer and
+ * parsed once, a payload split across reads is copied once into a buffer of the frame length. A payload which is
+ * whole in a read is handed out as a slice of the read buffer, unmasked in place.
  */
-public class WebSocket08FrameDecoder extends ReplayingDecoder<WebSocket08FrameDecoder.State> {
+public class WebSocket08FrameDecoder extends SimpleChannelUpstreamHandler {
 
     private static final InternalLogger logger = InternalLoggerFactory.getInstance(WebSocket08FrameDecoder.class);
 
@@ -79,23 +87,30 @@ public class WebSocket08FrameDecoder extends ReplayingDecoder<WebSocket08FrameDe
     private static final byte OPCODE_PING = 0x9;
     private static final byte OPCODE_PONG = 0xA;
 
+    // 2 bytes, 8 bytes of extended payload length and the masking key.
+    private static final int MAX_HEADER_LENGTH = 14;
+
     private UTF8Output fragmentedFramesText;
     private int fragmentedFramesCount;
+    // the message is compressed by an extension, its UTF-8 can only be checked once inflated.
+    private boolean fragmentedFramesCompressed;
 
+    private final ChannelBuffer header = ChannelBuffers.buffer(MAX_HEADER_LENGTH);
+    private State state = State.FRAME_START;
     private boolean frameFinalFlag;
     private int frameRsv;
     private int frameOpcode;
-    private long framePayloadLength;
+    private boolean frameMasked;
+    private int framePayloadLength;
     private ChannelBuffer framePayload;
-    private int framePayloadBytesRead;
-    private ChannelBuffer maskingKey;
+    private int maskingKey;
 
     private final boolean allowExtensions;
     private final boolean maskedPayload;
     private boolean receivedClosingHandshake;
 
     public enum State {
-        FRAME_START, MASKING_KEY, PAYLOAD, CORRUPT
+        FRAME_START, PAYLOAD, CORRUPT
     }
 
     /**
@@ -108,284 +123,317 @@ public class WebSocket08FrameDecoder extends ReplayingDecoder<WebSocket08FrameDe
      *            Flag to allow reserved extension bits to be used or not
      */
     public WebSocket08FrameDecoder(boolean maskedPayload, boolean allowExtensions) {
-        super(State.FRAME_START);
         this.maskedPayload = maskedPayload;
         this.allowExtensions = allowExtensions;
     }
 
     @Override
-    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer, State state)
-            throws Exception {
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object m = e.getMessage();
+        if (!(m instanceof ChannelBuffer)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+
+        ChannelBuffer input = (ChannelBuffer) m;
+        while (input.readable()) {
+            Object frame = decode(ctx.getChannel(), input);
+            if (frame == null) {
+                break;
+            }
+            Channels.fireMessageReceived(ctx, frame, e.getRemoteAddress());
+        }
+    }
+
+    /**
+     * @return the next frame, or null once the input is used up without completing one.
+     */
+    private Object decode(Channel channel, ChannelBuffer input) throws Exception {
 
         // Discard all data received if closing handshake was received before.
-        if (receivedClosingHandshake) {
-            buffer.skipBytes(actualReadableBytes());
+        if (receivedClosingHandshake || state == State.CORRUPT) {
+            input.skipBytes(input.readableBytes());
             return null;
         }
 
-        switch (state) {
-        case FRAME_START:
-            framePayloadBytesRead = 0;
-            framePayloadLength = -1;
+        if (state == State.FRAME_START) {
+            ChannelBuffer source = input;
+            if (header.readable() || input.readableBytes() < headerLength(input)) {
+                // the header is split across reads, keep what arrived so far
+                if (!fillHeader(input)) {
+                    return null;
+                }
+                source = header;
+            }
+            readHeader(channel, source);
+            header.clear();
+            state = State.PAYLOAD;
+        }
+
+        // state == State.PAYLOAD
+        ChannelBuffer payload;
+        if (framePayload == null && input.readableBytes() >= framePayloadLength) {
+            payload = input.readSlice(framePayloadLength);
+        } else {
+            // Sometimes, the payload may not be delivered in 1 nice packet
+            // We need to accumulate the data until we have it all
+            if (framePayload == null) {
+                framePayload = channel.getConfig().getBufferFactory().getBuffer(framePayloadLength);
+            }
+            framePayload.writeBytes(input, Math.min(framePayload.writableBytes(), input.readableBytes()));
+            if (framePayload.writable()) {
+                return null;
+            }
+            payload = framePayload;
             framePayload = null;
+        }
 
-            // FIN, RSV, OPCODE
-            byte b = buffer.readByte();
-            frameFinalFlag = (b & 0x80) != 0;
-            frameRsv = (b & 0x70) >> 4;
-            frameOpcode = b & 0x0F;
+        // Now we have all the data, the next frame starts
+        state = State.FRAME_START;
 
-            if (logger.isDebugEnabled()) {
-                logger.debug("Decoding WebSocket Frame opCode=" + frameOpcode);
-            }
+        // Unmask data if needed
+        if (frameMasked) {
+            unmask(payload);
+        }
 
-            // MASK, PAYLOAD LEN 1
-            b = buffer.readByte();
-            boolean frameMasked = (b & 0x80) != 0;
-            int framePayloadLen1 = b & 0x7F;
+        // Processing ping/pong/close frames because they cannot be
+        // fragmented
+        if (frameOpcode == OPCODE_PING) {
+            return new PingWebSocketFrame(frameFinalFlag, frameRsv, payload);
+        } else if (frameOpcode == OPCODE_PONG) {
+            return new PongWebSocketFrame(frameFinalFlag, frameRsv, payload);
+        } else if (frameOpcode == OPCODE_CLOSE) {
+            receivedClosingHandshake = true;
+            return new CloseWebSocketFrame(frameFinalFlag, frameRsv);
+        }
 
-            if (frameRsv != 0 && !allowExtensions) {
-                protocolViolation(channel, "RSV != 0 and no extension negotiated, RSV:" + frameRsv);
-                return null;
+        // Processing for possible fragmented messages for text and binary
+        // frames
+        String aggregatedText = null;
+        if (frameOpcode != OPCODE_CONT) {
+            fragmentedFramesCompressed = (frameRsv & 0x4) != 0;
+            fragmentedFramesText = null;
+        }
+        if (fragmentedFramesCompressed) {
+            if (frameFinalFlag) {
+                fragmentedFramesCount = 0;
+            } else {
+                fragmentedFramesCount++;
             }
+        } else if (frameFinalFlag) {
+            // Final frame of the sequence.
+            fragmentedFramesCount = 0;
 
-            if (maskedPayload && !frameMasked) {
-                protocolViolation(channel, "unmasked client to server frame");
-                return null;
-            }
-            if (frameOpcode > 7) { // control frame (have MSB in opcode set)
+            // Check text for UTF8 correctness
+            if (frameOpcode == OPCODE_TEXT || fragmentedFramesText != null) {
+                // Check UTF-8 correctness for this payload
+                checkUTF8String(channel, payload);
 
-                // control frames MUST NOT be fragmented
-                if (!frameFinalFlag) {
-                    protocolViolation(channel, "fragmented control frame");
-                    return null;
-                }
+                // This does a second check to make sure UTF-8
+                // correctness for entire text message
+                aggregatedText = fragmentedFramesText.toString();
 
-                // control frames MUST have payload 125 octets or less
-                if (framePayloadLen1 > 125) {
-                    protocolViolation(channel, "control frame with payload length > 125 octets");
-                    return null;
+                fragmentedFramesText = null;
+            }
+        } else {
+            // Not final frame so we can expect more frames in the
+            // fragmented sequence
+            if (fragmentedFramesCount == 0) {
+                // First text or binary frame for a fragmented set
+                fragmentedFramesText = null;
+                if (frameOpcode == OPCODE_TEXT) {
+                    checkUTF8String(channel, payload);
                 }
-
-                // check for reserved control frame opcodes
-                if (!(frameOpcode == OPCODE_CLOSE || frameOpcode == OPCODE_PING || frameOpcode == OPCODE_PONG)) {
-                    protocolViolation(channel, "control frame using reserved opcode " + frameOpcode);
-                    return null;
+            } else {
+                // Subsequent frames - only check if init frame is text
+                if (fragmentedFramesText != null) {
+                    checkUTF8String(channel, payload);
                 }
+            }
 
-                // close frame : if there is a body, the first two bytes of the
-                // body MUST be a 2-byte unsigned integer (in network byte
-                // order) representing a status code
-                if (frameOpcode == 8 && framePayloadLen1 == 1) {
-                    protocolViolation(channel, "received close control frame with payload len 1");
-                    return null;
-                }
-            } else { // data frame
-                // check for reserved data frame opcodes
-                if (!(frameOpcode == OPCODE_CONT || frameOpcode == OPCODE_TEXT || frameOpcode == OPCODE_BINARY)) {
-                    protocolViolation(channel, "data frame using reserved opcode " + frameOpcode);
-                    return null;
-                }
+            // Increment counter
+            fragmentedFramesCount++;
+        }
 
-                // check opcode vs message fragmentation state 1/2
-                if (fragmentedFramesCount == 0 && frameOpcode == OPCODE_CONT) {
-                    protocolViolation(channel, "received continuation data frame outside fragmented message");
-                    return null;
-                }
+        // Return the frame
+        if (frameOpcode == OPCODE_TEXT) {
+            return new TextWebSocketFrame(frameFinalFlag, frameRsv, payload);
+        } else if (frameOpcode == OPCODE_BINARY) {
+            return new BinaryWebSocketFrame(frameFinalFlag, frameRsv, payload);
+        } else {
+            return new ContinuationWebSocketFrame(frameFinalFlag, frameRsv, payload, aggregatedText);
+        }
+    }
 
-                // check opcode vs message fragmentation state 2/2
-                if (fragmentedFramesCount != 0 && frameOpcode != OPCODE_CONT && frameOpcode != OPCODE_PING) {
-                    protocolViolation(channel, "received non-continuation data frame while inside fragmented message");
-                    return null;
-                }
+    /**
+     * The length of the header starting at the reader index, or 2 when the second byte is not there yet.
+     */
+    private static int headerLength(ChannelBuffer buffer) {
+        if (buffer.readableBytes() < 2) {
+            return 2;
+        }
+        byte b = buffer.getByte(buffer.readerIndex() + 1);
+        int framePayloadLen1 = b & 0x7F;
+        int length = (b & 0x80) != 0 ? 6 : 2;
+        if (framePayloadLen1 == 126) {
+            length += 2;
+        } else if (framePayloadLen1 == 127) {
+            length += 8;
+        }
+        return length;
+    }
+
+    /**
+     * Moves header bytes from the input, true once the header is complete.
+     */
+    private boolean fillHeader(ChannelBuffer input) {
+        for (;;) {
+            int missing = headerLength(header) - header.readableBytes();
+            if (missing == 0) {
+                return true;
             }
+            if (!input.readable()) {
+                return false;
+            }
+            header.writeBytes(input, Math.min(missing, input.readableBytes()));
+        }
+    }
 
-            // Read frame payload length
-            if (framePayloadLen1 == 126) {
-                framePayloadLength = buffer.readUnsignedShort();
-                if (framePayloadLength < 126) {
-                    protocolViolation(channel, "invalid data frame length (not using minimal length encoding)");
-                    return null;
-                }
-            } else if (framePayloadLen1 == 127) {
-                framePayloadLength = buffer.readLong();
-                // TODO: check if it's bigger than 0x7FFFFFFFFFFFFFFF, Maybe
-                // just check if it's negative?
+    private void readHeader(Channel channel, ChannelBuffer buffer) throws Exception {
+        // FIN, RSV, OPCODE
+        byte b = buffer.readByte();
+        frameFinalFlag = (b & 0x80) != 0;
+        frameRsv = (b & 0x70) >> 4;
+        frameOpcode = b & 0x0F;
 
-                if (framePayloadLength < 65536) {
-                    protocolViolation(channel, "invalid data frame length (not using minimal length encoding)");
-                    return null;
-                }
-            } else {
-                framePayloadLength = framePayloadLen1;
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Decoding WebSocket Frame opCode=" + frameOpcode);
+        }
 
-            if (logger.isDebugEnabled()) {
-                logger.debug("Decoding WebSocket Frame length=" + framePayloadLength);
-            }
+        // MASK, PAYLOAD LEN 1
+        b = buffer.readByte();
+        frameMasked = (b & 0x80) != 0;
+        int framePayloadLen1 = b & 0x7F;
 
-            checkpoint(State.MASKING_KEY);
-        case MASKING_KEY:
-            if (maskedPayload) {
-                maskingKey = buffer.readBytes(4);
-            }
-            checkpoint(State.PAYLOAD);
-        case PAYLOAD:
-            // Sometimes, the payload may not be delivered in 1 nice packet
-            // We need to accumulate the data until we have it all
-            int rbytes = actualReadableBytes();
-            ChannelBuffer payloadBuffer = null;
-
-            int willHaveReadByteCount = framePayloadBytesRead + rbytes;
-            // logger.debug("Frame rbytes=" + rbytes + " willHaveReadByteCount="
-            // + willHaveReadByteCount + " framePayloadLength=" +
-            // framePayloadLength);
-            if (willHaveReadByteCount == framePayloadLength) {
-                // We have all our content so proceed to process
-                payloadBuffer = buffer.readBytes(rbytes);
-            } else if (willHaveReadByteCount < framePayloadLength) {
-                // We don't have all our content so accumulate payload.
-                // Returning null means we will get called back
-                payloadBuffer = buffer.readBytes(rbytes);
-                if (framePayload == null) {
-                    framePayload = channel.getConfig().getBufferFactory().getBuffer(toFrameLength(framePayloadLength));
-                }
-                framePayload.writeBytes(payloadBuffer);
-                framePayloadBytesRead += rbytes;
+        if (frameRsv != 0 && !allowExtensions) {
+            protocolViolation(channel, "RSV != 0 and no extension negotiated, RSV:" + frameRsv);
+        }
 
-                // Return null to wait for more bytes to arrive
-                return null;
-            } else if (willHaveReadByteCount > framePayloadLength) {
-                // We have more than what we need so read up to the end of frame
-                // Leave the remainder in the buffer for next frame
-                payloadBuffer = buffer.readBytes(toFrameLength(framePayloadLength - framePayloadBytesRead));
-            }
+        if (maskedPayload && !frameMasked) {
+            protocolViolation(channel, "unmasked client to server frame");
+        }
+        if (frameOpcode > 7) { // control frame (have MSB in opcode set)
 
-            // Now we have all the data, the next checkpoint must be the next
-            // frame
-            checkpoint(State.FRAME_START);
+            // control frames MUST NOT be fragmented
+            if (!frameFinalFlag) {
+                protocolViolation(channel, "fragmented control frame");
+            }
 
-            // Take the data that we have in this packet
-            if (framePayload == null) {
-                framePayload = payloadBuffer;
-            } else {
-                framePayload.writeBytes(payloadBuffer);
+            // control frames MUST have payload 125 octets or less
+            if (framePayloadLen1 > 125) {
+                protocolViolation(channel, "control frame with payload length > 125 octets");
             }
 
-            // Unmask data if needed
-            if (maskedPayload) {
-                unmask(framePayload);
+            // check for reserved control frame opcodes
+            if (!(frameOpcode == OPCODE_CLOSE || frameOpcode == OPCODE_PING || frameOpcode == OPCODE_PONG)) {
+                protocolViolation(channel, "control frame using reserved opcode " + frameOpcode);
             }
 
-            // Processing ping/pong/close frames because they cannot be
-            // fragmented
-            if (frameOpcode == OPCODE_PING) {
-                return new PingWebSocketFrame(frameFinalFlag, frameRsv, framePayload);
-            } else if (frameOpcode == OPCODE_PONG) {
-                return new PongWebSocketFrame(frameFinalFlag, frameRsv, framePayload);
-            } else if (frameOpcode == OPCODE_CLOSE) {
-                receivedClosingHandshake = true;
-                return new CloseWebSocketFrame(frameFinalFlag, frameRsv);
+            // close frame : if there is a body, the first two bytes of the
+            // body MUST be a 2-byte unsigned integer (in network byte
+            // order) representing a status code
+            if (frameOpcode == 8 && framePayloadLen1 == 1) {
+                protocolViolation(channel, "received close control frame with payload len 1");
+            }
+        } else { // data frame
+            // check for reserved data frame opcodes
+            if (!(frameOpcode == OPCODE_CONT || frameOpcode == OPCODE_TEXT || frameOpcode == OPCODE_BINARY)) {
+                protocolViolation(channel, "data frame using reserved opcode " + frameOpcode);
             }
 
-            // Processing for possible fragmented messages for text and binary
-            // frames
-            String aggregatedText = null;
-            if (frameFinalFlag) {
-                // Final frame of the sequence. Apparently ping frames are
-                // allowed in the middle of a fragmented message
-                if (frameOpcode != OPCODE_PING) {
-                    fragmentedFramesCount = 0;
-
-                    // Check text for UTF8 correctness
-                    if (frameOpcode == OPCODE_TEXT || fragmentedFramesText != null) {
-                        // Check UTF-8 correctness for this payload
-                        checkUTF8String(channel, framePayload.array());
-
-                        // This does a second check to make sure UTF-8
-                        // correctness for entire text message
-                        aggregatedText = fragmentedFramesText.toString();
-
-                        fragmentedFramesText = null;
-                    }
-                }
-            } else {
-                // Not final frame so we can expect more frames in the
-                // fragmented sequence
-                if (fragmentedFramesCount == 0) {
-                    // First text or binary frame for a fragmented set
-                    fragmentedFramesText = null;
-                    if (frameOpcode == OPCODE_TEXT) {
-                        checkUTF8String(channel, framePayload.array());
-                    }
-                } else {
-                    // Subsequent frames - only check if init frame is text
-                    if (fragmentedFramesText != null) {
-                        checkUTF8String(channel, framePayload.array());
-                    }
-                }
+            // check opcode vs message fragmentation state 1/2
+            if (fragmentedFramesCount == 0 && frameOpcode == OPCODE_CONT) {
+                protocolViolation(channel, "received continuation data frame outside fragmented message");
+            }
 
-                // Increment counter
-                fragmentedFramesCount++;
+            // check opcode vs message fragmentation state 2/2
+            if (fragmentedFramesCount != 0 && frameOpcode != OPCODE_CONT) {
+                protocolViolation(channel, "received non-continuation data frame while inside fragmented message");
             }
+        }
 
-            // Return the frame
-            if (frameOpcode == OPCODE_TEXT) {
-                return new TextWebSocketFrame(frameFinalFlag, frameRsv, framePayload);
-            } else if (frameOpcode == OPCODE_BINARY) {
-                return new BinaryWebSocketFrame(frameFinalFlag, frameRsv, framePayload);
-            } else if (frameOpcode == OPCODE_CONT) {
-                return new ContinuationWebSocketFrame(frameFinalFlag, frameRsv, framePayload, aggregatedText);
-            } else {
-                throw new UnsupportedOperationException("Cannot decode web socket frame with opcode: " + frameOpcode);
+        // Read frame payload length
+        if (framePayloadLen1 == 126) {
+            framePayloadLength = buffer.readUnsignedShort();
+            if (framePayloadLength < 126) {
+                protocolViolation(channel, "invalid data frame length (not using minimal length encoding)");
             }
-        case CORRUPT:
-            // If we don't keep reading Netty will throw an exception saying
-            // we can't return null if no bytes read and state not changed.
-            buffer.readByte();
-            return null;
-        default:
-            throw new Error("Shouldn't reach here.");
+        } else if (framePayloadLen1 == 127) {
+            long length = buffer.readLong();
+            // a negative length is caught here as well
+            if (length < 65536) {
+                protocolViolation(channel, "invalid data frame length (not using minimal length encoding)");
+            }
+            framePayloadLength = toFrameLength(length);
+        } else {
+            framePayloadLength = framePayloadLen1;
+        }
+
+        if (frameMasked) {
+            maskingKey = buffer.readInt();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Decoding WebSocket Frame length=" + framePayloadLength);
         }
     }
 
+    /**
+     * Unmasks the payload in place, eight bytes at a time when the payload is big endian like the key.
+     */
     private void unmask(ChannelBuffer frame) {
-        byte[] bytes = frame.array();
-        for (int i = 0; i < bytes.length; i++) {
-            frame.setByte(i, frame.getByte(i) ^ maskingKey.getByte(i % 4));
+        int index = frame.readerIndex();
+        int end = frame.writerIndex();
+        if (frame.order() == ByteOrder.BIG_ENDIAN) {
+            long longMask = (maskingKey & 0xFFFFFFFFL) << 32 | maskingKey & 0xFFFFFFFFL;
+            for (; index + 8 <= end; index += 8) {
+                frame.setLong(index, frame.getLong(index) ^ longMask);
+            }
+            if (index + 4 <= end) {
+                frame.setInt(index, frame.getInt(index) ^ maskingKey);
+                index += 4;
+            }
+        }
+        // the payload unmasked so far is a multiple of 4, the key starts over.
+        for (int i = 0; index < end; index++, i++) {
+            frame.setByte(index, frame.getByte(index) ^ maskingKey >>> 24 - (i & 3) * 8);
         }
     }
 
     private void protocolViolation(Channel channel, String reason) throws CorruptedFrameException {
-        checkpoint(State.CORRUPT);
+        state = State.CORRUPT;
+        framePayload = null;
         if (channel.isConnected()) {
             channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
-            channel.close().awaitUninterruptibly();
         }
         throw new CorruptedFrameException(reason);
     }
 
     private int toFrameLength(long l) throws TooLongFrameException {
         if (l > Integer.MAX_VALUE) {
+            state = State.CORRUPT;
             throw new TooLongFrameException("Length:" + l);
         } else {
             return (int) l;
         }
     }
 
-    private void checkUTF8String(Channel channel, byte[] bytes) throws CorruptedFrameException {
+    private void checkUTF8String(Channel channel, ChannelBuffer buffer) throws CorruptedFrameException {
         try {
-            // StringBuilder sb = new StringBuilder("UTF8 " + bytes.length +
-            // " bytes: ");
-            // for (byte b : bytes) {
-            // sb.append(Integer.toHexString(b)).append(" ");
-            // }
-            // logger.debug(sb.toString());
-
             if (fragmentedFramesText == null) {
-                fragmentedFramesText = new UTF8Output(bytes);
+                fragmentedFramesText = new UTF8Output(buffer);
             } else {
-                fragmentedFramesText.write(bytes);
+                fragmentedFramesText.write(buffer);
             }
         } catch (UTF8Exception ex) {
             protocolViolation(channel, "invalid UTF-8 bytes");
@@ -53,7 +53,8 @@
 
 package net.ion.radon.aclient.providers.netty.codec.http.websocketx;
 
-import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -81,6 +82,14 @@ public class WebSocket08FrameEncoder extends OneToOneEncoder {
     private static final byte OPCODE_PING = 0x9;
     private static final byte OPCODE_PONG = 0xA;
 
+    // masks only need to be unpredictable to the peer, Random is enough and is not contended per thread.
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
     private final boolean maskPayload;
 
     /**
@@ -97,8 +106,6 @@ public class WebSocket08FrameEncoder extends OneToOneEncoder {
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
 
-        byte[] mask;
-
         if (msg instanceof WebSocketFrame) {
             WebSocketFrame frame = (WebSocketFrame) msg;
             ChannelBuffer data = frame.getBinaryData();
@@ -136,53 +143,65 @@ public class WebSocket08FrameEncoder extends OneToOneEncoder {
             b0 |= frame.getRsv() % 8 << 4;
             b0 |= opcode % 128;
 
-            ChannelBuffer header;
-            ChannelBuffer body;
-
             if (opcode == OPCODE_PING && length > 125) {
                 throw new TooLongFrameException("invalid payload for PING (payload length must be <= 125, was "
                         + length);
             }
 
-            int maskLength = maskPayload ? 4 : 0;
+            int headerLength = length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10;
+            ChannelBuffer header;
+            if (maskPayload) {
+                // header, mask and masked payload in one buffer.
+                header = ChannelBuffers.buffer(headerLength + 4 + length);
+            } else {
+                header = ChannelBuffers.buffer(headerLength);
+            }
+
+            header.writeByte(b0);
             if (length <= 125) {
-                header = ChannelBuffers.buffer(2 + maskLength);
-                header.writeByte(b0);
-                byte b = (byte) (maskPayload ? 0x80 | (byte) length : (byte) length);
-                header.writeByte(b);
+                header.writeByte(maskPayload ? 0x80 | length : length);
             } else if (length <= 0xFFFF) {
-                header = ChannelBuffers.buffer(4 + maskLength);
-                header.writeByte(b0);
                 header.writeByte(maskPayload ? 0xFE : 126);
-                header.writeByte(length >>> 8 & 0xFF);
-                header.writeByte(length & 0xFF);
+                header.writeShort(length);
             } else {
-                header = ChannelBuffers.buffer(10 + maskLength);
-                header.writeByte(b0);
                 header.writeByte(maskPayload ? 0xFF : 127);
                 header.writeLong(length);
             }
 
-            // Write payload
-            if (maskPayload) {
-                Integer random = (int) (Math.random() * Integer.MAX_VALUE);
-                mask = ByteBuffer.allocate(4).putInt(random).array();
-                header.writeBytes(mask);
-
-                body = ChannelBuffers.buffer(length);
-                int counter = 0;
-                while (data.readableBytes() > 0) {
-                    byte byteData = data.readByte();
-                    body.writeByte(byteData ^ mask[+counter++ % 4]);
-                }
-            } else {
-                body = data;
+            if (!maskPayload) {
+                return ChannelBuffers.wrappedBuffer(header, data);
             }
-            return ChannelBuffers.wrappedBuffer(header, body);
+
+            int mask = RANDOM.get().nextInt();
+            header.writeInt(mask);
+            writeMasked(data, mask, header);
+            return header;
         }
 
         // If not websocket, then just return the message
         return msg;
     }
 
+    /**
+     * Writes the payload xored with the mask, eight bytes at a time when the payload is big endian like the mask.
+     */
+    private static void writeMasked(ChannelBuffer data, int mask, ChannelBuffer out) {
+        int index = data.readerIndex();
+        int end = data.writerIndex();
+        if (data.order() == ByteOrder.BIG_ENDIAN) {
+            long longMask = (mask & 0xFFFFFFFFL) << 32 | mask & 0xFFFFFFFFL;
+            for (; index + 8 <= end; index += 8) {
+                out.writeLong(data.getLong(index) ^ longMask);
+            }
+            if (index + 4 <= end) {
+                out.writeInt(data.getInt(index) ^ mask);
+                index += 4;
+            }
+        }
+        // the payload read so far is a multiple of 4, the mask starts over.
+        for (int i = 0; index < end; index++, i++) {
+            out.writeByte(data.getByte(index) ^ mask >>> 24 - (i & 3) * 8);
+        }
+    }
+
 }
@@ -0,0 +1,100 @@
+package net.ion.radon.aclient.providers.netty.codec.http.websocketx;
+
+import java.util.zip.Deflater;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+
+/**
+ * <p>
+ * Compresses the data frames of a message with the permessage-deflate extension (RFC 7692), to be placed after the frame
+ * encoder. Messages smaller than the threshold are sent as they are, a fragmented message is always compressed.
+ * </p>
+ * <p>
+ * Each message ends the deflate stream, so the compressor never relies on the previous messages and any
+ * client_no_context_takeover answer is honoured. The frames of a channel must be written one at a time.
+ * </p>
+ */
+public class WebSocketDeflateEncoder extends OneToOneEncoder {
+
+    static final int RSV1 = 0x4;
+
+    private final Deflater deflater;
+    private final int threshold;
+    private final byte[] chunk = new byte[8192];
+    private boolean compressing;
+
+    /**
+     * @param threshold
+     *            size in bytes below which a message is not compressed.
+     */
+    public WebSocketDeflateEncoder(int compressionLevel, int threshold) {
+        this.deflater = new Deflater(compressionLevel, true);
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected synchronized Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+        if (!(msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame)) {
+            return msg;
+        }
+
+        WebSocketFrame frame = (WebSocketFrame) msg;
+        ChannelBuffer data = frame.getBinaryData();
+        if (data == null) {
+            data = ChannelBuffers.EMPTY_BUFFER;
+        }
+        boolean first = !(frame instanceof ContinuationWebSocketFrame);
+        if (first) {
+            compressing = !frame.isFinalFragment() || data.readableBytes() >= threshold;
+        }
+        if (!compressing) {
+            return msg;
+        }
+
+        frame.setBinaryData(deflate(data, frame.isFinalFragment()));
+        if (first) {
+            frame.setRsv(frame.getRsv() | RSV1);
+        }
+        if (frame.isFinalFragment()) {
+            deflater.reset();
+            compressing = false;
+        }
+        return frame;
+    }
+
+    private ChannelBuffer deflate(ChannelBuffer data, boolean last) {
+        int length = data.readableBytes();
+        if (data.hasArray()) {
+            deflater.setInput(data.array(), data.arrayOffset() + data.readerIndex(), length);
+        } else {
+            byte[] input = new byte[length];
+            data.getBytes(data.readerIndex(), input);
+            deflater.setInput(input);
+        }
+        if (last) {
+            deflater.finish();
+        }
+
+        ChannelBuffer out = ChannelBuffers.dynamicBuffer(Math.max(64, length / 2));
+        while (last ? !deflater.finished() : !deflater.needsInput()) {
+            int deflated = deflater.deflate(chunk);
+            out.writeBytes(chunk, 0, deflated);
+        }
+        if (last) {
+            // the empty stored block the message must end with, without its 00 00 ff ff.
+            out.writeByte(0);
+        }
+        return out;
+    }
+
+    /**
+     * Frees the compressor memory, to be called once the channel is closed.
+     */
+    public synchronized void end() {
+        deflater.end();
+    }
+}
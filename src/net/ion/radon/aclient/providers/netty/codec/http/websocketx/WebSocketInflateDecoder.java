@@ -0,0 +1,121 @@
+package net.ion.radon.aclient.providers.netty.codec.http.websocketx;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * <p>
+ * Decompresses the data frames of the messages compressed with the permessage-deflate extension (RFC 7692), to be
+ * placed after the frame decoder. The decompressor keeps the context of the previous messages unless the server said
+ * it does not take it over. A message inflating to more than the max size closes the connection with 1009, before its
+ * bytes are kept.
+ * </p>
+ */
+public class WebSocketInflateDecoder extends OneToOneDecoder {
+
+    private static final byte[] TAIL = new byte[] { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+    private final Inflater inflater = new Inflater(true);
+    private final boolean noContextTakeover;
+    private final long maxMessageSize;
+    private final byte[] chunk = new byte[8192];
+    private boolean inflating;
+    // the bytes the message being inflated took so far, over all its fragments.
+    private long messageSize;
+    private boolean tooLong;
+
+    public WebSocketInflateDecoder(boolean noContextTakeover) {
+        this(noContextTakeover, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxMessageSize up to how many bytes a message may inflate to.
+     */
+    public WebSocketInflateDecoder(boolean noContextTakeover, long maxMessageSize) {
+        this.noContextTakeover = noContextTakeover;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+        if (tooLong) {
+            return null;
+        }
+        if (!(msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame)) {
+            return msg;
+        }
+
+        WebSocketFrame frame = (WebSocketFrame) msg;
+        if (!(frame instanceof ContinuationWebSocketFrame)) {
+            inflating = (frame.getRsv() & WebSocketDeflateEncoder.RSV1) != 0;
+            frame.setRsv(frame.getRsv() & ~WebSocketDeflateEncoder.RSV1);
+        }
+        if (!inflating) {
+            return msg;
+        }
+
+        ChannelBuffer data = frame.getBinaryData() == null ? ChannelBuffers.EMPTY_BUFFER : frame.getBinaryData();
+        ChannelBuffer out = ChannelBuffers.dynamicBuffer((int) Math.min(Math.max(64, data.readableBytes() * 3L), Math.max(64, maxMessageSize)));
+        byte[] input = new byte[data.readableBytes()];
+        data.getBytes(data.readerIndex(), input);
+        inflate(channel, input, out);
+        if (frame.isFinalFragment()) {
+            inflate(channel, TAIL, out);
+            if (noContextTakeover || inflater.finished()) {
+                inflater.reset();
+            }
+            inflating = false;
+            messageSize = 0;
+        }
+        frame.setBinaryData(out);
+        return frame;
+    }
+
+    private void inflate(Channel channel, byte[] input, ChannelBuffer out) throws CorruptedFrameException, TooLongFrameException {
+        if (inflater.finished()) {
+            // the message ended with a final block, what follows is padding.
+            return;
+        }
+        inflater.setInput(input);
+        try {
+            for (;;) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated > 0) {
+                    messageSize += inflated;
+                    if (messageSize > maxMessageSize) {
+                        tooLong(channel);
+                    }
+                    out.writeBytes(chunk, 0, inflated);
+                } else if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary()) {
+                    return;
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new CorruptedFrameException("invalid compressed message: " + ex.getMessage());
+        }
+    }
+
+    private void tooLong(Channel channel) throws TooLongFrameException {
+        tooLong = true;
+        if (channel.isConnected()) {
+            channel.write(new CloseWebSocketFrame(1009, "message too big")).addListener(ChannelFutureListener.CLOSE);
+        }
+        throw new TooLongFrameException("message inflates to more than " + maxMessageSize + " bytes");
+    }
+
+    /**
+     * Frees the decompressor memory, to be called once the channel is closed.
+     */
+    public void end() {
+        inflater.end();
+    }
+}
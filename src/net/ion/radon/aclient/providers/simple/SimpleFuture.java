@@ -12,6 +12,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.ion.radon.aclient.AsyncHandler;
+import net.ion.radon.aclient.ReleasableHandler;
 import net.ion.radon.aclient.listenable.AbstractListenableFuture;
 
 public class SimpleFuture<V> extends AbstractListenableFuture<V> {
@@ -52,7 +53,11 @@ public class SimpleFuture<V> extends AbstractListenableFuture<V> {
 			innerFuture.cancel(true);
 		}
 		if (!timedOut.get() && !cancelled.get()) {
-			asyncHandler.onThrowable(t);
+			try {
+				asyncHandler.onThrowable(t);
+			} finally {
+				releaseHandler();
+			}
 		}
 		super.done();
 	}
@@ -60,10 +65,20 @@ public class SimpleFuture<V> extends AbstractListenableFuture<V> {
 	public void content(V v) {
 	}
 
+	private void releaseHandler() {
+		if (asyncHandler instanceof ReleasableHandler) {
+			((ReleasableHandler) asyncHandler).releaseResources();
+		}
+	}
+
 	public boolean cancel(boolean mayInterruptIfRunning) {
 		if (!cancelled.get() && innerFuture != null) {
 			urlConnection.disconnect();
-			asyncHandler.onThrowable(new CancellationException());
+			try {
+				asyncHandler.onThrowable(new CancellationException());
+			} finally {
+				releaseHandler();
+			}
 			cancelled.set(true);
 			super.done();
 			return innerFuture.cancel(mayInterruptIfRunning);
@@ -58,6 +58,7 @@ import net.ion.radon.aclient.filter.FilterContext;
 import net.ion.radon.aclient.filter.FilterException;
 import net.ion.radon.aclient.filter.IOExceptionFilter;
 import net.ion.radon.aclient.filter.ResponseFilter;
+import net.ion.radon.aclient.generators.FeedableBodyGenerator;
 import net.ion.radon.aclient.listener.TransferCompletionHandler;
 import net.ion.radon.aclient.multipart.MultipartRequestEntity;
 import net.ion.radon.aclient.util.AsyncHttpProviderUtils;
@@ -284,11 +285,12 @@ public class SimpleProvider implements AsyncHttpProvider {
 				}
 
 				state = asyncHandler.onStatusReceived(status);
-				if (state == AsyncHandler.STATE.CONTINUE) {
+				if (state == AsyncHandler.STATE.CONTINUE || state == AsyncHandler.STATE.PAUSE) {
 					state = asyncHandler.onHeadersReceived(new ResponseHeaders(uri, urlConnection, SimpleProvider.this));
 				}
 
-				if (state == AsyncHandler.STATE.CONTINUE) {
+				// reads are blocking here, a handler holds the body back by not returning.
+				if (state == AsyncHandler.STATE.CONTINUE || state == AsyncHandler.STATE.PAUSE) {
 					InputStream is = getInputStream(urlConnection);
 					String contentEncoding = urlConnection.getHeaderField("Content-Encoding");
 					boolean isGZipped = contentEncoding == null ? false : "gzip".equalsIgnoreCase(contentEncoding);
@@ -634,9 +636,14 @@ public class SimpleProvider implements AsyncHttpProvider {
 						OutputStream os = urlConnection.getOutputStream();
 						for (ByteBuffer buffer = ByteBuffer.allocate(1024 * 8);;) {
 							buffer.clear();
-							if (body.read(buffer) < 0) {
+							long read = body.read(buffer);
+							if (read < 0) {
 								break;
 							}
+							if (read == 0 && body instanceof FeedableBodyGenerator.FeedableBody) {
+								FeedableBodyGenerator.FeedableBody.class.cast(body).awaitContent();
+								continue;
+							}
 							os.write(buffer.array(), buffer.arrayOffset(), buffer.position());
 						}
 					} finally {
@@ -0,0 +1,81 @@
+package net.ion.radon.aclient.reactive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.ion.framework.util.Debug;
+import net.ion.radon.aclient.BodyConsumer;
+import net.ion.radon.aclient.ReadOnlyBodyConsumer;
+
+/**
+ * Writes the published buffers to a {@link BodyConsumer}, asking for them in batches : half a batch consumed asks for as many again. The consumer is closed at the end, a
+ * consumer failure cancels the subscription.
+ * <p>
+ * Only a {@link ReadOnlyBodyConsumer} gets the published buffers as they are, the others get a copy backed by an array.
+ */
+public class BodyConsumerSubscriber implements Subscriber<ByteBuffer> {
+
+	private final static int BATCH = 16;
+
+	private final BodyConsumer consumer;
+	private final boolean readOnly;
+	private Subscription subscription;
+	private int consumed = 0;
+	private volatile Throwable failure;
+
+	public BodyConsumerSubscriber(BodyConsumer consumer) {
+		this.consumer = consumer;
+		this.readOnly = consumer instanceof ReadOnlyBodyConsumer;
+	}
+
+	public void onSubscribe(Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(BATCH);
+	}
+
+	public void onNext(ByteBuffer element) {
+		try {
+			consumer.consume(readOnly ? element : copy(element));
+		} catch (IOException ex) {
+			failure = ex;
+			subscription.cancel();
+			close();
+			return;
+		}
+		if (++consumed == BATCH / 2) {
+			consumed = 0;
+			subscription.request(BATCH / 2);
+		}
+	}
+
+	private static ByteBuffer copy(ByteBuffer element) {
+		ByteBuffer copy = ByteBuffer.allocate(element.remaining());
+		copy.put(element);
+		copy.flip();
+		return copy;
+	}
+
+	public void onError(Throwable t) {
+		failure = t;
+		close();
+	}
+
+	public void onComplete() {
+		close();
+	}
+
+	/**
+	 * @return why the body was not completely consumed, null otherwise.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	private void close() {
+		try {
+			consumer.close();
+		} catch (IOException ex) {
+			Debug.warn("body consumer close", ex);
+		}
+	}
+}
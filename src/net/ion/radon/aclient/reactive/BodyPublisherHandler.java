@@ -0,0 +1,223 @@
+package net.ion.radon.aclient.reactive;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import net.ion.radon.aclient.AsyncHandler;
+import net.ion.radon.aclient.HttpResponseBodyPart;
+import net.ion.radon.aclient.HttpResponseHeaders;
+import net.ion.radon.aclient.HttpResponseStatus;
+import net.ion.radon.aclient.Response;
+import net.ion.radon.aclient.ResponseReadControl;
+
+/**
+ * {@link AsyncHandler} publishing the response body as buffers. Reading the response is paused once a part has to wait for the subscriber to ask for more, so the
+ * server is held back instead of the body being buffered. Cancelling aborts the response, which closes the connection.
+ * <p>
+ * A buffer is only valid during {@link Subscriber#onNext(Object)}, copy it to keep it longer. There is a single subscriber, it may subscribe before or after the request
+ * is executed. The future of the request gives the {@link Response} without its body, it is cancelled when the subscription is.
+ */
+public class BodyPublisherHandler implements AsyncHandler<Response>, Publisher<ByteBuffer> {
+
+	private final Response.ResponseBuilder responseBuilder = new Response.ResponseBuilder();
+	private final LinkedList<ByteBuffer> queue = new LinkedList<ByteBuffer>();
+	private final Object lock = new Object();
+
+	private Subscriber<? super ByteBuffer> subscriber;
+	private ResponseReadControl readControl = ResponseReadControl.NONE;
+	private long demand = 0;
+	private boolean emitting = false;
+	private boolean done = false;
+	private Throwable error;
+	private boolean terminated = false;
+	private boolean cancelled = false;
+	// whether this handler paused the reading.
+	private boolean paused = false;
+	// also read without the lock for empty parts.
+	private volatile boolean abort = false;
+
+	public void subscribe(Subscriber<? super ByteBuffer> s) {
+		if (s == null) {
+			throw new NullPointerException("subscriber");
+		}
+		synchronized (lock) {
+			if (subscriber != null) {
+				s.onSubscribe(new Subscription() {
+					public void request(long n) {
+					}
+
+					public void cancel() {
+					}
+				});
+				s.onError(new IllegalStateException("this publisher already has a subscriber"));
+				return;
+			}
+			subscriber = s;
+			// nothing goes to the subscriber before onSubscribe returns.
+			emitting = true;
+		}
+		s.onSubscribe(new BodySubscription());
+		emitLoop();
+	}
+
+	public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+		responseBuilder.reset();
+		responseBuilder.accumulate(responseStatus);
+		return STATE.CONTINUE;
+	}
+
+	public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+		synchronized (lock) {
+			if (abort) {
+				return STATE.ABORT;
+			}
+			readControl = headers.getReadControl();
+		}
+		responseBuilder.accumulate(headers);
+		return STATE.CONTINUE;
+	}
+
+	public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+		if (bodyPart.length() == 0) {
+			return abort ? STATE.ABORT : STATE.CONTINUE;
+		}
+
+		ByteBuffer direct = null;
+		synchronized (lock) {
+			if (abort) {
+				return STATE.ABORT;
+			}
+			readControl = bodyPart.getReadControl();
+			if (!emitting && subscriber != null && queue.isEmpty() && demand > 0) {
+				emitting = true;
+				demand--;
+				direct = bodyPart.getReadOnlyBodyByteBuffer();
+			} else {
+				// the part is handed over later, when its memory may be reused.
+				queue.add(ByteBuffer.wrap(bodyPart.getBodyPartBytes()).asReadOnlyBuffer());
+			}
+			if (queue.size() > demand && !paused) {
+				paused = true;
+				readControl.pause();
+			}
+		}
+
+		if (direct != null) {
+			subscriber.onNext(direct);
+			emitLoop();
+		}
+		return STATE.CONTINUE;
+	}
+
+	public void onThrowable(Throwable t) {
+		synchronized (lock) {
+			if (done) {
+				return;
+			}
+			done = true;
+			error = t;
+		}
+		drain();
+	}
+
+	public Response onCompleted() throws Exception {
+		synchronized (lock) {
+			done = true;
+		}
+		drain();
+		return responseBuilder.build();
+	}
+
+	private void drain() {
+		synchronized (lock) {
+			if (emitting || subscriber == null) {
+				return;
+			}
+			emitting = true;
+		}
+		emitLoop();
+	}
+
+	/**
+	 * Sends what the subscriber asked for, to be called by the thread which set emitting. Signals from other threads only change the state, the loop sees it before
+	 * leaving.
+	 */
+	private void emitLoop() {
+		for (;;) {
+			ByteBuffer next = null;
+			Throwable failure = null;
+			synchronized (lock) {
+				if (cancelled || terminated) {
+					emitting = false;
+					return;
+				}
+				if (demand > 0 && !queue.isEmpty()) {
+					next = queue.poll();
+					demand--;
+				} else if (done && queue.isEmpty()) {
+					terminated = true;
+					failure = error;
+				} else {
+					emitting = false;
+					if (paused && demand > 0 && !done) {
+						paused = false;
+						readControl.resume();
+					}
+					return;
+				}
+			}
+
+			if (next != null) {
+				subscriber.onNext(next);
+			} else {
+				if (failure != null) {
+					subscriber.onError(failure);
+				} else {
+					subscriber.onComplete();
+				}
+			}
+		}
+	}
+
+	private final class BodySubscription implements Subscription {
+
+		public void request(long n) {
+			ResponseReadControl control = null;
+			synchronized (lock) {
+				if (cancelled || terminated) {
+					return;
+				}
+				if (n <= 0) {
+					control = abortResponse();
+					done = true;
+					error = new IllegalArgumentException("request must be positive: " + n);
+				} else {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+			}
+			if (control != null) {
+				control.abort();
+			}
+			drain();
+		}
+
+		public void cancel() {
+			ResponseReadControl control;
+			synchronized (lock) {
+				cancelled = true;
+				control = abortResponse();
+			}
+			control.abort();
+		}
+
+		/**
+		 * To be called holding the lock, the returned control is aborted once the lock is released.
+		 */
+		private ResponseReadControl abortResponse() {
+			abort = true;
+			queue.clear();
+			// a response not read yet aborts on its next callback.
+			return readControl;
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package net.ion.radon.aclient.reactive;
+
+/**
+ * Source of a possibly unbounded number of elements, published to a {@link Subscriber} as it asks for them. Same contract as the Reactive Streams interface of the same
+ * name, so an adapter to it is a one liner.
+ */
+public interface Publisher<T> {
+
+	void subscribe(Subscriber<? super T> subscriber);
+}
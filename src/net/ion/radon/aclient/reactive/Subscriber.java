@@ -0,0 +1,15 @@
+package net.ion.radon.aclient.reactive;
+
+/**
+ * Receives the elements of a {@link Publisher}, never more than it asked for with {@link Subscription#request(long)}. The calls are never concurrent.
+ */
+public interface Subscriber<T> {
+
+	void onSubscribe(Subscription subscription);
+
+	void onNext(T element);
+
+	void onError(Throwable t);
+
+	void onComplete();
+}
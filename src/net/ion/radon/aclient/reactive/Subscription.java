@@ -0,0 +1,11 @@
+package net.ion.radon.aclient.reactive;
+
+public interface Subscription {
+
+	/**
+	 * Asks for n more elements, n must be positive.
+	 */
+	void request(long n);
+
+	void cancel();
+}
@@ -0,0 +1,215 @@
+package net.ion.radon.aclient.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.ion.framework.util.Debug;
+import net.ion.radon.aclient.NameResolver;
+
+/**
+ * {@link NameResolver} looking names up on an {@link Executor} and caching the answers, failures included, for their time to live. Concurrent requests for the same host share a single lookup.
+ * Expired answers are dropped when asked for again, and swept every {@value #SWEEP_EVERY} lookups.
+ */
+public class CachingNameResolver implements NameResolver {
+
+	public final static long DEFAULT_TTL_IN_MS = 30 * 1000;
+	public final static long DEFAULT_NEGATIVE_TTL_IN_MS = 10 * 1000;
+	final static int SWEEP_EVERY = 256;
+
+	private final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+	private final ConcurrentHashMap<String, Lookup> pending = new ConcurrentHashMap<String, Lookup>();
+	private final NameSource source;
+	private final Executor executor;
+	private final long ttlInMs;
+	private final long negativeTtlInMs;
+	private final AtomicInteger lookups = new AtomicInteger();
+
+	public CachingNameResolver(NameSource source, Executor executor) {
+		this(source, executor, DEFAULT_TTL_IN_MS, DEFAULT_NEGATIVE_TTL_IN_MS);
+	}
+
+	/**
+	 * @param ttlInMs how long an answer is kept when the source does not tell.
+	 * @param negativeTtlInMs how long an unknown host is remembered, 0 to never cache failures.
+	 */
+	public CachingNameResolver(NameSource source, Executor executor, long ttlInMs, long negativeTtlInMs) {
+		this.source = source;
+		this.executor = executor;
+		this.ttlInMs = ttlInMs;
+		this.negativeTtlInMs = negativeTtlInMs;
+	}
+
+	public void resolve(String host, ResolveListener listener) {
+		String key = host.toLowerCase();
+		for (;;) {
+			CacheEntry entry = cache.get(key);
+			if (entry != null) {
+				if (!entry.isExpired(System.currentTimeMillis())) {
+					entry.deliver(host, listener);
+					return;
+				}
+				cache.remove(key, entry);
+			}
+
+			Lookup lookup = pending.get(key);
+			if (lookup == null) {
+				Lookup newLookup = new Lookup(key);
+				lookup = pending.putIfAbsent(key, newLookup);
+				if (lookup == null) {
+					newLookup.add(host, listener);
+					try {
+						executor.execute(newLookup);
+					} catch (RejectedExecutionException ex) {
+						UnknownHostException uhe = new UnknownHostException(host);
+						uhe.initCause(ex);
+						newLookup.complete(new CacheEntry(uhe, 0));
+					}
+					return;
+				}
+			}
+
+			// the lookup may have completed in between, look at the cache again.
+			if (lookup.add(host, listener)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Forgets every cached answer.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * @return how many hosts have an answer cached, expired ones included until they are swept.
+	 */
+	int size() {
+		return cache.size();
+	}
+
+	private void sweep(long now) {
+		for (Iterator<Map.Entry<String, CacheEntry>> it = cache.entrySet().iterator(); it.hasNext();) {
+			if (it.next().getValue().isExpired(now)) {
+				it.remove();
+			}
+		}
+	}
+
+	private final static class CacheEntry {
+		private final InetAddress[] addresses;
+		private final UnknownHostException failure;
+		private final long expireAt;
+		private final AtomicInteger cursor = new AtomicInteger();
+
+		CacheEntry(InetAddress[] addresses, long expireAt) {
+			this.addresses = addresses;
+			this.failure = null;
+			this.expireAt = expireAt;
+		}
+
+		CacheEntry(UnknownHostException failure, long expireAt) {
+			this.addresses = null;
+			this.failure = failure;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired(long now) {
+			return now >= expireAt;
+		}
+
+		void deliver(String host, ResolveListener listener) {
+			try {
+				if (failure != null) {
+					listener.onFailure(host, failure);
+					return;
+				}
+
+				int length = addresses.length;
+				int start = (cursor.getAndIncrement() & Integer.MAX_VALUE) % length;
+				InetAddress[] rotated = new InetAddress[length];
+				for (int i = 0; i < length; i++) {
+					rotated[i] = addresses[(start + i) % length];
+				}
+				listener.onResolved(host, rotated);
+			} catch (Throwable t) {
+				Debug.warn("ResolveListener failure", t);
+			}
+		}
+	}
+
+	private final static class Waiter {
+		final String host;
+		final ResolveListener listener;
+
+		Waiter(String host, ResolveListener listener) {
+			this.host = host;
+			this.listener = listener;
+		}
+	}
+
+	private final class Lookup implements Runnable {
+		private final String key;
+		private final List<Waiter> waiters = new ArrayList<Waiter>(2);
+		private boolean done = false;
+
+		Lookup(String key) {
+			this.key = key;
+		}
+
+		synchronized boolean add(String host, ResolveListener listener) {
+			if (done) {
+				return false;
+			}
+			waiters.add(new Waiter(host, listener));
+			return true;
+		}
+
+		public void run() {
+			long now = System.currentTimeMillis();
+			CacheEntry entry;
+			try {
+				NameRecord record = source.lookup(key);
+				if (record == null || record.getAddresses() == null || record.getAddresses().length == 0) {
+					throw new UnknownHostException(key);
+				}
+				long ttl = record.getTtlInMs() < 0 ? ttlInMs : record.getTtlInMs();
+				entry = new CacheEntry(record.getAddresses(), now + ttl);
+			} catch (UnknownHostException ex) {
+				entry = new CacheEntry(ex, now + negativeTtlInMs);
+			} catch (Throwable t) {
+				UnknownHostException uhe = new UnknownHostException(key);
+				uhe.initCause(t);
+				entry = new CacheEntry(uhe, now);
+			}
+			complete(entry);
+		}
+
+		void complete(CacheEntry entry) {
+			if (lookups.incrementAndGet() % SWEEP_EVERY == 0) {
+				sweep(System.currentTimeMillis());
+			}
+			cache.put(key, entry);
+			pending.remove(key, this);
+
+			List<Waiter> toNotify;
+			synchronized (this) {
+				done = true;
+				toNotify = new ArrayList<Waiter>(waiters);
+				waiters.clear();
+			}
+			for (Waiter waiter : toNotify) {
+				entry.deliver(waiter.host, waiter.listener);
+			}
+		}
+	}
+}
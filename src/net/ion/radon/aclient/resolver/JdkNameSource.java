@@ -0,0 +1,14 @@
+package net.ion.radon.aclient.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Looks names up with {@link InetAddress#getAllByName(String)}, which returns both the A and the AAAA records.
+ */
+public class JdkNameSource implements NameSource {
+
+	public NameRecord lookup(String host) throws UnknownHostException {
+		return new NameRecord(InetAddress.getAllByName(host), -1);
+	}
+}
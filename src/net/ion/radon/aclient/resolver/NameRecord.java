@@ -0,0 +1,28 @@
+package net.ion.radon.aclient.resolver;
+
+import java.net.InetAddress;
+
+/**
+ * The answer of a {@link NameSource}: every address of a host and how long it may be cached.
+ */
+public final class NameRecord {
+
+	private final InetAddress[] addresses;
+	private final long ttlInMs;
+
+	/**
+	 * @param ttlInMs -1 to use the default time to live of the resolver.
+	 */
+	public NameRecord(InetAddress[] addresses, long ttlInMs) {
+		this.addresses = addresses;
+		this.ttlInMs = ttlInMs;
+	}
+
+	public InetAddress[] getAddresses() {
+		return addresses;
+	}
+
+	public long getTtlInMs() {
+		return ttlInMs;
+	}
+}
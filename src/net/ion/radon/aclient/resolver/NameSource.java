@@ -0,0 +1,11 @@
+package net.ion.radon.aclient.resolver;
+
+import java.net.UnknownHostException;
+
+/**
+ * Where a {@link CachingNameResolver} looks names up. Implementations may block, they are always called from a resolver thread.
+ */
+public interface NameSource {
+
+	public NameRecord lookup(String host) throws UnknownHostException;
+}
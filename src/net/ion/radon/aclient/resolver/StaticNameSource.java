@@ -0,0 +1,41 @@
+package net.ion.radon.aclient.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In process {@link NameSource} answering from a fixed table, for tests and for hosts that must not go through the DNS.
+ */
+public class StaticNameSource implements NameSource {
+
+	private final ConcurrentHashMap<String, NameRecord> records = new ConcurrentHashMap<String, NameRecord>();
+	private final AtomicInteger lookupCount = new AtomicInteger();
+
+	public StaticNameSource add(String host, long ttlInMs, InetAddress... addresses) {
+		records.put(host.toLowerCase(), new NameRecord(addresses, ttlInMs));
+		return this;
+	}
+
+	public StaticNameSource remove(String host) {
+		records.remove(host.toLowerCase());
+		return this;
+	}
+
+	public NameRecord lookup(String host) throws UnknownHostException {
+		lookupCount.incrementAndGet();
+		NameRecord record = records.get(host.toLowerCase());
+		if (record == null) {
+			throw new UnknownHostException(host);
+		}
+		return record;
+	}
+
+	/**
+	 * @return how many times this source has been asked, which tells the cached answers apart from the looked up ones.
+	 */
+	public int getLookupCount() {
+		return lookupCount.get();
+	}
+}
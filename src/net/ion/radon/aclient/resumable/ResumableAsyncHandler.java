@@ -112,7 +112,7 @@ public class ResumableAsyncHandler implements AsyncHandler<Response> {
 			state = decoratedAsyncHandler.onBodyPartReceived(bodyPart);
 		}
 
-		byteTransferred.addAndGet(bodyPart.getBodyPartBytes().length);
+		byteTransferred.addAndGet(bodyPart.length());
 		resumableProcessor.put(url, byteTransferred.get());
 
 		return state;
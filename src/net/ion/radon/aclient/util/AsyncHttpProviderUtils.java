@@ -7,6 +7,7 @@ import java.io.InputStream;
 import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -169,17 +170,17 @@ public class AsyncHttpProviderUtils {
 			return bodyParts.get(0).getBodyPartBytes();
 		}
 		int size = 0;
-		List<byte[]> chunks = new ArrayList<byte[]>(partCount);
 		for (HttpResponseBodyPart part : bodyParts) {
-			byte[] chunk = part.getBodyPartBytes();
-			size += chunk.length;
-			chunks.add(chunk);
+			size += part.length();
 		}
+		// copy each part once, straight from its buffer.
 		byte[] bytes = new byte[size];
 		int offset = 0;
-		for (byte[] chunk : chunks) {
-			System.arraycopy(chunk, 0, bytes, offset, chunk.length);
-			offset += chunk.length;
+		for (HttpResponseBodyPart part : bodyParts) {
+			ByteBuffer chunk = part.getReadOnlyBodyByteBuffer();
+			int length = chunk.remaining();
+			chunk.get(bytes, offset, length);
+			offset += length;
 		}
 		return bytes;
 	}
@@ -201,9 +202,9 @@ public class AsyncHttpProviderUtils {
 		int size = 0;
 		byte[] result = new byte[maxLen];
 		for (HttpResponseBodyPart part : bodyParts) {
-			byte[] chunk = part.getBodyPartBytes();
-			int amount = Math.min(maxLen - size, chunk.length);
-			System.arraycopy(chunk, 0, result, size, amount);
+			ByteBuffer chunk = part.getReadOnlyBodyByteBuffer();
+			int amount = Math.min(maxLen - size, chunk.remaining());
+			chunk.get(result, size, amount);
 			size += amount;
 			if (size == maxLen) {
 				return result;
@@ -211,8 +212,8 @@ public class AsyncHttpProviderUtils {
 		}
 		if (size < maxLen) {
 			byte[] old = result;
-			result = new byte[old.length];
-			System.arraycopy(old, 0, result, 0, old.length);
+			result = new byte[size];
+			System.arraycopy(old, 0, result, 0, size);
 		}
 		return result;
 	}
@@ -0,0 +1,124 @@
+package net.ion.radon.aclient.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.ion.framework.util.Debug;
+
+/**
+ * A {@link WebSocketWriteFuture} for a message which is not written yet, completed once it is.
+ */
+final class DeferredWriteFuture implements WebSocketWriteFuture {
+
+	private final static Executor SAME_THREAD = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private List<Runnable> listeners = new ArrayList<Runnable>(1);
+	private volatile boolean done = false;
+	private volatile Throwable cause;
+
+	static DeferredWriteFuture failed(Throwable cause) {
+		DeferredWriteFuture future = new DeferredWriteFuture();
+		future.complete(cause);
+		return future;
+	}
+
+	/**
+	 * Completes this future with the outcome of the given one.
+	 */
+	void completeWith(final WebSocketWriteFuture written) {
+		written.addListener(new Runnable() {
+			public void run() {
+				complete(written.isSuccess() ? null : written.getCause());
+			}
+		}, SAME_THREAD);
+	}
+
+	/**
+	 * @param cause why the write failed, null if it succeeded.
+	 */
+	void complete(Throwable cause) {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			this.cause = cause;
+			done = true;
+			toRun = listeners;
+			listeners = null;
+		}
+		latch.countDown();
+		for (Runnable listener : toRun) {
+			listener.run();
+		}
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public boolean isSuccess() {
+		return done && cause == null;
+	}
+
+	public Throwable getCause() {
+		return cause;
+	}
+
+	public Void get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return result();
+	}
+
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private Void result() throws ExecutionException {
+		if (cause != null) {
+			throw new ExecutionException(cause);
+		}
+		return null;
+	}
+
+	public WebSocketWriteFuture addListener(final Runnable listener, final Executor exec) {
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					exec.execute(listener);
+				} catch (Throwable t) {
+					Debug.warn("write listener failure", t);
+				}
+			}
+		};
+		synchronized (this) {
+			if (!done) {
+				listeners.add(task);
+				return this;
+			}
+		}
+		task.run();
+		return this;
+	}
+}
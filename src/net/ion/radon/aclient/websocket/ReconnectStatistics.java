@@ -0,0 +1,61 @@
+package net.ion.radon.aclient.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the connections made by a {@link ReconnectingWebSocket} and the messages it had to drop.
+ */
+public class ReconnectStatistics {
+
+	private final AtomicLong connects = new AtomicLong();
+	private final AtomicLong attempts = new AtomicLong();
+	private final AtomicLong failedAttempts = new AtomicLong();
+	private final AtomicLong droppedMessages = new AtomicLong();
+
+	void attempt() {
+		attempts.incrementAndGet();
+	}
+
+	void connected() {
+		connects.incrementAndGet();
+	}
+
+	void attemptFailed() {
+		failedAttempts.incrementAndGet();
+	}
+
+	void messageDropped() {
+		droppedMessages.incrementAndGet();
+	}
+
+	/**
+	 * The connections opened, the first one included.
+	 */
+	public long getConnects() {
+		return connects.get();
+	}
+
+	public long getReconnects() {
+		return Math.max(connects.get() - 1, 0);
+	}
+
+	public long getAttempts() {
+		return attempts.get();
+	}
+
+	public long getFailedAttempts() {
+		return failedAttempts.get();
+	}
+
+	/**
+	 * The messages refused because the outbound queue was full, or failed because the socket was closed before they could be sent.
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ReconnectStatistics[connects=%s, attempts=%s, failed=%s, dropped=%s]", getConnects(), getAttempts(), getFailedAttempts(), getDroppedMessages());
+	}
+}
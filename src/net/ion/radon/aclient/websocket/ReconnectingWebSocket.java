@@ -0,0 +1,743 @@
+package net.ion.radon.aclient.websocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.ion.framework.util.Debug;
+import net.ion.radon.aclient.ListenableFuture;
+import net.ion.radon.aclient.NewClient;
+
+/**
+ * A {@link WebSocket} which opens a new connection whenever its connection is lost, until it is closed.
+ * <p>
+ * Attempts are spaced by an exponential backoff with jitter, so that the clients of a restarted server do not all come back at once. Messages sent while disconnected
+ * wait in a bounded queue and go out, after the {@link SubscriptionHandshake}, once connected again; fragments and pings are not queued. The listeners are told
+ * onOpen and onClose for every connection, with this socket as argument.
+ */
+public class ReconnectingWebSocket implements WebSocket {
+
+	/**
+	 * Sent on every new connection before the queued messages, typically to subscribe again to what the server forgot. Runs on the client executor service.
+	 */
+	public interface SubscriptionHandshake {
+		void subscribe(WebSocket webSocket) throws Exception;
+	}
+
+	/**
+	 * Starts a connection, the handler is told when it opens. Goes through the client unless a test plugs its own.
+	 */
+	interface Connector {
+		ListenableFuture<WebSocket> connect(String uri, WebSocketUpgradeHandler handler) throws IOException;
+	}
+
+	private final static int CONNECTING = 0;
+	private final static int DRAINING = 1;
+	private final static int OPEN = 2;
+	private final static int WAITING = 3;
+	private final static int CLOSED = 4;
+
+	// marks a fragmented message cut by a lost connection, its next fragments fail until the last one.
+	private final static Object BROKEN_STREAM = new Object();
+
+	private final NewClient client;
+	private final String uri;
+	private final WebSocketUpgradeHandler.Builder handlerBuilder;
+	private final SubscriptionHandshake handshake;
+	private final Connector connector;
+	private final long initialBackoffInMs;
+	private final long maxBackoffInMs;
+	private final int maxAttempts;
+	private final int maxQueuedMessages;
+	private final long maxQueuedBytes;
+	private final List<WebSocketListener> listeners = new CopyOnWriteArrayList<WebSocketListener>();
+	private final ReconnectStatistics statistics = new ReconnectStatistics();
+	private final Random random = new Random();
+
+	// guarded by this.
+	private int state = WAITING;
+	private WebSocket current;
+	private int consecutiveFailures = 0;
+	private final LinkedList<QueuedMessage> queue = new LinkedList<QueuedMessage>();
+	private long queuedBytes = 0;
+	private Object streamingOn;
+	private boolean bytesRelayed, textsRelayed, pingsRelayed, pongsRelayed;
+
+	private ReconnectingWebSocket(Builder b) {
+		client = b.client;
+		uri = b.uri;
+		handlerBuilder = b.handlerBuilder;
+		handshake = b.handshake;
+		connector = b.connector != null ? b.connector : new Connector() {
+			public ListenableFuture<WebSocket> connect(String uri, WebSocketUpgradeHandler handler) throws IOException {
+				return client.prepareGet(uri).execute(handler);
+			}
+		};
+		initialBackoffInMs = b.initialBackoffInMs;
+		maxBackoffInMs = b.maxBackoffInMs;
+		maxAttempts = b.maxAttempts;
+		maxQueuedMessages = b.maxQueuedMessages;
+		maxQueuedBytes = b.maxQueuedBytes;
+		listeners.addAll(b.listeners);
+		handlerBuilder.addWebSocketListener(new LifecycleRelay());
+	}
+
+	/**
+	 * Starts the first connection, without waiting for it.
+	 */
+	public ReconnectingWebSocket connect() {
+		connectNow();
+		return this;
+	}
+
+	public ReconnectStatistics getStatistics() {
+		return statistics;
+	}
+
+	public synchronized int getQueuedMessages() {
+		return queue.size();
+	}
+
+	public synchronized long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	public WebSocketWriteFuture sendMessage(byte[] message) {
+		return send(new QueuedMessage(message, null));
+	}
+
+	public WebSocketWriteFuture sendTextMessage(String message) {
+		return send(new QueuedMessage(null, message));
+	}
+
+	private WebSocketWriteFuture send(QueuedMessage message) {
+		WebSocket ws;
+		synchronized (this) {
+			if (state == CLOSED) {
+				statistics.messageDropped();
+				return DeferredWriteFuture.failed(new IOException("WebSocket closed"));
+			}
+			ws = state == OPEN ? current : null;
+			if (ws == null) {
+				if (queue.size() >= maxQueuedMessages || queuedBytes + message.size > maxQueuedBytes) {
+					statistics.messageDropped();
+					return DeferredWriteFuture.failed(new IOException("Outbound queue full"));
+				}
+				queue.add(message);
+				queuedBytes += message.size;
+				return message.future;
+			}
+		}
+		return message.sendOn(ws);
+	}
+
+	public WebSocketWriteFuture stream(byte[] fragment, boolean last) {
+		return stream(fragment, 0, fragment.length, last);
+	}
+
+	public WebSocketWriteFuture stream(byte[] fragment, int offset, int len, boolean last) {
+		WebSocket ws = streamTarget(last);
+		return ws == null ? lostFragment() : ws.stream(fragment, offset, len, last);
+	}
+
+	public WebSocketWriteFuture streamText(String fragment, boolean last) {
+		WebSocket ws = streamTarget(last);
+		return ws == null ? lostFragment() : ws.streamText(fragment, last);
+	}
+
+	/**
+	 * The connection the next fragment goes to, null if the message was started on a connection which is gone.
+	 */
+	private synchronized WebSocket streamTarget(boolean last) {
+		WebSocket ws = state == OPEN ? current : null;
+		boolean broken = ws == null || (streamingOn != null && streamingOn != ws);
+		streamingOn = last ? null : broken ? BROKEN_STREAM : ws;
+		return broken ? null : ws;
+	}
+
+	private WebSocketWriteFuture lostFragment() {
+		statistics.messageDropped();
+		return DeferredWriteFuture.failed(new IOException("Not connected, the fragmented message is lost"));
+	}
+
+	public WebSocketWriteFuture sendPing(byte[] payload) {
+		WebSocket ws = connected();
+		return ws == null ? DeferredWriteFuture.failed(new IOException("Not connected")) : ws.sendPing(payload);
+	}
+
+	public WebSocketWriteFuture sendPong(byte[] payload) {
+		WebSocket ws = connected();
+		return ws == null ? DeferredWriteFuture.failed(new IOException("Not connected")) : ws.sendPong(payload);
+	}
+
+	/**
+	 * Whether events of that connection still concern the listeners : those of an attempt abandoned by close() do not.
+	 */
+	private synchronized boolean isCurrent(WebSocket ws) {
+		return current == ws;
+	}
+
+	private synchronized boolean isClosed() {
+		return state == CLOSED;
+	}
+
+	private synchronized WebSocket connected() {
+		return state == OPEN || state == DRAINING ? current : null;
+	}
+
+	public WebSocket addWebSocketListener(WebSocketListener l) {
+		listeners.add(l);
+		WebSocket ws;
+		synchronized (this) {
+			ws = current;
+		}
+		if (ws != null) {
+			relayTo(ws);
+		}
+		return this;
+	}
+
+	public WebSocket removeWebSocketListener(WebSocketListener l) {
+		listeners.remove(l);
+		return this;
+	}
+
+	/**
+	 * Whether a connection is open right now.
+	 */
+	public boolean isOpen() {
+		WebSocket ws = connected();
+		return ws != null && ws.isOpen();
+	}
+
+	public boolean isWritable() {
+		WebSocket ws;
+		synchronized (this) {
+			if (state == CLOSED) {
+				return false;
+			}
+			ws = state == OPEN ? current : null;
+			if (ws == null) {
+				return queue.size() < maxQueuedMessages && queuedBytes < maxQueuedBytes;
+			}
+		}
+		return ws.isWritable();
+	}
+
+	public long getOutboundBytes() {
+		WebSocket ws;
+		long queued;
+		synchronized (this) {
+			ws = current;
+			queued = queuedBytes;
+		}
+		return ws == null ? queued : queued + ws.getOutboundBytes();
+	}
+
+	/**
+	 * Stops reconnecting and closes the connection, the queued messages fail.
+	 */
+	public void close() {
+		WebSocket ws;
+		List<QueuedMessage> dropped;
+		synchronized (this) {
+			if (state == CLOSED) {
+				return;
+			}
+			state = CLOSED;
+			ws = current;
+			dropped = new ArrayList<QueuedMessage>(queue);
+			queue.clear();
+			queuedBytes = 0;
+		}
+
+		for (QueuedMessage message : dropped) {
+			statistics.messageDropped();
+			message.future.complete(new IOException("WebSocket closed"));
+		}
+		if (ws != null) {
+			ws.close();
+		} else {
+			onClose();
+		}
+	}
+
+	private void connectNow() {
+		synchronized (this) {
+			if (state != WAITING) {
+				return;
+			}
+			state = CONNECTING;
+		}
+		if (client.isClosed()) {
+			close();
+			return;
+		}
+
+		statistics.attempt();
+		final ListenableFuture<WebSocket> future;
+		try {
+			future = connector.connect(uri, handlerBuilder.build());
+		} catch (Throwable t) {
+			connectFailed(t);
+			return;
+		}
+		future.addListener(new Runnable() {
+			public void run() {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					connectFailed(ex.getCause());
+				} catch (Throwable t) {
+					connectFailed(t);
+				}
+			}
+		}, client.getConfig().executorService());
+	}
+
+	private void connectFailed(Throwable t) {
+		IOException error;
+		synchronized (this) {
+			if (state != CONNECTING) {
+				return;
+			}
+			statistics.attemptFailed();
+			consecutiveFailures++;
+			if (maxAttempts < 0 || consecutiveFailures < maxAttempts) {
+				if (scheduleReconnect()) {
+					return;
+				}
+				error = clientClosed(t);
+			} else {
+				error = new IOException(String.format("Gave up connecting to %s after %s attempts", uri, consecutiveFailures), t);
+			}
+		}
+		onError(error);
+		close();
+	}
+
+	private IOException clientClosed(Throwable cause) {
+		return new IOException(String.format("Cannot reconnect to %s, the client is closed", uri), cause);
+	}
+
+	/**
+	 * Called with the lock held, false when the client is closed : the caller closes once the lock is released.
+	 */
+	private boolean scheduleReconnect() {
+		state = WAITING;
+		// equal jitter : half of the backoff for sure, the other half at random.
+		long backoff = Math.min(maxBackoffInMs, initialBackoffInMs << Math.min(consecutiveFailures, 30));
+		long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2 + 1));
+		try {
+			client.getConfig().reaper().schedule(new Runnable() {
+				public void run() {
+					connectNow();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (RejectedExecutionException ex) {
+			return false;
+		}
+	}
+
+	private void onConnected(final WebSocket ws) {
+		boolean closed;
+		synchronized (this) {
+			closed = state == CLOSED;
+			if (!closed) {
+				current = ws;
+				state = DRAINING;
+				consecutiveFailures = 0;
+				bytesRelayed = textsRelayed = pingsRelayed = pongsRelayed = false;
+			}
+		}
+		if (closed) {
+			ws.close();
+			return;
+		}
+
+		statistics.connected();
+		relayTo(ws);
+		for (WebSocketListener listener : listeners) {
+			try {
+				listener.onOpen(this);
+			} catch (Throwable t) {
+				listener.onError(t);
+			}
+		}
+
+		// the provider is not done with the upgrade yet, the writes wait for it.
+		try {
+			client.getConfig().executorService().execute(new Runnable() {
+				public void run() {
+					subscribeAndDrain(ws);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			onError(clientClosed(ex));
+			close();
+		}
+	}
+
+	private void subscribeAndDrain(WebSocket ws) {
+		synchronized (this) {
+			if (current != ws) {
+				return;
+			}
+		}
+		if (handshake != null) {
+			try {
+				handshake.subscribe(ws);
+			} catch (Throwable t) {
+				onError(t);
+			}
+		}
+		drain(ws);
+	}
+
+	private void drain(WebSocket ws) {
+		for (;;) {
+			QueuedMessage message;
+			synchronized (this) {
+				if (current != ws) {
+					return;
+				}
+				message = queue.poll();
+				if (message == null) {
+					state = OPEN;
+					return;
+				}
+				queuedBytes -= message.size;
+			}
+			message.future.completeWith(message.sendOn(ws));
+		}
+	}
+
+	private void onDisconnected(WebSocket ws) {
+		boolean rejected;
+		synchronized (this) {
+			if (current != ws) {
+				return;
+			}
+			current = null;
+			rejected = state != CLOSED && !scheduleReconnect();
+		}
+		if (rejected) {
+			onError(clientClosed(null));
+			// notifies the close as well.
+			close();
+		} else {
+			onClose();
+		}
+	}
+
+	/**
+	 * Registers on the connection the relays the listeners need, a message is only decoded in the forms they take.
+	 */
+	private void relayTo(WebSocket ws) {
+		boolean bytes = false, texts = false, pings = false, pongs = false;
+		for (WebSocketListener listener : listeners) {
+			bytes |= listener instanceof WebSocketByteListener;
+			texts |= listener instanceof WebSocketTextListener;
+			pings |= listener instanceof WebSocketPingListener;
+			pongs |= listener instanceof WebSocketPongListener;
+		}
+
+		synchronized (this) {
+			if (current != ws) {
+				return;
+			}
+			if (bytes && !bytesRelayed) {
+				bytesRelayed = true;
+				ws.addWebSocketListener(new ByteRelay());
+			}
+			if (texts && !textsRelayed) {
+				textsRelayed = true;
+				ws.addWebSocketListener(new TextRelay());
+			}
+			if (pings && !pingsRelayed) {
+				pingsRelayed = true;
+				ws.addWebSocketListener(new PingRelay());
+			}
+			if (pongs && !pongsRelayed) {
+				pongsRelayed = true;
+				ws.addWebSocketListener(new PongRelay());
+			}
+		}
+	}
+
+	private void onClose() {
+		for (WebSocketListener listener : listeners) {
+			try {
+				listener.onClose(this);
+			} catch (Throwable t) {
+				listener.onError(t);
+			}
+		}
+	}
+
+	private void onError(Throwable t) {
+		for (WebSocketListener listener : listeners) {
+			try {
+				listener.onError(t);
+			} catch (Throwable ignore) {
+				Debug.warn("WebSocketListener failure", ignore);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ReconnectingWebSocket{" + "uri=" + uri + ", " + statistics + '}';
+	}
+
+	private final class QueuedMessage {
+		final byte[] bytes;
+		final String text;
+		final int size;
+		final DeferredWriteFuture future = new DeferredWriteFuture();
+
+		QueuedMessage(byte[] bytes, String text) {
+			this.bytes = bytes;
+			this.text = text;
+			// a char is at least a byte of UTF-8.
+			this.size = bytes != null ? bytes.length : text.length();
+		}
+
+		WebSocketWriteFuture sendOn(WebSocket ws) {
+			try {
+				return bytes != null ? ws.sendMessage(bytes) : ws.sendTextMessage(text);
+			} catch (Throwable t) {
+				return DeferredWriteFuture.failed(t);
+			}
+		}
+	}
+
+	private final class LifecycleRelay implements WebSocketListener, WebSocketCloseCodeReasonListener, WebSocketWritabilityListener {
+
+		public void onOpen(WebSocket websocket) {
+			onConnected(websocket);
+		}
+
+		public void onClose(WebSocket websocket, int code, String reason) {
+			if (!isCurrent(websocket)) {
+				return;
+			}
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketCloseCodeReasonListener) {
+					try {
+						((WebSocketCloseCodeReasonListener) listener).onClose(ReconnectingWebSocket.this, code, reason);
+					} catch (Throwable t) {
+						listener.onError(t);
+					}
+				}
+			}
+		}
+
+		public void onClose(WebSocket websocket) {
+			onDisconnected(websocket);
+		}
+
+		public void onError(Throwable t) {
+			if (isClosed()) {
+				return;
+			}
+			ReconnectingWebSocket.this.onError(t);
+		}
+
+		public void onWritabilityChanged(WebSocket websocket, boolean writable) {
+			if (!isCurrent(websocket)) {
+				return;
+			}
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketWritabilityListener) {
+					try {
+						((WebSocketWritabilityListener) listener).onWritabilityChanged(ReconnectingWebSocket.this, writable);
+					} catch (Throwable t) {
+						listener.onError(t);
+					}
+				}
+			}
+		}
+	}
+
+	private abstract class Relay implements WebSocketListener {
+		public void onOpen(WebSocket websocket) {
+		}
+
+		public void onClose(WebSocket websocket) {
+		}
+
+		public void onError(Throwable t) {
+		}
+	}
+
+	private final class ByteRelay extends Relay implements WebSocketByteListener {
+		public void onMessage(byte[] message) {
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketByteListener) {
+					try {
+						((WebSocketByteListener) listener).onMessage(message);
+					} catch (Exception ex) {
+						listener.onError(ex);
+					}
+				}
+			}
+		}
+
+		public void onFragment(byte[] fragment, boolean last) {
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketByteListener) {
+					try {
+						((WebSocketByteListener) listener).onFragment(fragment, last);
+					} catch (Exception ex) {
+						listener.onError(ex);
+					}
+				}
+			}
+		}
+	}
+
+	private final class TextRelay extends Relay implements WebSocketTextListener {
+		public void onMessage(String message) {
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketTextListener) {
+					try {
+						((WebSocketTextListener) listener).onMessage(message);
+					} catch (Exception ex) {
+						listener.onError(ex);
+					}
+				}
+			}
+		}
+
+		public void onFragment(String fragment, boolean last) {
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketTextListener) {
+					try {
+						((WebSocketTextListener) listener).onFragment(fragment, last);
+					} catch (Exception ex) {
+						listener.onError(ex);
+					}
+				}
+			}
+		}
+	}
+
+	private final class PingRelay extends Relay implements WebSocketPingListener {
+		public void onPing(byte[] message) {
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketPingListener) {
+					try {
+						((WebSocketPingListener) listener).onPing(message);
+					} catch (Exception ex) {
+						listener.onError(ex);
+					}
+				}
+			}
+		}
+	}
+
+	private final class PongRelay extends Relay implements WebSocketPongListener {
+		public void onPong(byte[] message) {
+			for (WebSocketListener listener : listeners) {
+				if (listener instanceof WebSocketPongListener) {
+					try {
+						((WebSocketPongListener) listener).onPong(message);
+					} catch (Exception ex) {
+						listener.onError(ex);
+					}
+				}
+			}
+		}
+	}
+
+	public final static class Builder {
+		private final NewClient client;
+		private final String uri;
+		private WebSocketUpgradeHandler.Builder handlerBuilder = new WebSocketUpgradeHandler.Builder();
+		private SubscriptionHandshake handshake;
+		private Connector connector;
+		private long initialBackoffInMs = 500;
+		private long maxBackoffInMs = 30 * 1000;
+		private int maxAttempts = -1;
+		private int maxQueuedMessages = 1024;
+		private long maxQueuedBytes = 1024 * 1024;
+		private final List<WebSocketListener> listeners = new ArrayList<WebSocketListener>();
+
+		public Builder(NewClient client, String uri) {
+			this.client = client;
+			this.uri = uri;
+		}
+
+		public Builder addWebSocketListener(WebSocketListener listener) {
+			listeners.add(listener);
+			return this;
+		}
+
+		/**
+		 * The options of every connection, a builder only serves one socket. Its listeners would be handed the connections themselves : add them to this builder instead.
+		 */
+		public Builder setUpgradeHandler(WebSocketUpgradeHandler.Builder handlerBuilder) {
+			this.handlerBuilder = handlerBuilder;
+			return this;
+		}
+
+		public Builder setSubscriptionHandshake(SubscriptionHandshake handshake) {
+			this.handshake = handshake;
+			return this;
+		}
+
+		/**
+		 * The backoff after a lost connection, doubled after each failed attempt up to the max backoff. Half of it is random.
+		 */
+		public Builder setInitialBackoffInMs(long initialBackoffInMs) {
+			this.initialBackoffInMs = initialBackoffInMs;
+			return this;
+		}
+
+		public Builder setMaxBackoffInMs(long maxBackoffInMs) {
+			this.maxBackoffInMs = maxBackoffInMs;
+			return this;
+		}
+
+		/**
+		 * How many attempts in a row may fail before the socket gives up and closes, -1 (the default) to never give up.
+		 */
+		public Builder setMaxAttempts(int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * Bounds the messages waiting for a connection, a message over either bound fails at once.
+		 */
+		public Builder setMaxQueuedMessages(int maxQueuedMessages) {
+			this.maxQueuedMessages = maxQueuedMessages;
+			return this;
+		}
+
+		public Builder setMaxQueuedBytes(long maxQueuedBytes) {
+			this.maxQueuedBytes = maxQueuedBytes;
+			return this;
+		}
+
+		Builder setConnector(Connector connector) {
+			this.connector = connector;
+			return this;
+		}
+
+		public ReconnectingWebSocket build() {
+			if (initialBackoffInMs <= 0 || maxBackoffInMs < initialBackoffInMs) {
+				throw new IllegalArgumentException("initialBackoffInMs must be positive and not greater than maxBackoffInMs");
+			}
+			return new ReconnectingWebSocket(this);
+		}
+	}
+}
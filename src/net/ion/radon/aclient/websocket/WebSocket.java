@@ -4,19 +4,19 @@ import java.io.Closeable;
 
 public interface WebSocket extends Closeable{
 
-	WebSocket sendMessage(byte[] message);
+	WebSocketWriteFuture sendMessage(byte[] message);
 
-	WebSocket stream(byte[] fragment, boolean last);
+	WebSocketWriteFuture stream(byte[] fragment, boolean last);
 
-	WebSocket stream(byte[] fragment, int offset, int len, boolean last);
+	WebSocketWriteFuture stream(byte[] fragment, int offset, int len, boolean last);
 
-	WebSocket sendTextMessage(String message);
+	WebSocketWriteFuture sendTextMessage(String message);
 
-	WebSocket streamText(String fragment, boolean last);
+	WebSocketWriteFuture streamText(String fragment, boolean last);
 
-	WebSocket sendPing(byte[] payload);
+	WebSocketWriteFuture sendPing(byte[] payload);
 
-	WebSocket sendPong(byte[] payload);
+	WebSocketWriteFuture sendPong(byte[] payload);
 
 	WebSocket addWebSocketListener(WebSocketListener l);
 
@@ -24,5 +24,16 @@ public interface WebSocket extends Closeable{
 
 	boolean isOpen();
 
+	/**
+	 * False while the bytes not yet written to the socket are over its limit, a producer should then wait for
+	 * {@link WebSocketWritabilityListener#onWritabilityChanged(WebSocket, boolean)} instead of sending more.
+	 */
+	boolean isWritable();
+
+	/**
+	 * The bytes of the messages sent and not yet written to the socket.
+	 */
+	long getOutboundBytes();
+
 	void close();
 }
@@ -2,6 +2,7 @@ package net.ion.radon.aclient.websocket;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
 import net.ion.radon.aclient.AsyncHandler;
 import net.ion.radon.aclient.HttpResponseBodyPart;
@@ -15,10 +16,18 @@ public class WebSocketUpgradeHandler implements UpgradeHandler<WebSocket>, Async
 	private final ConcurrentLinkedQueue<WebSocketListener> l;
 	@SuppressWarnings("unused")
 	private final String protocol;
-	@SuppressWarnings("unused")
 	private final long maxByteSize;
-	@SuppressWarnings("unused")
 	private final long maxTextSize;
+	private final boolean perMessageDeflate;
+	private final int deflateThreshold;
+	private final int deflateLevel;
+	private final boolean serverNoContextTakeover;
+	private final int serverMaxWindowBits;
+	private final long maxInflatedSize;
+	private final long pingIntervalInMs;
+	private final long pongTimeoutInMs;
+	private final long readIdleTimeoutInMs;
+	private final long writeIdleTimeoutInMs;
 	private final AtomicBoolean ok = new AtomicBoolean(false);
 
 	private WebSocketUpgradeHandler(Builder b) {
@@ -26,6 +35,16 @@ public class WebSocketUpgradeHandler implements UpgradeHandler<WebSocket>, Async
 		protocol = b.protocol;
 		maxByteSize = b.maxByteSize;
 		maxTextSize = b.maxTextSize;
+		perMessageDeflate = b.perMessageDeflate;
+		deflateThreshold = b.deflateThreshold;
+		deflateLevel = b.deflateLevel;
+		serverNoContextTakeover = b.serverNoContextTakeover;
+		serverMaxWindowBits = b.serverMaxWindowBits;
+		maxInflatedSize = b.maxInflatedSize;
+		pingIntervalInMs = b.pingIntervalInMs;
+		pongTimeoutInMs = b.pongTimeoutInMs;
+		readIdleTimeoutInMs = b.readIdleTimeoutInMs;
+		writeIdleTimeoutInMs = b.writeIdleTimeoutInMs;
 	}
 
 	public final void onThrowable(Throwable t) {
@@ -55,6 +74,54 @@ public class WebSocketUpgradeHandler implements UpgradeHandler<WebSocket>, Async
 		return webSocket;
 	}
 
+	public long getMaxByteSize() {
+		return maxByteSize;
+	}
+
+	public long getMaxTextSize() {
+		return maxTextSize;
+	}
+
+	public boolean isPerMessageDeflate() {
+		return perMessageDeflate;
+	}
+
+	public int getDeflateThreshold() {
+		return deflateThreshold;
+	}
+
+	public int getDeflateLevel() {
+		return deflateLevel;
+	}
+
+	public boolean isServerNoContextTakeover() {
+		return serverNoContextTakeover;
+	}
+
+	public int getServerMaxWindowBits() {
+		return serverMaxWindowBits;
+	}
+
+	public long getMaxInflatedSize() {
+		return maxInflatedSize;
+	}
+
+	public long getPingIntervalInMs() {
+		return pingIntervalInMs;
+	}
+
+	public long getPongTimeoutInMs() {
+		return pongTimeoutInMs;
+	}
+
+	public long getReadIdleTimeoutInMs() {
+		return readIdleTimeoutInMs;
+	}
+
+	public long getWriteIdleTimeoutInMs() {
+		return writeIdleTimeoutInMs;
+	}
+
 	public final void onSuccess(WebSocket webSocket) {
 		this.webSocket = webSocket;
 		for (WebSocketListener w : l) {
@@ -76,8 +143,18 @@ public class WebSocketUpgradeHandler implements UpgradeHandler<WebSocket>, Async
 	public final static class Builder {
 		private ConcurrentLinkedQueue<WebSocketListener> l = new ConcurrentLinkedQueue<WebSocketListener>();
 		private String protocol = "";
-		private long maxByteSize = 8192;
-		private long maxTextSize = 8192;
+		private long maxByteSize = Long.MAX_VALUE;
+		private long maxTextSize = Long.MAX_VALUE;
+		private boolean perMessageDeflate = false;
+		private int deflateThreshold = 256;
+		private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+		private boolean serverNoContextTakeover = false;
+		private int serverMaxWindowBits = 15;
+		private long maxInflatedSize = 64 * 1024 * 1024;
+		private long pingIntervalInMs = 0;
+		private long pongTimeoutInMs = 10 * 1000;
+		private long readIdleTimeoutInMs = -1;
+		private long writeIdleTimeoutInMs = 0;
 
 		public Builder addWebSocketListener(WebSocketListener listener) {
 			l.add(listener);
@@ -94,16 +171,104 @@ public class WebSocketUpgradeHandler implements UpgradeHandler<WebSocket>, Async
 			return this;
 		}
 
+		/**
+		 * Up to how many bytes a fragmented binary message is aggregated for onMessage, no limit by default. A bigger one is only delivered with onFragment, the listeners
+		 * get onError instead of onMessage.
+		 */
 		public Builder setMaxByteSize(long maxByteSize) {
 			this.maxByteSize = maxByteSize;
 			return this;
 		}
 
+		/**
+		 * Same as {@link #setMaxByteSize(long)} for text messages, in bytes of UTF-8.
+		 */
 		public Builder setMaxTextSize(long maxTextSize) {
 			this.maxTextSize = maxTextSize;
 			return this;
 		}
 
+		/**
+		 * Offers the permessage-deflate extension to the server, messages are then compressed when the server accepts it.
+		 */
+		public Builder setPerMessageDeflate(boolean perMessageDeflate) {
+			this.perMessageDeflate = perMessageDeflate;
+			return this;
+		}
+
+		/**
+		 * Messages smaller than this many bytes are sent uncompressed, 256 by default.
+		 */
+		public Builder setDeflateThreshold(int deflateThreshold) {
+			this.deflateThreshold = deflateThreshold;
+			return this;
+		}
+
+		public Builder setDeflateLevel(int deflateLevel) {
+			this.deflateLevel = deflateLevel;
+			return this;
+		}
+
+		/**
+		 * Asks the server to compress each message on its own, both sides then keep no compression state between messages.
+		 */
+		public Builder setServerNoContextTakeover(boolean serverNoContextTakeover) {
+			this.serverNoContextTakeover = serverNoContextTakeover;
+			return this;
+		}
+
+		/**
+		 * Asks the server for a smaller compression window, from 8 to 15 bits.
+		 */
+		public Builder setServerMaxWindowBits(int serverMaxWindowBits) {
+			if (serverMaxWindowBits < 8 || serverMaxWindowBits > 15) {
+				throw new IllegalArgumentException("serverMaxWindowBits must be between 8 and 15");
+			}
+			this.serverMaxWindowBits = serverMaxWindowBits;
+			return this;
+		}
+
+		/**
+		 * Up to how many bytes a compressed message may inflate to, 64 MB by default. The socket is closed with 1009 when a message goes over.
+		 */
+		public Builder setMaxInflatedSize(long maxInflatedSize) {
+			this.maxInflatedSize = maxInflatedSize;
+			return this;
+		}
+
+		/**
+		 * Sends a ping once nothing was read for that long. 0 (the default) pings at half the read idle timeout, or never without one.
+		 */
+		public Builder setPingIntervalInMs(long pingIntervalInMs) {
+			this.pingIntervalInMs = pingIntervalInMs;
+			return this;
+		}
+
+		/**
+		 * Closes the socket when the pong of a ping is not read within that time, 10 seconds by default.
+		 */
+		public Builder setPongTimeoutInMs(long pongTimeoutInMs) {
+			this.pongTimeoutInMs = pongTimeoutInMs;
+			return this;
+		}
+
+		/**
+		 * Closes the socket once nothing was read for that long, 0 to never. By default {@link net.ion.radon.aclient.ClientConfig#getWebSocketIdleTimeoutInMs()}.
+		 * Without a ping interval the socket is pinged at half of it, so a quiet peer which answers stays open.
+		 */
+		public Builder setReadIdleTimeoutInMs(long readIdleTimeoutInMs) {
+			this.readIdleTimeoutInMs = readIdleTimeoutInMs;
+			return this;
+		}
+
+		/**
+		 * Closes the socket once no message was sent for that long, pings excluded. 0 (the default) to never.
+		 */
+		public Builder setWriteIdleTimeoutInMs(long writeIdleTimeoutInMs) {
+			this.writeIdleTimeoutInMs = writeIdleTimeoutInMs;
+			return this;
+		}
+
 		public WebSocketUpgradeHandler build() {
 			return new WebSocketUpgradeHandler(this);
 		}
@@ -0,0 +1,10 @@
+package net.ion.radon.aclient.websocket;
+
+public interface WebSocketWritabilityListener extends WebSocketListener {
+
+	/**
+	 * Called when the bytes not yet written to the socket go over its limit, and again once they drained.
+	 */
+	void onWritabilityChanged(WebSocket websocket, boolean writable);
+
+}
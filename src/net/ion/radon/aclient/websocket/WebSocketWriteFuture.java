@@ -0,0 +1,19 @@
+package net.ion.radon.aclient.websocket;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Completes once a message sent on a {@link WebSocket} is written to the socket, or failed to be.
+ */
+public interface WebSocketWriteFuture extends Future<Void> {
+
+	boolean isSuccess();
+
+	/**
+	 * The reason the write failed, null while it is not done or if it succeeded.
+	 */
+	Throwable getCause();
+
+	WebSocketWriteFuture addListener(Runnable listener, Executor exec);
+}
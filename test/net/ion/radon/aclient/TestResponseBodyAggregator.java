@@ -0,0 +1,219 @@
+package net.ion.radon.aclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.providers.simple.ResponseBodyPart;
+
+public class TestResponseBodyAggregator extends TestCase {
+
+	private final Random random = new Random(11);
+	private final URI uri = URI.create("http://localhost/");
+
+	public void testPresizedFromContentLength() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, -1);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect(" 10000 ");
+		byte[] body = append(aggregator, 10, 1000);
+
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+		assertEquals(1, parts.size());
+		assertEquals(10000, budget.getUsedBytes());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+	}
+
+	public void testPresizeIsCapped() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, -1);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect("1000000000");
+		append(aggregator, 1, 100);
+
+		assertEquals(32 * 1024 * 1024, budget.getUsedBytes());
+	}
+
+	public void testInvalidContentLength() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, -1);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect("many");
+		append(aggregator, 1, 100);
+
+		assertEquals(8 * 1024, budget.getUsedBytes());
+	}
+
+	public void testBlocksGrowWithTheBody() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, -1);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		byte[] body = append(aggregator, 20, 1000);
+
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+		assertEquals(3, parts.size());
+		assertEquals(8192, parts.get(0).length());
+		assertEquals(8192, parts.get(1).length());
+		assertEquals(3616, parts.get(2).length());
+		assertEquals(8192 + 8192 + 16384, budget.getUsedBytes());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+	}
+
+	public void testPartBiggerThanABlock() throws Exception {
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(null);
+		byte[] body = append(aggregator, 1, 20000);
+
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+		assertEquals(1, parts.size());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+	}
+
+	public void testReleaseKeepsThePartsReadable() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(100000, -1);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect("5000");
+		byte[] body = append(aggregator, 5, 1000);
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+
+		aggregator.release();
+		assertEquals(0, budget.getUsedBytes());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+
+		aggregator.release();
+		assertEquals(0, budget.getUsedBytes());
+	}
+
+	public void testSpillOverThreshold() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, 10000);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		byte[] body = append(aggregator, 30, 1000);
+
+		// what was in memory went to the file with the rest.
+		assertEquals(0, budget.getUsedBytes());
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+		assertEquals(1, parts.size());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+		aggregator.release();
+	}
+
+	public void testSpillWhenContentLengthIsOverThreshold() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, 10000);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect("20000");
+		byte[] body = append(aggregator, 1, 100);
+
+		assertEquals(0, budget.getUsedBytes());
+		assertTrue(Arrays.equals(body, bytes(aggregator.parts())));
+		aggregator.release();
+	}
+
+	public void testSpillWhenBudgetIsTaken() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(10000, -1);
+		assertTrue(budget.reserve(5000));
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect("8000");
+		byte[] body = append(aggregator, 8, 1000);
+
+		assertEquals(5000, budget.getUsedBytes());
+		assertTrue(Arrays.equals(body, bytes(aggregator.parts())));
+		aggregator.release();
+		assertEquals(5000, budget.getUsedBytes());
+	}
+
+	public void testMultiRegionMapping() throws Exception {
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(new ResponseMemoryBudget(-1, 0), 4096);
+		byte[] body = append(aggregator, 10, 1000);
+
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+		assertEquals(3, parts.size());
+		assertEquals(4096, parts.get(0).length());
+		assertEquals(4096, parts.get(1).length());
+		assertEquals(1808, parts.get(2).length());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+
+		// every way to read a region starts from its beginning.
+		HttpResponseBodyPart second = parts.get(1);
+		byte[] expected = Arrays.copyOfRange(body, 4096, 8192);
+		assertTrue(Arrays.equals(expected, second.getBodyPartBytes()));
+		assertTrue(Arrays.equals(expected, second.getBodyPartBytes()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(4096, second.writeTo(out));
+		assertTrue(Arrays.equals(expected, out.toByteArray()));
+		assertTrue(Arrays.equals(expected, read(second.readBodyPartBytes())));
+		aggregator.release();
+	}
+
+	public void testSpillFileIsDeletedOnceMapped() throws Exception {
+		File tmp = new File(System.getProperty("java.io.tmpdir"));
+		Set<String> before = spillFiles(tmp);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(new ResponseMemoryBudget(-1, 0));
+		byte[] body = append(aggregator, 3, 1000);
+
+		Set<String> during = spillFiles(tmp);
+		during.removeAll(before);
+		assertEquals(1, during.size());
+
+		List<HttpResponseBodyPart> parts = aggregator.parts();
+		assertFalse(new File(tmp, during.iterator().next()).exists());
+		assertTrue(Arrays.equals(body, bytes(parts)));
+	}
+
+	public void testReset() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, -1);
+		ResponseBodyAggregator aggregator = new ResponseBodyAggregator(budget);
+		aggregator.expect("5000");
+		append(aggregator, 5, 1000);
+
+		aggregator.reset();
+		assertEquals(0, budget.getUsedBytes());
+		byte[] body = append(aggregator, 2, 1000);
+		assertTrue(Arrays.equals(body, bytes(aggregator.parts())));
+		assertEquals(8192, budget.getUsedBytes());
+	}
+
+	private byte[] append(ResponseBodyAggregator aggregator, int count, int size) throws Exception {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int i = 0; i < count; i++) {
+			byte[] chunk = new byte[size];
+			random.nextBytes(chunk);
+			body.write(chunk);
+			aggregator.append(new ResponseBodyPart(uri, chunk, null, i == count - 1));
+		}
+		return body.toByteArray();
+	}
+
+	private static byte[] bytes(List<HttpResponseBodyPart> parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (HttpResponseBodyPart part : parts) {
+			ByteBuffer src = part.getReadOnlyBodyByteBuffer();
+			byte[] chunk = new byte[src.remaining()];
+			src.get(chunk);
+			out.write(chunk, 0, chunk.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static Set<String> spillFiles(File dir) {
+		Set<String> result = new HashSet<String>();
+		for (String name : dir.list()) {
+			if (name.startsWith("aclient-response")) {
+				result.add(name);
+			}
+		}
+		return result;
+	}
+
+	private static byte[] read(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,65 @@
+package net.ion.radon.aclient;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+public class TestResponseMemoryBudget extends TestCase {
+
+	public void testReserveUpToTheLimit() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(1000, -1);
+		assertTrue(budget.isLimited());
+		assertTrue(budget.reserve(600));
+		assertTrue(budget.reserve(400));
+		assertFalse(budget.reserve(1));
+		assertEquals(1000, budget.getUsedBytes());
+
+		budget.release(400);
+		assertEquals(600, budget.getUsedBytes());
+		assertFalse(budget.reserve(401));
+		assertTrue(budget.reserve(400));
+	}
+
+	public void testUnlimited() throws Exception {
+		ResponseMemoryBudget budget = new ResponseMemoryBudget(-1, -1);
+		assertFalse(budget.isLimited());
+		assertTrue(budget.reserve(Integer.MAX_VALUE));
+		assertTrue(budget.reserve(Integer.MAX_VALUE));
+		assertEquals(2L * Integer.MAX_VALUE, budget.getUsedBytes());
+		budget.release(2L * Integer.MAX_VALUE);
+		assertEquals(0, budget.getUsedBytes());
+	}
+
+	public void testThresholdAloneLimits() throws Exception {
+		assertTrue(new ResponseMemoryBudget(-1, 0).isLimited());
+	}
+
+	public void testConcurrentReservationsStayUnderTheLimit() throws Exception {
+		final ResponseMemoryBudget budget = new ResponseMemoryBudget(10000, -1);
+		final AtomicLong overLimit = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 50000; i++) {
+							if (budget.reserve(300)) {
+								if (budget.getUsedBytes() > 10000) {
+									overLimit.incrementAndGet();
+								}
+								budget.release(300);
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+
+		assertEquals(0, overLimit.get());
+		assertEquals(0, budget.getUsedBytes());
+	}
+}
@@ -0,0 +1,202 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.ClientConfig;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+
+public class TestNettyConnectionsPool extends TestCase {
+
+	private final static String HOST = "http://localhost:8080";
+	private NettyProvider provider;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (provider != null) {
+			provider.close();
+		}
+	}
+
+	private NettyConnectionsPool newPool(int maxPerHost) {
+		provider = new NettyProvider(new ClientConfig.Builder().setMaximumConnectionsPerHost(maxPerHost).setIdleConnectionInPoolTimeoutInMs(60 * 1000).build());
+		return new NettyConnectionsPool(provider);
+	}
+
+	public void testMostRecentlyUsedFirst() throws Exception {
+		NettyConnectionsPool pool = newPool(-1);
+		Channel a = newChannel(), b = newChannel(), c = newChannel();
+		assertTrue(pool.offer(HOST, a));
+		assertTrue(pool.offer(HOST, b));
+		assertTrue(pool.offer(HOST, c));
+
+		assertSame(c, pool.poll(HOST));
+		assertSame(b, pool.poll(HOST));
+		assertTrue(pool.offer(HOST, c));
+		assertSame(c, pool.poll(HOST));
+		assertSame(a, pool.poll(HOST));
+		assertNull(pool.poll(HOST));
+	}
+
+	public void testClosedChannelIsSkipped() throws Exception {
+		NettyConnectionsPool pool = newPool(-1);
+		Channel a = newChannel(), b = newChannel();
+		pool.offer(HOST, a);
+		pool.offer(HOST, b);
+		b.close();
+
+		assertSame(a, pool.poll(HOST));
+		assertNull(pool.poll(HOST));
+	}
+
+	public void testPerHostCount() throws Exception {
+		NettyConnectionsPool pool = newPool(2);
+		Channel a = newChannel(), b = newChannel(), c = newChannel(), d = newChannel();
+		assertTrue(pool.offer(HOST, a));
+		assertTrue(pool.offer(HOST, b));
+		assertFalse(pool.offer(HOST, c));
+		assertTrue(pool.offer("http://otherhost", c));
+
+		assertSame(b, pool.poll(HOST));
+		assertTrue(pool.offer(HOST, d));
+		assertFalse(pool.offer(HOST, b));
+
+		assertTrue(pool.removeAll(a));
+		assertFalse(pool.removeAll(a));
+		assertTrue(pool.offer(HOST, b));
+		assertFalse(pool.offer(HOST, a));
+
+		assertSame(b, pool.poll(HOST));
+		assertSame(d, pool.poll(HOST));
+		assertNull(pool.poll(HOST));
+		assertTrue(pool.offer(HOST, a));
+		assertTrue(pool.offer(HOST, b));
+	}
+
+	public void testRemovedChannelsArePurged() throws Exception {
+		NettyConnectionsPool pool = newPool(-1);
+		List<Channel> channels = new ArrayList<Channel>();
+		for (int i = 0; i < 100; i++) {
+			Channel channel = newChannel();
+			channels.add(channel);
+			pool.offer(HOST, channel);
+		}
+		// every other one, enough to go over the purge threshold.
+		for (int i = 0; i < channels.size(); i += 2) {
+			assertTrue(pool.removeAll(channels.get(i)));
+		}
+		for (int i = channels.size() - 1; i > 0; i -= 2) {
+			assertSame(channels.get(i), pool.poll(HOST));
+		}
+		assertNull(pool.poll(HOST));
+	}
+
+	public void testConcurrentOfferPollNeverHandsOutAChannelTwice() throws Exception {
+		final NettyConnectionsPool pool = newPool(-1);
+		final List<Channel> channels = new ArrayList<Channel>();
+		for (int i = 0; i < 64; i++) {
+			Channel channel = newChannel();
+			channels.add(channel);
+			pool.offer(HOST, channel);
+		}
+
+		final Set<Channel> inUse = Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final AtomicInteger handedOut = new AtomicInteger();
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 20000 && failure.get() == null; i++) {
+							Channel channel;
+							if (random.nextInt(4) == 0) {
+								channel = channels.get(random.nextInt(channels.size()));
+								if (!pool.removeAll(channel)) {
+									continue;
+								}
+							} else {
+								channel = pool.poll(HOST);
+								if (channel == null) {
+									continue;
+								}
+							}
+							handedOut.incrementAndGet();
+							if (!inUse.add(channel)) {
+								failure.set(channel + " handed out twice");
+							}
+							inUse.remove(channel);
+							if (!pool.offer(HOST, channel)) {
+								failure.set(channel + " not taken back");
+							}
+						}
+					} catch (Throwable ex) {
+						failure.set(ex.toString());
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+
+		assertNull(failure.get(), failure.get());
+		assertTrue(handedOut.get() > 0);
+
+		// every channel is back in the pool exactly once.
+		Set<Channel> left = new HashSet<Channel>();
+		Channel channel;
+		while ((channel = pool.poll(HOST)) != null) {
+			assertTrue(left.add(channel));
+		}
+		assertEquals(channels.size(), left.size());
+	}
+
+	private Channel newChannel() {
+		final ChannelPipeline pipeline = Channels.pipeline();
+		pipeline.addLast("httpProcessor", provider);
+		final AtomicInteger open = new AtomicInteger(1);
+		return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Channel.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getPipeline")) {
+					return pipeline;
+				} else if (name.equals("isOpen") || name.equals("isConnected")) {
+					return open.get() == 1;
+				} else if (name.equals("close")) {
+					open.set(0);
+					return null;
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (name.equals("compareTo")) {
+					return System.identityHashCode(proxy) - System.identityHashCode(args[0]);
+				} else if (name.equals("toString")) {
+					return "channel@" + Integer.toHexString(System.identityHashCode(proxy));
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+}
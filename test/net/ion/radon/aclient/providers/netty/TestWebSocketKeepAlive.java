@@ -0,0 +1,117 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.PingWebSocketFrame;
+import net.ion.radon.aclient.websocket.WebSocketUpgradeHandler;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.HashedWheelTimer;
+
+public class TestWebSocketKeepAlive extends TestCase {
+
+	private final static Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final AtomicBoolean open = new AtomicBoolean(true);
+	private final AtomicInteger pings = new AtomicInteger();
+	private volatile boolean answer = true;
+	private NettyWebSocket webSocket;
+	private WebSocketKeepAlive keepAlive;
+
+	@Override
+	protected void setUp() throws Exception {
+		webSocket = new NettyWebSocket(newChannel());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		keepAlive.stop();
+		timer.stop();
+	}
+
+	public void testPingAndReadIdleAreOffByDefault() throws Exception {
+		WebSocketUpgradeHandler h = new WebSocketUpgradeHandler.Builder().build();
+		assertEquals(0, h.getPingIntervalInMs());
+		assertEquals(-1, h.getReadIdleTimeoutInMs());
+		keepAlive = start(0, 0);
+		Thread.sleep(300);
+		assertEquals(0, pings.get());
+		assertTrue(open.get());
+	}
+
+	public void testReadIdleAloneKeepsAnAnsweringPeerOpen() throws Exception {
+		keepAlive = start(0, 400);
+		Thread.sleep(1200);
+		assertTrue(open.get());
+		// a ping at half the timeout, each pong counts as a read.
+		assertTrue(pings.get() >= 3);
+	}
+
+	public void testReadIdleClosesAPeerWhichDoesNotAnswer() throws Exception {
+		answer = false;
+		keepAlive = start(0, 400);
+		Thread.sleep(1000);
+		assertFalse(open.get());
+		assertEquals(1, pings.get());
+	}
+
+	public void testExplicitPingIntervalIsKept() throws Exception {
+		keepAlive = start(100, 5000);
+		Thread.sleep(550);
+		assertTrue(open.get());
+		assertTrue(pings.get() >= 3);
+	}
+
+	private WebSocketKeepAlive start(long pingIntervalInMs, long readIdleTimeoutInMs) {
+		WebSocketKeepAlive k = new WebSocketKeepAlive(webSocket, timer, DIRECT, pingIntervalInMs, 10000, readIdleTimeoutInMs, 0);
+		webSocket.setKeepAlive(k);
+		k.start();
+		return k;
+	}
+
+	private Channel newChannel() {
+		return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Channel.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getPipeline")) {
+					return Channels.pipeline();
+				} else if (name.equals("write")) {
+					if (args[0] instanceof PingWebSocketFrame) {
+						pings.incrementAndGet();
+						if (answer) {
+							// the pong of the peer.
+							webSocket.onRead();
+							keepAlive.onPong();
+						}
+					}
+					return Channels.succeededFuture((Channel) proxy);
+				} else if (name.equals("isOpen") || name.equals("isConnected")) {
+					return open.get();
+				} else if (name.equals("close")) {
+					open.set(false);
+					return Channels.succeededFuture((Channel) proxy);
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (name.equals("toString")) {
+					return "channel@" + Integer.toHexString(System.identityHashCode(proxy));
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+}
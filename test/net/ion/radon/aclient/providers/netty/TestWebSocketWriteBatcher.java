@@ -0,0 +1,217 @@
+package net.ion.radon.aclient.providers.netty;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.providers.netty.codec.http.websocketx.WebSocket08FrameEncoder;
+import net.ion.radon.aclient.websocket.WebSocket;
+import net.ion.radon.aclient.websocket.WebSocketWritabilityListener;
+import net.ion.radon.aclient.websocket.WebSocketWriteFuture;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+
+public class TestWebSocketWriteBatcher extends TestCase {
+
+	private final Socket socket = new Socket();
+	private final WebSocketWriteBatcher batcher = new WebSocketWriteBatcher(new DefaultChannelConfig());
+	private NettyWebSocket webSocket;
+
+	@Override
+	protected void setUp() throws Exception {
+		ChannelPipeline pipeline = Channels.pipeline();
+		pipeline.addLast("socket", socket);
+		pipeline.addLast("ws-batcher", batcher);
+		pipeline.addLast("ws-encoder", new WebSocket08FrameEncoder(false));
+		Channel channel = newChannel(pipeline);
+		pipeline.attach(channel, new AbstractChannelSink() {
+			public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) {
+			}
+		});
+		webSocket = new NettyWebSocket(channel);
+	}
+
+	public void testMessagesSentDuringAWriteGoTogether() throws Exception {
+		WebSocketWriteFuture first = webSocket.sendMessage(new byte[10]);
+		WebSocketWriteFuture second = webSocket.sendMessage(new byte[20]);
+		WebSocketWriteFuture third = webSocket.sendMessage(new byte[30]);
+		assertEquals(1, socket.writes.size());
+		assertEquals(2 + 10 + 2 + 20 + 2 + 30, batcher.getOutboundBytes());
+
+		socket.complete(null);
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		assertEquals(1, socket.writes.size());
+		assertEquals(2 + 20 + 2 + 30, readableBytes(socket.writes.getFirst()));
+
+		socket.complete(null);
+		assertTrue(second.isSuccess());
+		assertTrue(third.isSuccess());
+		assertEquals(0, socket.writes.size());
+		assertEquals(0, batcher.getOutboundBytes());
+	}
+
+	public void testBatchesAreBounded() throws Exception {
+		webSocket.sendMessage(new byte[10]);
+		for (int i = 0; i < 3; i++) {
+			webSocket.sendMessage(new byte[40 * 1024]);
+		}
+		socket.complete(null);
+		// 40K frames, two of them go over the batch size.
+		assertEquals(1, socket.writes.size());
+		assertEquals(40 * 1024 + 4, readableBytes(socket.writes.getFirst()));
+	}
+
+	public void testWritabilityIsToldOutsideTheWebSocketLock() throws Exception {
+		final List<Boolean> changes = new ArrayList<Boolean>();
+		final List<Boolean> lockHeld = new ArrayList<Boolean>();
+		webSocket.addWebSocketListener(new WritabilityListener() {
+			public void onWritabilityChanged(WebSocket websocket, boolean writable) {
+				changes.add(writable);
+				lockHeld.add(Thread.holdsLock(webSocket));
+			}
+		});
+
+		webSocket.sendMessage(new byte[10]);
+		webSocket.sendMessage(new byte[70 * 1024]);
+		assertFalse(webSocket.isWritable());
+		webSocket.sendMessage(new byte[10]);
+		assertEquals(1, changes.size());
+
+		socket.complete(null);
+		socket.complete(null);
+		assertTrue(webSocket.isWritable());
+		assertEquals(2, changes.size());
+		assertEquals(false, (boolean) changes.get(0));
+		assertEquals(true, (boolean) changes.get(1));
+		assertFalse(lockHeld.contains(true));
+	}
+
+	public void testListenerMaySendFromAnotherThread() throws Exception {
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		webSocket.addWebSocketListener(new WritabilityListener() {
+			public void onWritabilityChanged(WebSocket websocket, boolean writable) {
+				Thread other = new Thread() {
+					public void run() {
+						webSocket.sendMessage(new byte[1]);
+					}
+				};
+				other.start();
+				try {
+					other.join(5000);
+					if (other.isAlive()) {
+						failures.add(new IllegalStateException("the sender is blocked"));
+					}
+				} catch (InterruptedException ex) {
+					failures.add(ex);
+				}
+			}
+		});
+
+		webSocket.sendMessage(new byte[10]);
+		webSocket.sendMessage(new byte[70 * 1024]);
+		assertEquals(0, failures.size());
+	}
+
+	public void testClosedChannelFailsEveryPendingWriteWithoutRecursing() throws Exception {
+		webSocket.sendMessage(new byte[10]);
+		List<WebSocketWriteFuture> futures = new ArrayList<WebSocketWriteFuture>();
+		byte[] big = new byte[64 * 1024];
+		for (int i = 0; i < 5000; i++) {
+			futures.add(webSocket.sendMessage(big));
+		}
+
+		socket.closed = true;
+		socket.complete(new IOException("closed"));
+		for (WebSocketWriteFuture future : futures) {
+			assertTrue(future.isDone());
+			assertFalse(future.isSuccess());
+		}
+		assertEquals(0, batcher.getOutboundBytes());
+		assertTrue(socket.maxDepth - socket.minDepth < 20);
+	}
+
+	private static int readableBytes(MessageEvent e) {
+		return ((ChannelBuffer) e.getMessage()).readableBytes();
+	}
+
+	/**
+	 * Holds the writes until the test completes them, fails them on the spot once closed.
+	 */
+	private static class Socket extends SimpleChannelDownstreamHandler {
+		final LinkedList<MessageEvent> writes = new LinkedList<MessageEvent>();
+		boolean closed = false;
+		int minDepth = Integer.MAX_VALUE;
+		int maxDepth = 0;
+
+		@Override
+		public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) {
+			if (closed) {
+				int depth = Thread.currentThread().getStackTrace().length;
+				minDepth = Math.min(minDepth, depth);
+				maxDepth = Math.max(maxDepth, depth);
+				e.getFuture().setFailure(new IOException("closed"));
+				return;
+			}
+			writes.add(e);
+		}
+
+		void complete(Throwable failure) {
+			MessageEvent e = writes.removeFirst();
+			if (failure == null) {
+				e.getFuture().setSuccess();
+			} else {
+				e.getFuture().setFailure(failure);
+			}
+		}
+	}
+
+	private abstract static class WritabilityListener implements WebSocketWritabilityListener {
+		public void onOpen(WebSocket websocket) {
+		}
+
+		public void onClose(WebSocket websocket) {
+		}
+
+		public void onError(Throwable t) {
+		}
+	}
+
+	private static Channel newChannel(final ChannelPipeline pipeline) {
+		return (Channel) Proxy.newProxyInstance(TestWebSocketWriteBatcher.class.getClassLoader(), new Class<?>[] { Channel.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getPipeline")) {
+					return pipeline;
+				} else if (name.equals("write")) {
+					return Channels.write((Channel) proxy, args[0]);
+				} else if (name.equals("getRemoteAddress")) {
+					return null;
+				} else if (name.equals("isOpen") || name.equals("isConnected")) {
+					return true;
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (name.equals("toString")) {
+					return "channel@" + Integer.toHexString(System.identityHashCode(proxy));
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+}
@@ -0,0 +1,197 @@
+package net.ion.radon.aclient.providers.netty.codec.http.websocketx;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+
+public class TestWebSocket08FrameDecoder extends TestCase {
+
+	private final Random random = new Random(8);
+
+	public void testMaskedRoundTrip() throws Exception {
+		// 0 and 1-7 go through the byte loop only, 8 and more through the 8 and 4 byte steps plus the tail
+		int[] lengths = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 11, 12, 15, 16, 17, 125, 126, 127, 1000, 65535, 65536, 70001 };
+		for (int length : lengths) {
+			byte[] payload = payload(length);
+			WebSocketFrame frame = decode(true, encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload))));
+			assertTrue(frame instanceof BinaryWebSocketFrame);
+			assertTrue(frame.isFinalFragment());
+			assertTrue("length " + length, Arrays.equals(payload, bytes(frame.getBinaryData())));
+		}
+	}
+
+	public void testUnmaskedRoundTrip() throws Exception {
+		byte[] payload = payload(300);
+		WebSocketFrame frame = decode(false, encode(false, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload))));
+		assertTrue(Arrays.equals(payload, bytes(frame.getBinaryData())));
+	}
+
+	public void testTextRoundTrip() throws Exception {
+		WebSocketFrame frame = decode(true, encode(true, new TextWebSocketFrame("hello 안녕")));
+		assertTrue(frame instanceof TextWebSocketFrame);
+		assertEquals("hello 안녕", ((TextWebSocketFrame) frame).getText());
+	}
+
+	public void testHeaderSplitAtEveryOffset() throws Exception {
+		// masked headers of 6, 8 and 14 bytes
+		int[] lengths = { 20, 300, 65536 };
+		for (int length : lengths) {
+			byte[] payload = payload(length);
+			byte[] encoded = bytes(encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload))));
+			for (int offset = 1; offset <= 15; offset++) {
+				DecoderEmbedder<WebSocketFrame> decoder = decoder(true);
+				decoder.offer(ChannelBuffers.copiedBuffer(encoded, 0, offset));
+				assertNull("length " + length + " offset " + offset, decoder.peek());
+				decoder.offer(ChannelBuffers.copiedBuffer(encoded, offset, encoded.length - offset));
+				WebSocketFrame frame = decoder.poll();
+				assertNotNull("length " + length + " offset " + offset, frame);
+				assertTrue("length " + length + " offset " + offset, Arrays.equals(payload, bytes(frame.getBinaryData())));
+				assertNull(decoder.poll());
+			}
+		}
+	}
+
+	public void testByteByByte() throws Exception {
+		byte[] payload = payload(300);
+		byte[] encoded = bytes(encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload))));
+		DecoderEmbedder<WebSocketFrame> decoder = decoder(true);
+		for (int i = 0; i < encoded.length - 1; i++) {
+			decoder.offer(ChannelBuffers.copiedBuffer(encoded, i, 1));
+			assertNull(decoder.peek());
+		}
+		decoder.offer(ChannelBuffers.copiedBuffer(encoded, encoded.length - 1, 1));
+		assertTrue(Arrays.equals(payload, bytes(decoder.poll().getBinaryData())));
+	}
+
+	public void testWholeFrameIsSliced() throws Exception {
+		byte[] payload = payload(1000);
+		ChannelBuffer input = ChannelBuffers.copiedBuffer(encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload))));
+		WebSocketFrame frame = decode(true, input);
+
+		assertTrue(Arrays.equals(payload, bytes(frame.getBinaryData())));
+		assertSame(input.array(), frame.getBinaryData().array());
+	}
+
+	public void testPayloadSplitAcrossReads() throws Exception {
+		byte[] payload = payload(1000);
+		byte[] encoded = bytes(encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload))));
+		int header = encoded.length - payload.length;
+		int[] splits = { header + 1, header + 7, header + 8, header + 500, encoded.length - 1 };
+		for (int split : splits) {
+			DecoderEmbedder<WebSocketFrame> decoder = decoder(true);
+			ChannelBuffer first = ChannelBuffers.copiedBuffer(encoded, 0, split);
+			decoder.offer(first);
+			assertNull(decoder.peek());
+			decoder.offer(ChannelBuffers.copiedBuffer(encoded, split, encoded.length - split));
+			WebSocketFrame frame = decoder.poll();
+			assertTrue("split " + split, Arrays.equals(payload, bytes(frame.getBinaryData())));
+			assertNotSame(first.array(), frame.getBinaryData().array());
+		}
+	}
+
+	public void testSeveralFramesInOneRead() throws Exception {
+		byte[] first = payload(5);
+		byte[] second = payload(200);
+		ChannelBuffer input = ChannelBuffers.wrappedBuffer(encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(first))), encode(true, new PingWebSocketFrame(ChannelBuffers.wrappedBuffer(payload(3)))), encode(true, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(second))));
+		DecoderEmbedder<WebSocketFrame> decoder = decoder(true);
+		decoder.offer(input);
+
+		assertTrue(Arrays.equals(first, bytes(decoder.poll().getBinaryData())));
+		assertTrue(decoder.poll() instanceof PingWebSocketFrame);
+		assertTrue(Arrays.equals(second, bytes(decoder.poll().getBinaryData())));
+		assertNull(decoder.poll());
+	}
+
+	public void testNonMinimalShortLength() throws Exception {
+		ChannelBuffer input = ChannelBuffers.buffer(2 + 2 + 4 + 125);
+		input.writeByte(0x82);
+		input.writeByte(0x80 | 126);
+		input.writeShort(125);
+		input.writeInt(random.nextInt());
+		input.writeBytes(payload(125));
+		assertCorrupted(input);
+	}
+
+	public void testNonMinimalLongLength() throws Exception {
+		ChannelBuffer input = ChannelBuffers.buffer(2 + 8 + 4 + 65535);
+		input.writeByte(0x82);
+		input.writeByte(0x80 | 127);
+		input.writeLong(65535);
+		input.writeInt(random.nextInt());
+		input.writeBytes(payload(65535));
+		assertCorrupted(input);
+	}
+
+	public void testUnmaskedFrameToServer() throws Exception {
+		assertCorrupted(encode(false, new BinaryWebSocketFrame(ChannelBuffers.wrappedBuffer(payload(10)))));
+	}
+
+	private void assertCorrupted(ChannelBuffer input) {
+		DecoderEmbedder<WebSocketFrame> decoder = decoder(true);
+		try {
+			decoder.offer(input);
+			fail();
+		} catch (CodecEmbedderException expect) {
+			assertTrue(expect.getCause() instanceof CorruptedFrameException);
+		}
+		assertNull(decoder.poll());
+	}
+
+	private byte[] payload(int length) {
+		byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+
+	private static ChannelBuffer encode(boolean mask, WebSocketFrame frame) {
+		EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<ChannelBuffer>(new WebSocket08FrameEncoder(mask));
+		encoder.offer(frame);
+		return encoder.poll();
+	}
+
+	private static WebSocketFrame decode(boolean masked, ChannelBuffer input) {
+		DecoderEmbedder<WebSocketFrame> decoder = decoder(masked);
+		decoder.offer(input);
+		WebSocketFrame frame = decoder.poll();
+		assertNotNull(frame);
+		assertNull(decoder.poll());
+		return frame;
+	}
+
+	private static DecoderEmbedder<WebSocketFrame> decoder(boolean masked) {
+		return new DecoderEmbedder<WebSocketFrame>(new ClosingSink(), new WebSocket08FrameDecoder(masked, false));
+	}
+
+	/**
+	 * Completes the write and close of a corrupt stream, the embedder would queue the write as a product.
+	 */
+	private static class ClosingSink extends SimpleChannelHandler {
+		@Override
+		public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) {
+			e.getFuture().setSuccess();
+		}
+
+		@Override
+		public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) {
+			e.getFuture().setSuccess();
+		}
+	}
+
+	private static byte[] bytes(ChannelBuffer buffer) {
+		byte[] result = new byte[buffer.readableBytes()];
+		buffer.getBytes(buffer.readerIndex(), result);
+		return result;
+	}
+}
@@ -0,0 +1,228 @@
+package net.ion.radon.aclient.reactive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.AsyncHandler.STATE;
+import net.ion.radon.aclient.BodyConsumer;
+import net.ion.radon.aclient.ReadOnlyBodyConsumer;
+import net.ion.radon.aclient.ResponseReadControl;
+import net.ion.radon.aclient.providers.simple.ResponseBodyPart;
+
+public class TestBodyPublisherHandler extends TestCase {
+
+	private final CountingReadControl control = new CountingReadControl();
+	private final BodyPublisherHandler handler = new BodyPublisherHandler();
+
+	public void testPausesOnlyWhenAPartHasToWait() throws Exception {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		handler.subscribe(subscriber);
+		subscriber.subscription.request(2);
+
+		part(1);
+		part(2);
+		assertEquals(2, subscriber.received.size());
+		assertEquals(0, control.pauses);
+
+		part(3);
+		part(4);
+		assertEquals(2, subscriber.received.size());
+		assertEquals(1, control.pauses);
+
+		subscriber.subscription.request(1);
+		assertEquals(3, subscriber.received.size());
+		assertEquals(0, control.resumes);
+
+		subscriber.subscription.request(5);
+		assertEquals(4, subscriber.received.size());
+		assertEquals(1, control.resumes);
+
+		part(5);
+		assertEquals(5, subscriber.received.size());
+		assertEquals(1, control.pauses);
+	}
+
+	public void testBatchedConsumerDoesNotToggleReads() throws Exception {
+		CollectingConsumer consumer = new CollectingConsumer();
+		handler.subscribe(new BodyConsumerSubscriber(consumer));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 100; i++) {
+			expected.write(part(i));
+		}
+		handler.onCompleted();
+
+		assertEquals(0, control.pauses);
+		assertEquals(0, control.resumes);
+		assertTrue(consumer.closed);
+		assertTrue(Arrays.equals(expected.toByteArray(), consumer.body.toByteArray()));
+	}
+
+	public void testConsumerGetsAWritableCopy() throws Exception {
+		final List<Boolean> readOnly = new ArrayList<Boolean>();
+		handler.subscribe(new BodyConsumerSubscriber(new BodyConsumer() {
+			public void consume(ByteBuffer byteBuffer) throws IOException {
+				readOnly.add(byteBuffer.isReadOnly());
+				byteBuffer.array();
+			}
+
+			public void close() throws IOException {
+			}
+		}));
+		part(1);
+		assertEquals(Arrays.asList(false), readOnly);
+	}
+
+	public void testPartsBeforeSubscribeWait() throws Exception {
+		byte[] first = part(1);
+		byte[] second = part(2);
+		assertEquals(1, control.pauses);
+		handler.onCompleted();
+
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		handler.subscribe(subscriber);
+		assertEquals(0, subscriber.received.size());
+		subscriber.subscription.request(1);
+		assertTrue(Arrays.equals(first, subscriber.received.get(0)));
+		assertFalse(subscriber.completed);
+
+		subscriber.subscription.request(1);
+		assertTrue(Arrays.equals(second, subscriber.received.get(1)));
+		assertTrue(subscriber.completed);
+		// a complete response reads again on its own.
+		assertEquals(0, control.resumes);
+	}
+
+	public void testErrorAfterQueuedParts() throws Exception {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		handler.subscribe(subscriber);
+		part(1);
+		IOException failure = new IOException("reset");
+		handler.onThrowable(failure);
+		assertNull(subscriber.error);
+
+		subscriber.subscription.request(1);
+		assertEquals(1, subscriber.received.size());
+		assertSame(failure, subscriber.error);
+	}
+
+	public void testCancelAbortsTheResponse() throws Exception {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		handler.subscribe(subscriber);
+		part(1);
+		subscriber.subscription.cancel();
+
+		assertEquals(1, control.aborts);
+		assertEquals(STATE.ABORT, handler.onBodyPartReceived(new ControlledPart(new byte[10], control)));
+		assertEquals(STATE.ABORT, handler.onBodyPartReceived(new ControlledPart(new byte[0], control)));
+		subscriber.subscription.request(1);
+		assertEquals(0, subscriber.received.size());
+	}
+
+	public void testNonPositiveRequestFails() throws Exception {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		handler.subscribe(subscriber);
+		part(1);
+		subscriber.subscription.request(0);
+
+		assertEquals(1, control.aborts);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertEquals(0, subscriber.received.size());
+	}
+
+	public void testSingleSubscriber() throws Exception {
+		handler.subscribe(new RecordingSubscriber());
+		RecordingSubscriber second = new RecordingSubscriber();
+		handler.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	private byte[] part(int value) throws Exception {
+		byte[] bytes = new byte[] { (byte) value, (byte) (value >> 8), 7 };
+		assertEquals(STATE.CONTINUE, handler.onBodyPartReceived(new ControlledPart(bytes.clone(), control)));
+		return bytes;
+	}
+
+	private static class ControlledPart extends ResponseBodyPart {
+		private final ResponseReadControl control;
+
+		ControlledPart(byte[] chunk, ResponseReadControl control) {
+			super(URI.create("http://localhost/"), chunk, null, false);
+			this.control = control;
+		}
+
+		@Override
+		public ResponseReadControl getReadControl() {
+			return control;
+		}
+	}
+
+	private static class CountingReadControl implements ResponseReadControl {
+		int pauses, resumes, aborts;
+		boolean paused;
+
+		public void pause() {
+			pauses++;
+			paused = true;
+		}
+
+		public void resume() {
+			resumes++;
+			paused = false;
+		}
+
+		public boolean isPaused() {
+			return paused;
+		}
+
+		public void abort() {
+			aborts++;
+		}
+	}
+
+	private static class RecordingSubscriber implements Subscriber<ByteBuffer> {
+		final List<byte[]> received = new ArrayList<byte[]>();
+		Subscription subscription;
+		Throwable error;
+		boolean completed;
+
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		public void onNext(ByteBuffer element) {
+			byte[] bytes = new byte[element.remaining()];
+			element.get(bytes);
+			received.add(bytes);
+		}
+
+		public void onError(Throwable t) {
+			error = t;
+		}
+
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	private static class CollectingConsumer implements ReadOnlyBodyConsumer {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		boolean closed;
+
+		public void consume(ByteBuffer byteBuffer) throws IOException {
+			byte[] bytes = new byte[byteBuffer.remaining()];
+			byteBuffer.get(bytes);
+			body.write(bytes);
+		}
+
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package net.ion.radon.aclient.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.NameResolver.ResolveListener;
+
+public class TestCachingNameResolver extends TestCase {
+
+	private final StaticNameSource source = new StaticNameSource();
+	private final ManualExecutor executor = new ManualExecutor();
+
+	public void testAnswerIsCachedForItsTtl() throws Exception {
+		source.add("a.test", 100, address(1));
+		CachingNameResolver resolver = new CachingNameResolver(source, executor);
+
+		Answer first = new Answer();
+		resolver.resolve("a.test", first);
+		assertNull(first.addresses);
+		executor.runAll();
+		assertEquals(address(1), first.addresses[0]);
+
+		Answer cached = new Answer();
+		resolver.resolve("A.TEST", cached);
+		assertEquals(0, executor.size());
+		assertEquals(address(1), cached.addresses[0]);
+		assertEquals(1, source.getLookupCount());
+
+		Thread.sleep(150);
+		source.add("a.test", 100, address(2));
+		Answer expired = new Answer();
+		resolver.resolve("a.test", expired);
+		assertEquals(1, executor.size());
+		executor.runAll();
+		assertEquals(address(2), expired.addresses[0]);
+		assertEquals(2, source.getLookupCount());
+	}
+
+	public void testRecordWithoutTtlUsesTheDefault() throws Exception {
+		source.add("a.test", -1, address(1));
+		CachingNameResolver resolver = new CachingNameResolver(source, executor, 50, 0);
+		resolver.resolve("a.test", new Answer());
+		executor.runAll();
+		resolver.resolve("a.test", new Answer());
+		assertEquals(0, executor.size());
+
+		Thread.sleep(100);
+		resolver.resolve("a.test", new Answer());
+		assertEquals(1, executor.size());
+	}
+
+	public void testFailureIsCachedForTheNegativeTtl() throws Exception {
+		CachingNameResolver resolver = new CachingNameResolver(source, executor, 1000, 100);
+		Answer first = new Answer();
+		resolver.resolve("unknown.test", first);
+		executor.runAll();
+		assertNotNull(first.failure);
+
+		source.add("unknown.test", 1000, address(1));
+		Answer cached = new Answer();
+		resolver.resolve("unknown.test", cached);
+		assertEquals(0, executor.size());
+		assertNotNull(cached.failure);
+
+		Thread.sleep(150);
+		Answer known = new Answer();
+		resolver.resolve("unknown.test", known);
+		executor.runAll();
+		assertEquals(address(1), known.addresses[0]);
+	}
+
+	public void testFailureIsNotCachedWithoutNegativeTtl() throws Exception {
+		CachingNameResolver resolver = new CachingNameResolver(source, executor, 1000, 0);
+		resolver.resolve("unknown.test", new Answer());
+		executor.runAll();
+		resolver.resolve("unknown.test", new Answer());
+		executor.runAll();
+		assertEquals(2, source.getLookupCount());
+	}
+
+	public void testConcurrentRequestsShareOneLookup() throws Exception {
+		source.add("a.test", 1000, address(1));
+		CachingNameResolver resolver = new CachingNameResolver(source, executor);
+		List<Answer> answers = new ArrayList<Answer>();
+		for (int i = 0; i < 5; i++) {
+			Answer answer = new Answer();
+			answers.add(answer);
+			resolver.resolve(i % 2 == 0 ? "a.test" : "A.test", answer);
+		}
+		assertEquals(1, executor.size());
+		executor.runAll();
+
+		assertEquals(1, source.getLookupCount());
+		for (int i = 0; i < answers.size(); i++) {
+			Answer answer = answers.get(i);
+			assertEquals(i % 2 == 0 ? "a.test" : "A.test", answer.host);
+			assertEquals(address(1), answer.addresses[0]);
+		}
+	}
+
+	public void testRejectedLookupFails() throws Exception {
+		source.add("a.test", 1000, address(1));
+		CachingNameResolver resolver = new CachingNameResolver(source, new Executor() {
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+		Answer answer = new Answer();
+		resolver.resolve("a.test", answer);
+		assertNotNull(answer.failure);
+	}
+
+	public void testAddressesAreRotated() throws Exception {
+		source.add("a.test", 1000, address(1), address(2), address(3));
+		CachingNameResolver resolver = new CachingNameResolver(source, executor);
+		resolver.resolve("a.test", new Answer());
+		executor.runAll();
+
+		for (int i = 1; i <= 6; i++) {
+			Answer answer = new Answer();
+			resolver.resolve("a.test", answer);
+			assertEquals(3, answer.addresses.length);
+			for (int j = 0; j < 3; j++) {
+				assertEquals(address((i + j) % 3 + 1), answer.addresses[j]);
+			}
+		}
+	}
+
+	public void testExpiredAnswersAreSwept() throws Exception {
+		CachingNameResolver resolver = new CachingNameResolver(source, executor, 60 * 1000, 50);
+		for (int i = 0; i < 10; i++) {
+			resolver.resolve("unknown" + i + ".test", new Answer());
+		}
+		executor.runAll();
+		assertEquals(10, resolver.size());
+
+		Thread.sleep(100);
+		source.add("unknown0.test", 60 * 1000, address(1));
+		resolver.resolve("unknown0.test", new Answer());
+		assertEquals(9, resolver.size());
+
+		// the last of these is the lookup which sweeps the other expired failures.
+		int more = CachingNameResolver.SWEEP_EVERY - 11;
+		for (int i = 0; i < more; i++) {
+			source.add("host" + i + ".test", 60 * 1000, address(1));
+			resolver.resolve("host" + i + ".test", new Answer());
+			executor.runAll();
+		}
+		assertEquals(1 + more, resolver.size());
+	}
+
+	private static InetAddress address(int last) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) last });
+	}
+
+	private static class Answer implements ResolveListener {
+		String host;
+		InetAddress[] addresses;
+		UnknownHostException failure;
+
+		public void onResolved(String host, InetAddress[] addresses) {
+			this.host = host;
+			this.addresses = addresses;
+		}
+
+		public void onFailure(String host, UnknownHostException cause) {
+			this.host = host;
+			this.failure = cause;
+		}
+	}
+
+	private static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+		public synchronized void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		synchronized int size() {
+			return tasks.size();
+		}
+
+		void runAll() {
+			Runnable task;
+			while ((task = poll()) != null) {
+				task.run();
+			}
+		}
+
+		private synchronized Runnable poll() {
+			return tasks.poll();
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package net.ion.radon.aclient.websocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.ion.radon.aclient.ClientConfig;
+import net.ion.radon.aclient.ListenableFuture;
+import net.ion.radon.aclient.NewClient;
+import net.ion.radon.aclient.listenable.AbstractListenableFuture;
+
+public class TestReconnectingWebSocket extends TestCase {
+
+	private final List<Long> delays = new CopyOnWriteArrayList<Long>();
+	private final BlockingQueue<Attempt> attempts = new LinkedBlockingQueue<Attempt>();
+	private final RecordingListener listener = new RecordingListener();
+	private volatile boolean refuse = false;
+	private ScheduledThreadPoolExecutor reaper;
+	private NewClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		reaper = new ScheduledThreadPoolExecutor(1) {
+			@Override
+			public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+				delays.add(unit.toMillis(delay));
+				return super.schedule(command, delay, unit);
+			}
+		};
+		client = NewClient.create(new ClientConfig.Builder().setScheduledExecutorService(reaper).setExecutorService(Executors.newCachedThreadPool()).build());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.close();
+	}
+
+	public void testBackoffDoublesUpToTheMaxWithJitter() throws Exception {
+		refuse = true;
+		ReconnectingWebSocket ws = builder().setInitialBackoffInMs(10).setMaxBackoffInMs(40).setMaxAttempts(5).build().connect();
+
+		assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+		assertEquals(4, delays.size());
+		long[] backoffs = { 20, 40, 40, 40 };
+		for (int i = 0; i < backoffs.length; i++) {
+			long delay = delays.get(i);
+			assertTrue("delay " + delay, delay >= backoffs[i] / 2 && delay <= backoffs[i]);
+		}
+		assertEquals(5, ws.getStatistics().getAttempts());
+		assertEquals(5, ws.getStatistics().getFailedAttempts());
+		assertTrue(listener.errors.get(0).getMessage().startsWith("Gave up"));
+		assertEquals(1, listener.closes.get());
+	}
+
+	public void testQueueIsBoundedByCountAndBytes() throws Exception {
+		ReconnectingWebSocket ws = builder().setMaxQueuedMessages(2).setMaxQueuedBytes(10).build();
+
+		WebSocketWriteFuture first = ws.sendTextMessage("abc");
+		assertFalse(ws.sendMessage(new byte[8]).isSuccess());
+		WebSocketWriteFuture second = ws.sendTextMessage("d");
+		assertFalse(ws.sendTextMessage("e").isSuccess());
+
+		assertFalse(first.isDone());
+		assertFalse(second.isDone());
+		assertEquals(2, ws.getQueuedMessages());
+		assertEquals(4, ws.getQueuedBytes());
+		assertEquals(2, ws.getStatistics().getDroppedMessages());
+	}
+
+	public void testQueuedMessagesFollowTheHandshakeInOrder() throws Exception {
+		final CountDownLatch subscribing = new CountDownLatch(1);
+		final CountDownLatch subscribed = new CountDownLatch(1);
+		ReconnectingWebSocket ws = builder().setSubscriptionHandshake(new ReconnectingWebSocket.SubscriptionHandshake() {
+			public void subscribe(WebSocket webSocket) throws Exception {
+				webSocket.sendTextMessage("subscribe");
+				subscribing.countDown();
+				subscribed.await();
+			}
+		}).build();
+		WebSocketWriteFuture a = ws.sendTextMessage("a");
+		ws.sendTextMessage("b");
+		ws.connect();
+
+		FakeWebSocket connection = nextAttempt().open();
+		assertTrue(subscribing.await(5, TimeUnit.SECONDS));
+		// still draining : a new message waits behind the queued ones.
+		ws.sendTextMessage("c");
+		assertEquals(3, ws.getQueuedMessages());
+		subscribed.countDown();
+
+		a.get(5, TimeUnit.SECONDS);
+		waitFor(connection, 4);
+		assertEquals(0, ws.getQueuedMessages());
+		assertEquals(0, ws.getQueuedBytes());
+
+		// open : sent at once.
+		assertTrue(ws.sendTextMessage("d").isSuccess());
+		assertEquals(list("subscribe", "a", "b", "c", "d"), connection.sent);
+		assertEquals(1, listener.opens.get());
+	}
+
+	public void testReconnectsAfterALostConnection() throws Exception {
+		ReconnectingWebSocket ws = builder().setInitialBackoffInMs(10).setMaxBackoffInMs(40).build().connect();
+		FakeWebSocket first = nextAttempt().open();
+
+		first.drop(1006, "lost");
+		assertEquals(1, listener.closes.get());
+		assertEquals(list("1006 lost"), listener.reasons);
+		assertTrue(delays.get(0) >= 5 && delays.get(0) <= 10);
+
+		WebSocketWriteFuture queued = ws.sendTextMessage("again");
+		FakeWebSocket second = nextAttempt().open();
+		queued.get(5, TimeUnit.SECONDS);
+		assertEquals(list("again"), second.sent);
+		assertTrue(first.sent.isEmpty());
+		assertEquals(2, ws.getStatistics().getConnects());
+		assertEquals(1, ws.getStatistics().getReconnects());
+	}
+
+	public void testCloseWhileConnectingDropsTheAbandonedAttempt() throws Exception {
+		ReconnectingWebSocket ws = builder().build();
+		WebSocketWriteFuture queued = ws.sendTextMessage("never");
+		ws.connect();
+		Attempt attempt = nextAttempt();
+
+		ws.close();
+		assertTrue(queued.isDone());
+		assertFalse(queued.isSuccess());
+		assertEquals(1, listener.closes.get());
+
+		// the attempt completes anyway : its connection is closed, none of its events reach the listener.
+		FakeWebSocket late = attempt.open();
+		assertFalse(late.isOpen());
+		attempt.handler.onFailure(new IOException("late"));
+		assertEquals(0, listener.opens.get());
+		assertEquals(1, listener.closes.get());
+		assertTrue(listener.reasons.isEmpty());
+		assertTrue(listener.errors.isEmpty());
+		assertTrue(delays.isEmpty());
+	}
+
+	public void testClosedClientStopsReconnecting() throws Exception {
+		ReconnectingWebSocket ws = builder().build().connect();
+		FakeWebSocket connection = nextAttempt().open();
+		reaper.shutdownNow();
+
+		connection.drop(1006, "lost");
+		assertFalse(ws.isOpen());
+		assertTrue(listener.errors.get(0).getMessage().startsWith("Cannot reconnect"));
+		assertEquals(1, listener.closes.get());
+		assertFalse(ws.sendTextMessage("after").isSuccess());
+	}
+
+	private ReconnectingWebSocket.Builder builder() {
+		return new ReconnectingWebSocket.Builder(client, "ws://localhost/test").addWebSocketListener(listener).setConnector(new ReconnectingWebSocket.Connector() {
+			public ListenableFuture<WebSocket> connect(String uri, WebSocketUpgradeHandler handler) throws IOException {
+				Attempt attempt = new Attempt(handler);
+				if (refuse) {
+					attempt.fail(new IOException("refused"));
+				} else {
+					attempts.add(attempt);
+				}
+				return attempt;
+			}
+		});
+	}
+
+	private Attempt nextAttempt() throws InterruptedException {
+		Attempt attempt = attempts.poll(5, TimeUnit.SECONDS);
+		assertNotNull("no connection attempt", attempt);
+		return attempt;
+	}
+
+	private static void waitFor(FakeWebSocket connection, int messages) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (connection.sent.size() < messages && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static List<String> list(String... values) {
+		List<String> result = new ArrayList<String>();
+		for (String value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	private static class RecordingListener implements WebSocketListener, WebSocketCloseCodeReasonListener {
+		final AtomicInteger opens = new AtomicInteger();
+		final AtomicInteger closes = new AtomicInteger();
+		final CountDownLatch closed = new CountDownLatch(1);
+		final List<String> reasons = new CopyOnWriteArrayList<String>();
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+
+		public void onOpen(WebSocket websocket) {
+			opens.incrementAndGet();
+		}
+
+		public void onClose(WebSocket websocket, int code, String reason) {
+			reasons.add(code + " " + reason);
+		}
+
+		public void onClose(WebSocket websocket) {
+			closes.incrementAndGet();
+			closed.countDown();
+		}
+
+		public void onError(Throwable t) {
+			errors.add(t);
+		}
+	}
+
+	private static class Attempt extends AbstractListenableFuture<WebSocket> {
+		final WebSocketUpgradeHandler handler;
+		private volatile Throwable cause;
+		private volatile boolean done;
+
+		Attempt(WebSocketUpgradeHandler handler) {
+			this.handler = handler;
+		}
+
+		FakeWebSocket open() {
+			FakeWebSocket webSocket = new FakeWebSocket();
+			handler.onSuccess(webSocket);
+			return webSocket;
+		}
+
+		void fail(Throwable t) {
+			cause = t;
+			done = true;
+			done();
+		}
+
+		public void done(Callable<?> callable) {
+		}
+
+		public void abort(Throwable t) {
+			fail(t);
+		}
+
+		public void content(WebSocket v) {
+		}
+
+		public void touch() {
+		}
+
+		public boolean getAndSetWriteHeaders(boolean writeHeader) {
+			return writeHeader;
+		}
+
+		public boolean getAndSetWriteBody(boolean writeBody) {
+			return writeBody;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+
+		public WebSocket get() throws InterruptedException, ExecutionException {
+			if (cause != null) {
+				throw new ExecutionException(cause);
+			}
+			return null;
+		}
+
+		public WebSocket get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return get();
+		}
+	}
+
+	/**
+	 * Writes succeed at once, closing tells the listeners the way NettyWebSocket does.
+	 */
+	private static class FakeWebSocket implements WebSocket {
+		final List<String> sent = new CopyOnWriteArrayList<String>();
+		private final List<WebSocketListener> listeners = new CopyOnWriteArrayList<WebSocketListener>();
+		private volatile boolean open = true;
+
+		void drop(int code, String reason) {
+			if (!open) {
+				return;
+			}
+			open = false;
+			for (WebSocketListener l : listeners) {
+				if (l instanceof WebSocketCloseCodeReasonListener) {
+					((WebSocketCloseCodeReasonListener) l).onClose(this, code, reason);
+				}
+				l.onClose(this);
+			}
+		}
+
+		private WebSocketWriteFuture written(String message) {
+			if (!open) {
+				return DeferredWriteFuture.failed(new IOException("closed"));
+			}
+			sent.add(message);
+			return DeferredWriteFuture.failed(null);
+		}
+
+		public WebSocketWriteFuture sendMessage(byte[] message) {
+			return written(new String(message));
+		}
+
+		public WebSocketWriteFuture stream(byte[] fragment, boolean last) {
+			return written(new String(fragment));
+		}
+
+		public WebSocketWriteFuture stream(byte[] fragment, int offset, int len, boolean last) {
+			return written(new String(fragment, offset, len));
+		}
+
+		public WebSocketWriteFuture sendTextMessage(String message) {
+			return written(message);
+		}
+
+		public WebSocketWriteFuture streamText(String fragment, boolean last) {
+			return written(fragment);
+		}
+
+		public WebSocketWriteFuture sendPing(byte[] payload) {
+			return written("ping");
+		}
+
+		public WebSocketWriteFuture sendPong(byte[] payload) {
+			return written("pong");
+		}
+
+		public WebSocket addWebSocketListener(WebSocketListener l) {
+			listeners.add(l);
+			return this;
+		}
+
+		public WebSocket removeWebSocketListener(WebSocketListener l) {
+			listeners.remove(l);
+			return this;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public boolean isWritable() {
+			return open;
+		}
+
+		public long getOutboundBytes() {
+			return 0;
+		}
+
+		public void close() {
+			drop(1000, "closed");
+		}
+	}
+}